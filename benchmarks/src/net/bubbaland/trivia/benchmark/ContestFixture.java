@@ -0,0 +1,82 @@
+package net.bubbaland.trivia.benchmark;
+
+import java.util.Random;
+
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.ScoreEntry;
+import net.bubbaland.trivia.Trivia;
+
+/**
+ * Builds synthetic contests for the benchmarks.
+ *
+ * Every round is fully played: each question is opened, given text and a value, and receives a share of the proposed
+ * answers with agreement from the users. Rounds before the current one are closed and have announced standings.
+ *
+ * @author Walter Kolczynski
+ */
+public class ContestFixture {
+
+	private ContestFixture() {}
+
+	/**
+	 * Create a synthetic contest.
+	 *
+	 * @param nRounds
+	 *            The number of rounds
+	 * @param nQuestions
+	 *            The number of questions in each round
+	 * @param queueSize
+	 *            The number of proposed answers in each round
+	 * @param nUsers
+	 *            The number of users submitting and agreeing with answers
+	 * @return The populated contest
+	 */
+	public static Trivia makeContest(int nRounds, int nQuestions, int queueSize, int nUsers) {
+		final Random random = new Random(42);
+		final Trivia trivia = new Trivia("Benchmark Team", 1, nRounds, nQuestions, nQuestions * 2, nQuestions * 4);
+		final ScoreEntry[] standings = makeStandings(100);
+		for (int r = 1; r <= nRounds; r++) {
+			final Round round = trivia.getRound(r);
+			for (int q = 1; q <= nQuestions; q++) {
+				round.open("User0", q);
+				round.editQuestion(q, 50 + 5 * random.nextInt(10),
+						"This is the text of round " + r + " question " + q + ", which asks about something obscure.");
+			}
+			for (int a = 0; a < queueSize; a++) {
+				final int qNumber = 1 + random.nextInt(nQuestions);
+				round.proposeAnswer(qNumber, "Answer " + random.nextInt(queueSize), "User" + random.nextInt(nUsers),
+						1 + random.nextInt(5));
+				for (int u = 0; u < 3; u++) {
+					round.changeAgreement("User" + random.nextInt(nUsers), a,
+							random.nextBoolean() ? Agreement.AGREE : Agreement.DISAGREE);
+				}
+			}
+			if (r < nRounds) {
+				for (int q = 1; q <= nQuestions; q++) {
+					round.close(q, null);
+				}
+				round.setStandings(standings, "Benchmark Team");
+			}
+		}
+		trivia.setCurrentRoundNumber(nRounds);
+		return trivia;
+	}
+
+	/**
+	 * Create announced standings for a number of teams.
+	 *
+	 * @param nTeams
+	 *            The number of teams
+	 * @return The standings
+	 */
+	public static ScoreEntry[] makeStandings(int nTeams) {
+		final ScoreEntry[] standings = new ScoreEntry[nTeams];
+		standings[0] = new ScoreEntry("Benchmark Team", 1000 * nTeams, 1);
+		for (int t = 1; t < nTeams; t++) {
+			standings[t] = new ScoreEntry("Team " + t, 1000 * ( nTeams - t ), t + 1);
+		}
+		return standings;
+	}
+
+}
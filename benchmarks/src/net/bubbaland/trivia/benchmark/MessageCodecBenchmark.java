@@ -0,0 +1,117 @@
+package net.bubbaland.trivia.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.messages.AgreementMessage;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.ProposeAnswerMessage;
+import net.bubbaland.trivia.messages.TriviaDataMessage;
+import net.bubbaland.trivia.messages.UpdateRoundsMessage;
+
+/**
+ * Encode and decode time per message type.
+ *
+ * The <code>legacy</code> benchmarks reproduce the previous encoder and decoder, which built and configured a new
+ * <code>ObjectMapper</code> for every message. The <code>codec</code> benchmarks use the shared
+ * <code>MessageCodec</code>.
+ *
+ * Run with <code>java -jar target/benchmarks.jar MessageCodecBenchmark</code>.
+ *
+ * @author Walter Kolczynski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	private static final JsonFactory	jsonFactory	= new JsonFactory();
+
+	@Param({ "AgreementMessage", "ProposeAnswerMessage", "UpdateRoundsMessage", "TriviaDataMessage" })
+	public String						messageType;
+
+	private Message						message;
+	private String						encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		final Trivia trivia = ContestFixture.makeContest(50, 9, 100, 40);
+		final Round current = trivia.getCurrentRound();
+		switch (this.messageType) {
+			case "AgreementMessage":
+				this.message = new AgreementMessage(current.getRoundNumber(), 3, Agreement.AGREE);
+				break;
+			case "ProposeAnswerMessage":
+				this.message = new ProposeAnswerMessage(current.getRoundNumber(), 4, "George Washington Carver", 3);
+				break;
+			case "UpdateRoundsMessage":
+				this.message = new UpdateRoundsMessage(new Round[] { current });
+				break;
+			case "TriviaDataMessage":
+				this.message = new TriviaDataMessage(trivia, 1L);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown message type " + this.messageType);
+		}
+		this.encoded = MessageCodec.encode(this.message);
+	}
+
+	@Benchmark
+	public String legacyEncode() throws IOException {
+		final StringWriter writer = new StringWriter();
+		final ObjectMapper mapper = legacyMapper();
+		mapper.writeValue(jsonFactory.createGenerator(writer), this.message);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public Message legacyDecode() throws IOException {
+		return legacyMapper().readValue(this.encoded, Message.class);
+	}
+
+	@Benchmark
+	public String codecEncode() throws IOException {
+		return MessageCodec.encode(this.message);
+	}
+
+	@Benchmark
+	public Message codecDecode() throws IOException {
+		return MessageCodec.decode(this.encoded);
+	}
+
+	private static ObjectMapper legacyMapper() {
+		final ObjectMapper mapper = new ObjectMapper();
+		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		mapper.setVisibility(mapper.getVisibilityChecker().with(JsonAutoDetect.Visibility.NONE));
+		mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+		return mapper;
+	}
+
+}
@@ -0,0 +1,196 @@
+package net.bubbaland.trivia.benchmark;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Answer.Status;
+import net.bubbaland.trivia.Question;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.messages.MessageCodec;
+
+/**
+ * Time of the contest data model's queries, the ones the server and every client call whenever a round changes.
+ *
+ * Contests are built by {@link ContestFixture} with the given numbers of rounds, questions per round, answers in each
+ * round's queue and users. Methods that change the model without growing it are included here; proposing answers,
+ * which grows the queue, is in {@link RoundMutationBenchmark}.
+ *
+ * Run with <code>java -jar target/benchmarks.jar ModelBenchmark</code>, adding for example
+ * <code>-p queueSize=1000</code> to pick parameters.
+ *
+ * @author Walter Kolczynski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	@Param({ "10", "50" })
+	public int				nRounds;
+
+	@Param({ "9", "36" })
+	public int				nQuestions;
+
+	@Param({ "20", "200", "1000" })
+	public int				queueSize;
+
+	@Param({ "40" })
+	public int				nUsers;
+
+	private Trivia			trivia;
+	private Round			current;
+	// Versions held by a client that has missed one change to the current round
+	private int[]			oldVersions;
+	private String			roundJson;
+	private ObjectMapper	mapper;
+	private boolean			renamed;
+	// The last snapshot copy of the current round
+	private Round			copy;
+
+	@Setup
+	public void setup() throws IOException {
+		this.trivia = ContestFixture.makeContest(this.nRounds, this.nQuestions, this.queueSize, this.nUsers);
+		this.current = this.trivia.getCurrentRound();
+		this.oldVersions = this.trivia.getVersions();
+		this.oldVersions[this.current.getRoundNumber() - 1]--;
+		this.mapper = MessageCodec.getMapper();
+		this.roundJson = this.mapper.writeValueAsString(this.current);
+		this.copy = this.current.copy(null);
+	}
+
+	@Benchmark
+	public Round[] getChangedRounds() {
+		return this.trivia.getChangedRounds(this.oldVersions);
+	}
+
+	@Benchmark
+	public int[] getVersions() {
+		return this.trivia.getVersions();
+	}
+
+	@Benchmark
+	public int getCumulativeEarned() {
+		return this.trivia.getCumulativeEarned(this.current.getRoundNumber());
+	}
+
+	@Benchmark
+	public int getCumulativeValue() {
+		return this.trivia.getCumulativeValue(this.current.getRoundNumber());
+	}
+
+	@Benchmark
+	public Question[] getQuestions() {
+		return this.current.getQuestions();
+	}
+
+	@Benchmark
+	public int nCorrect() {
+		return this.current.nCorrect();
+	}
+
+	@Benchmark
+	public Question[] getOpenQuestions() {
+		return this.current.getOpenQuestions();
+	}
+
+	@Benchmark
+	public Answer[] getAnswersToQuestion() {
+		return this.current.getAnswers(7);
+	}
+
+	@Benchmark
+	public Answer[] getUncalledAnswers() {
+		return this.current.getAnswers(Status.NOT_CALLED_IN);
+	}
+
+	/**
+	 * The agreement the queue panel shows for every answer in the round whenever it redraws: the tally and the users
+	 * on each side.
+	 */
+	@Benchmark
+	public int getAgreementForQueue() {
+		int n = 0;
+		for (final Answer answer : this.current.getAnswerQueue()) {
+			final String[] agreers = answer.getConcurList(Agreement.AGREE);
+			final String[] disagreers = answer.getConcurList(Agreement.DISAGREE);
+			n += answer.getAgreement() + ( agreers == null ? 0 : agreers.length )
+					+ ( disagreers == null ? 0 : disagreers.length );
+		}
+		return n;
+	}
+
+	/**
+	 * Marking the same answer again repeats the whole scan for matching answers without growing the queue.
+	 */
+	@Benchmark
+	public int markDuplicate() {
+		this.current.markDuplicate(this.queueSize / 2);
+		return this.current.getVersion();
+	}
+
+	/**
+	 * Renaming a user back and forth, as a ChangeUserMessage does, which renames them in every round.
+	 */
+	@Benchmark
+	public int changeUserName() {
+		this.renamed = !this.renamed;
+		if (this.renamed) {
+			this.trivia.changeUserName("User1", "User1 renamed");
+		} else {
+			this.trivia.changeUserName("User1 renamed", "User1");
+		}
+		return this.current.getVersion();
+	}
+
+	/**
+	 * Changing one answer and copying the round for a snapshot, as the server does after each batch of changes.
+	 */
+	@Benchmark
+	public Round copyChangedRound() {
+		this.current.changeAgreement("User2", this.queueSize / 2, Agreement.AGREE);
+		this.copy = this.current.copy(this.copy);
+		return this.copy;
+	}
+
+	@Benchmark
+	public LinkedHashMap<Question, Round> searchQuestions() {
+		return this.trivia.search("question 7,", true, false);
+	}
+
+	@Benchmark
+	public LinkedHashMap<Question, Round> searchQuestionsAndAnswers() {
+		return this.trivia.search("obscure", true, true);
+	}
+
+	@Benchmark
+	public String serializeRound() throws IOException {
+		return this.mapper.writeValueAsString(this.current);
+	}
+
+	@Benchmark
+	public Round deserializeRound() throws IOException {
+		return this.mapper.readValue(this.roundJson, Round.class);
+	}
+
+}
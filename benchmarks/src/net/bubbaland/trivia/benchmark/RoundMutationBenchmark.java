@@ -0,0 +1,76 @@
+package net.bubbaland.trivia.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+
+/**
+ * Time to propose an answer, which scans the queue for duplicates of the new answer.
+ *
+ * Every proposal makes the queue longer, so each iteration starts from a new contest and times a fixed batch of
+ * proposals; the queue grows by at most the batch size while it is measured, and scores are for the whole batch of
+ * 100. The duplicate benchmark proposes the text of an answer already in the queue, which also marks the new answer
+ * as a duplicate.
+ *
+ * Run with <code>java -jar target/benchmarks.jar RoundMutationBenchmark</code>.
+ *
+ * @author Walter Kolczynski
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = 100)
+@Measurement(iterations = 20, batchSize = 100)
+@Fork(1)
+public class RoundMutationBenchmark {
+
+	@Param({ "9", "36" })
+	public int		nQuestions;
+
+	@Param({ "20", "200", "1000" })
+	public int		queueSize;
+
+	@Param({ "40" })
+	public int		nUsers;
+
+	private Round	current;
+	private String	existingText;
+	private int		existingQNumber;
+	private int		nProposed;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		final Trivia trivia = ContestFixture.makeContest(1, this.nQuestions, this.queueSize, this.nUsers);
+		this.current = trivia.getCurrentRound();
+		this.existingText = this.current.getAnswer(this.queueSize / 2).getAnswerText();
+		this.existingQNumber = this.current.getAnswer(this.queueSize / 2).getQNumber();
+		this.nProposed = 0;
+	}
+
+	@Benchmark
+	public int proposeAnswer() {
+		this.current.proposeAnswer(1 + this.nProposed % this.nQuestions, "New answer " + this.nProposed++, "User0", 3);
+		return this.current.getVersion();
+	}
+
+	@Benchmark
+	public int proposeDuplicateAnswer() {
+		this.current.proposeAnswer(this.existingQNumber, this.existingText, "User0", 3);
+		return this.current.getVersion();
+	}
+
+}
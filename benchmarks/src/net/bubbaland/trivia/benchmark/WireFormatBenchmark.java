@@ -0,0 +1,135 @@
+package net.bubbaland.trivia.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.messages.AgreementMessage;
+import net.bubbaland.trivia.messages.AnswerAddedDeltaMessage;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.ProposeAnswerMessage;
+import net.bubbaland.trivia.messages.TriviaDataMessage;
+import net.bubbaland.trivia.messages.UpdateRoundsMessage;
+import net.bubbaland.trivia.messages.WireFormat;
+
+/**
+ * Encode and decode time per message type in each wire format.
+ *
+ * Run with <code>java -jar target/benchmarks.jar WireFormatBenchmark</code>. Running this class directly prints the
+ * encoded size of each message in each format instead.
+ *
+ * @author Walter Kolczynski
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	@Param({ "AgreementMessage", "ProposeAnswerMessage", "AnswerAddedDeltaMessage", "UpdateRoundsMessage",
+			"TriviaDataMessage" })
+	public String	messageType;
+
+	@Param({ "JSON", "COMPACT", "SMILE" })
+	public String		format;
+
+	private WireFormat	wireFormat;
+	private Message		message;
+	private String		encoded;
+	private byte[]		encodedBytes;
+
+	@Setup
+	public void setup() throws IOException {
+		this.wireFormat = WireFormat.valueOf(this.format);
+		this.message = makeMessage(this.messageType, ContestFixture.makeContest(50, 9, 100, 40));
+		if (this.wireFormat.isBinary()) {
+			this.encodedBytes = MessageCodec.encodeBinary(this.message);
+		} else {
+			this.encoded = MessageCodec.encode(this.message, this.wireFormat);
+		}
+	}
+
+	@Benchmark
+	public Object encode() throws IOException {
+		return this.wireFormat.isBinary() ? MessageCodec.encodeBinary(this.message)
+				: MessageCodec.encode(this.message, this.wireFormat);
+	}
+
+	@Benchmark
+	public Message decode() throws IOException {
+		return this.wireFormat.isBinary() ? MessageCodec.decode(ByteBuffer.wrap(this.encodedBytes))
+				: MessageCodec.decode(this.encoded);
+	}
+
+	/**
+	 * Create a sample message of a type from a contest.
+	 *
+	 * @param messageType
+	 *            The simple name of the message class
+	 * @param trivia
+	 *            The contest
+	 * @return The message
+	 */
+	private static Message makeMessage(String messageType, Trivia trivia) {
+		final Round current = trivia.getCurrentRound();
+		switch (messageType) {
+			case "AgreementMessage":
+				return new AgreementMessage(current.getRoundNumber(), 3, Agreement.AGREE);
+			case "ProposeAnswerMessage":
+				return new ProposeAnswerMessage(current.getRoundNumber(), 4, "George Washington Carver", 3);
+			case "AnswerAddedDeltaMessage":
+				final Answer[] answers = current.getAnswerQueue();
+				return new AnswerAddedDeltaMessage(current.getRoundNumber(), current.getVersion() - 1,
+						current.getVersion(), answers[answers.length - 1]);
+			case "UpdateRoundsMessage":
+				return new UpdateRoundsMessage(new Round[] { current });
+			case "TriviaDataMessage":
+				return new TriviaDataMessage(trivia, 1L);
+			default:
+				throw new IllegalArgumentException("Unknown message type " + messageType);
+		}
+	}
+
+	/**
+	 * Print the encoded size of each sample message in each wire format.
+	 *
+	 * @param args
+	 *            Unused
+	 * @throws IOException
+	 *             If a message can't be encoded
+	 */
+	public static void main(String[] args) throws IOException {
+		final Trivia trivia = ContestFixture.makeContest(50, 9, 100, 40);
+		System.out.println(String.format("%-26s %12s %12s %12s", "Message", "JSON", "Compact", "Smile"));
+		for (final String messageType : new String[] { "AgreementMessage", "ProposeAnswerMessage",
+				"AnswerAddedDeltaMessage", "UpdateRoundsMessage", "TriviaDataMessage" }) {
+			final Message message = makeMessage(messageType, trivia);
+			final int json = MessageCodec.encode(message, WireFormat.JSON).getBytes(StandardCharsets.UTF_8).length;
+			final int compact =
+					MessageCodec.encode(message, WireFormat.COMPACT).getBytes(StandardCharsets.UTF_8).length;
+			final int smile = MessageCodec.encodeBinary(message).length;
+			System.out.println(String.format("%-26s %12d %12d %12d", messageType, json, compact, smile));
+		}
+	}
+
+}
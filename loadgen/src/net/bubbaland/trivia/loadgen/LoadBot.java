@@ -0,0 +1,546 @@
+package net.bubbaland.trivia.loadgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Question;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.messages.AgreementMessage;
+import net.bubbaland.trivia.messages.CallInAnswerMessage;
+import net.bubbaland.trivia.messages.ChangeUserMessage;
+import net.bubbaland.trivia.messages.CloseQuestionMessage;
+import net.bubbaland.trivia.messages.FetchRoundMessage;
+import net.bubbaland.trivia.messages.FetchTriviaMessage;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.OpenQuestionMessage;
+import net.bubbaland.trivia.messages.ProposeAnswerMessage;
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
+import net.bubbaland.trivia.messages.SetRoundMessage;
+import net.bubbaland.trivia.messages.SetSpeedRoundMessage;
+import net.bubbaland.trivia.messages.TriviaDataMessage;
+import net.bubbaland.trivia.messages.UpdateRoundsMessage;
+import net.bubbaland.trivia.messages.WireFormat;
+
+/**
+ * A headless client playing one member of the team.
+ *
+ * Each bot keeps its own copy of the contest, updated from the server's broadcasts the same way TriviaClient does, and
+ * proposes, agrees with and calls in answers at random times. When a bot sends a change it remembers what its copy
+ * should look like once the server has applied the change; the time from sending until the copy shows it is the
+ * end-to-end latency. The lead bot also runs the contest: it opens and closes questions, marks speed rounds and moves
+ * on to the next round when the current one is done.
+ *
+ * @author Walter Kolczynski
+ */
+class LoadBot extends Endpoint {
+
+	// How often the lead checks whether questions need to be opened or closed (milliseconds)
+	private static final int			OPERATE_INTERVAL	= 250;
+
+	final private LoadGenerator			generator;
+	final private String				name;
+	final private boolean				lead;
+	final private Random				random;
+
+	// Changes sent that haven't shown up in the local copy yet, guarded by this bot
+	final private ArrayList<Pending>	pending;
+	// When the lead opened each question that is still open (nanoseconds), by question number
+	final private HashMap<Integer, Long>	openedAt;
+	// Rounds requested in full that haven't arrived yet, guarded by this bot
+	final private HashSet<Integer>		pendingFetches;
+	// Serializes sends, since the connection can't send from two threads at once
+	final private Object				sendLock;
+
+	private volatile Session			session;
+	private volatile WireFormat			format;
+	private volatile boolean			running;
+	private ScheduledExecutorService	scheduler;
+
+	// The local copy of the contest (null until the server sends it), guarded by this bot
+	private Trivia						trivia;
+	// The lead's last change to the contest, which must show up before it makes another
+	private Pending						operation;
+	// Number of answers proposed, to keep each answer's text unique
+	private int							nProposed;
+
+	/**
+	 * Create a new bot.
+	 *
+	 * @param generator
+	 *            The load generator collecting the results
+	 * @param name
+	 *            The user name
+	 * @param lead
+	 *            Whether this bot runs the contest
+	 * @param seed
+	 *            Seed for the bot's random choices
+	 */
+	LoadBot(LoadGenerator generator, String name, boolean lead, long seed) {
+		this.generator = generator;
+		this.name = name;
+		this.lead = lead;
+		this.random = new Random(seed);
+		this.pending = new ArrayList<Pending>();
+		this.openedAt = new HashMap<Integer, Long>();
+		this.pendingFetches = new HashSet<Integer>();
+		this.sendLock = new Object();
+	}
+
+	@Override
+	public void onOpen(Session session, EndpointConfig config) {
+		this.session = session;
+		this.format = WireFormat.forSubprotocol(session.getNegotiatedSubprotocol());
+		session.addMessageHandler(new MessageHandler.Whole<String>() {
+			@Override
+			public void onMessage(String text) {
+				LoadBot.this.generator.countReceived(utf8Length(text));
+				try {
+					LoadBot.this.receive(MessageCodec.decode(text));
+				} catch (final IOException exception) {
+					LoadBot.this.generator.countError();
+					exception.printStackTrace();
+				}
+			}
+		});
+		session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+			@Override
+			public void onMessage(ByteBuffer bytes) {
+				LoadBot.this.generator.countReceived(bytes.remaining());
+				try {
+					LoadBot.this.receive(MessageCodec.decode(bytes));
+				} catch (final IOException exception) {
+					LoadBot.this.generator.countError();
+					exception.printStackTrace();
+				}
+			}
+		});
+		this.send(new ChangeUserMessage(this.name));
+		this.send(new FetchTriviaMessage());
+	}
+
+	@Override
+	public void onError(Session session, Throwable throwable) {
+		this.generator.countError();
+		throwable.printStackTrace();
+	}
+
+	@Override
+	public void onClose(Session session, CloseReason closeReason) {
+		if (this.running) {
+			System.out.println(this.name + " disconnected: " + closeReason);
+			this.running = false;
+		}
+	}
+
+	/**
+	 * Start acting.
+	 *
+	 * @param scheduler
+	 *            Runs the bot's actions
+	 */
+	void start(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+		this.running = true;
+		this.scheduleNext();
+		if (this.lead) {
+			scheduler.scheduleWithFixedDelay(() -> this.operate(), OPERATE_INTERVAL, OPERATE_INTERVAL,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop acting and close the connection.
+	 */
+	void stop() {
+		this.running = false;
+		final Session session = this.session;
+		if (session != null && session.isOpen()) {
+			try {
+				session.close();
+			} catch (final IOException exception) {
+				exception.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return whether the bot has the contest data and can act
+	 */
+	synchronized boolean isReady() {
+		return this.trivia != null;
+	}
+
+	/**
+	 * Update the local copy of the contest from a message sent by the server.
+	 *
+	 * @param genericMessage
+	 *            The message
+	 */
+	private void receive(Message genericMessage) {
+		Message reply = null;
+		synchronized (this) {
+			switch (genericMessage.getClass().getSimpleName()) {
+				case "TriviaDataMessage": {
+					this.trivia = ( (TriviaDataMessage) genericMessage ).getTrivia();
+					this.pendingFetches.clear();
+					break;
+				}
+				case "SetRoundMessage": {
+					if (this.trivia != null) {
+						this.trivia.setCurrentRoundNumber(( (SetRoundMessage) genericMessage ).getRoundNumber());
+					}
+					break;
+				}
+				case "UpdateRoundsMessage": {
+					if (this.trivia != null) {
+						final Round[] rounds = ( (UpdateRoundsMessage) genericMessage ).getUpdatedRounds();
+						this.trivia.updateRounds(rounds);
+						for (final Round round : rounds) {
+							this.pendingFetches.remove(round.getRoundNumber());
+						}
+					}
+					break;
+				}
+				case "AnswerAddedDeltaMessage":
+				case "AnswerStatusDeltaMessage":
+				case "AgreementDeltaMessage":
+				case "QuestionDeltaMessage": {
+					if (this.trivia == null) {
+						break;
+					}
+					final RoundDeltaMessage message = (RoundDeltaMessage) genericMessage;
+					final Round round = this.trivia.getRound(message.getRoundNumber());
+					if (round.getVersion() > message.getBaseVersion()) {
+						// Already included in a full round sent since
+						break;
+					}
+					if (round.getVersion() == message.getBaseVersion()) {
+						try {
+							message.apply(round);
+						} catch (final RuntimeException exception) {
+							// The round doesn't match the server's after all, so fetch it below
+							this.generator.countError();
+							exception.printStackTrace();
+						}
+					}
+					if (round.getVersion() != message.getVersion()
+							&& this.pendingFetches.add(message.getRoundNumber())) {
+						// Missed an update, get the whole round unless it has already been requested
+						reply = new FetchRoundMessage(message.getRoundNumber());
+					}
+					break;
+				}
+				default:
+					break;
+			}
+			if (this.trivia != null) {
+				this.checkPending();
+			}
+		}
+		if (reply != null) {
+			this.send(reply);
+		}
+	}
+
+	/**
+	 * Record the latency of every change that now shows in the local copy, and give up on changes that have taken too
+	 * long.
+	 */
+	private void checkPending() {
+		final long now = System.nanoTime();
+		final Iterator<Pending> iterator = this.pending.iterator();
+		while (iterator.hasNext()) {
+			final Pending change = iterator.next();
+			if (change.seen.test(this.trivia)) {
+				this.generator.recordLatency(now - change.sent);
+				iterator.remove();
+			} else if (now - change.sent > this.generator.getLostTimeout()) {
+				this.generator.countLost();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remember a change about to be sent.
+	 *
+	 * @param seen
+	 *            Tests whether the local copy shows the change
+	 * @return The pending change
+	 */
+	private Pending expect(Predicate<Trivia> seen) {
+		final Pending change = new Pending(seen);
+		this.pending.add(change);
+		this.generator.countChange();
+		return change;
+	}
+
+	/**
+	 * Schedule the next action after a random delay, so actions arrive at the profile's rate on average.
+	 */
+	private void scheduleNext() {
+		if (!this.running) {
+			return;
+		}
+		final double rate;
+		synchronized (this) {
+			rate = this.trivia == null ? 0 : this.generator.getProfile(this.currentRound().isSpeed()).getTotalRate();
+		}
+		// Check back later if the bot isn't ready or the profile is idle
+		final long delay = rate > 0 ? (long) ( -Math.log(1 - this.random.nextDouble()) / rate * 1e9 ) : 1000000000L;
+		this.scheduler.schedule(() -> this.act(), delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Propose an answer, change an agreement or call in an answer in the current round.
+	 */
+	private void act() {
+		if (!this.running) {
+			return;
+		}
+		Message message = null;
+		synchronized (this) {
+			if (this.trivia != null) {
+				this.checkPending();
+				final Round round = this.currentRound();
+				final RoundProfile profile = this.generator.getProfile(round.isSpeed());
+				double choice = this.random.nextDouble() * profile.getTotalRate();
+				if (( choice -= profile.getProposeRate() ) < 0) {
+					message = this.propose(round);
+				} else if (( choice -= profile.getAgreeRate() ) < 0) {
+					message = this.agree(round);
+				} else {
+					message = this.callIn(round);
+				}
+			}
+		}
+		if (message != null) {
+			this.send(message);
+		}
+		this.scheduleNext();
+	}
+
+	/**
+	 * Propose an answer with unique text for a random open question.
+	 *
+	 * @param round
+	 *            The current round
+	 * @return The message to send, or null if no question is open
+	 */
+	private Message propose(Round round) {
+		final Question[] open = round.getOpenQuestions();
+		if (open.length == 0) {
+			return null;
+		}
+		final int rNumber = round.getRoundNumber();
+		final int qNumber = open[this.random.nextInt(open.length)].getQuestionNumber();
+		final String answerText = this.name + " answer " + ++this.nProposed;
+		// Answers are only ever added to the end of the queue
+		final int queueSize = round.getAnswerQueueSize();
+		this.expect(trivia -> {
+			final Round current = trivia.getRound(rNumber);
+			for (int i = queueSize; i < current.getAnswerQueueSize(); i++) {
+				final Answer answer = current.getAnswer(i);
+				if (answer != null && answerText.equals(answer.getAnswerText())) {
+					return true;
+				}
+			}
+			return false;
+		});
+		return new ProposeAnswerMessage(rNumber, qNumber, answerText, 1 + this.random.nextInt(5));
+	}
+
+	/**
+	 * Change this bot's agreement with a random answer.
+	 *
+	 * @param round
+	 *            The current round
+	 * @return The message to send, or null if there are no answers
+	 */
+	private Message agree(Round round) {
+		final Answer[] answers = round.getAnswerQueue();
+		if (answers.length == 0) {
+			return null;
+		}
+		final int rNumber = round.getRoundNumber();
+		final int queueIndex = answers[this.random.nextInt(answers.length)].getQueueLocation() - 1;
+		final Agreement[] agreements = Agreement.values();
+		final Agreement current = round.getAgreement(this.name, queueIndex);
+		final Agreement agreement = agreements[( current.ordinal() + 1 + this.random.nextInt(agreements.length - 1) )
+				% agreements.length];
+		this.expect(trivia -> trivia.getRound(rNumber).getAgreement(this.name, queueIndex) == agreement);
+		return new AgreementMessage(rNumber, queueIndex, agreement);
+	}
+
+	/**
+	 * Call in a random answer that hasn't been called in.
+	 *
+	 * @param round
+	 *            The current round
+	 * @return The message to send, or null if every answer has been called in
+	 */
+	private Message callIn(Round round) {
+		final Answer[] uncalled = round.getAnswers(Answer.Status.NOT_CALLED_IN);
+		if (uncalled.length == 0) {
+			return null;
+		}
+		final int rNumber = round.getRoundNumber();
+		final int queueIndex = uncalled[this.random.nextInt(uncalled.length)].getQueueLocation() - 1;
+		this.expect(trivia -> {
+			final Answer answer = trivia.getRound(rNumber).getAnswer(queueIndex);
+			return answer != null && answer.getStatus() == Answer.Status.CALLING
+					&& this.name.equals(answer.getCaller());
+		});
+		return new CallInAnswerMessage(rNumber, queueIndex);
+	}
+
+	/**
+	 * Run the contest as the lead: mark the round's type, close questions that have been open long enough, open new
+	 * ones, and move to the next round once every question has been closed. Makes at most one change at a time.
+	 */
+	private void operate() {
+		if (!this.running) {
+			return;
+		}
+		Message message = null;
+		synchronized (this) {
+			if (this.trivia == null) {
+				return;
+			}
+			this.checkPending();
+			if (this.operation != null && this.pending.contains(this.operation)) {
+				return;
+			}
+			final long now = System.nanoTime();
+			final Round round = this.currentRound();
+			final int rNumber = round.getRoundNumber();
+			final boolean speed = this.generator.isSpeed(rNumber);
+			final RoundProfile profile = this.generator.getProfile(speed);
+			if (round.isSpeed() != speed && round.nOpen() == 0 && round.maxBeenOpen() == 0) {
+				this.operation = this.expect(trivia -> trivia.getRound(rNumber).isSpeed() == speed);
+				message = new SetSpeedRoundMessage(rNumber, speed);
+			}
+			for (final Question question : round.getOpenQuestions()) {
+				if (message != null) {
+					break;
+				}
+				final int qNumber = question.getQuestionNumber();
+				final Long opened = this.openedAt.putIfAbsent(qNumber, now);
+				if (opened != null && now - opened > TimeUnit.SECONDS.toNanos(profile.getQuestionTime())) {
+					this.openedAt.remove(qNumber);
+					this.operation = this.expect(trivia -> !trivia.getRound(rNumber).getQuestion(qNumber).isOpen());
+					message = new CloseQuestionMessage(rNumber, qNumber);
+				}
+			}
+			if (message == null && round.nOpen() < profile.getOpenQuestions() && round.nUnopened() > 0) {
+				final int qNumber = round.nextToOpen();
+				this.openedAt.put(qNumber, now);
+				this.operation = this.expect(trivia -> trivia.getRound(rNumber).getQuestion(qNumber).isOpen());
+				message = new OpenQuestionMessage(rNumber, qNumber);
+			}
+			if (message == null && round.nOpen() == 0 && round.nUnopened() == 0
+					&& rNumber < this.trivia.getNRounds()) {
+				this.operation = this.expect(trivia -> trivia.getCurrentRoundNumber() == rNumber + 1);
+				message = new SetRoundMessage(rNumber + 1);
+			}
+		}
+		if (message != null) {
+			this.send(message);
+		}
+	}
+
+	/**
+	 * @return the current round in the local copy
+	 */
+	private Round currentRound() {
+		return this.trivia.getRound(this.trivia.getCurrentRoundNumber());
+	}
+
+	/**
+	 * Send a message to the server in the negotiated format.
+	 *
+	 * @param message
+	 *            The message
+	 */
+	private void send(Message message) {
+		final Session session = this.session;
+		if (session == null || !session.isOpen()) {
+			return;
+		}
+		try {
+			synchronized (this.sendLock) {
+				if (this.format.isBinary()) {
+					final byte[] bytes = MessageCodec.encodeBinary(message);
+					session.getBasicRemote().sendBinary(ByteBuffer.wrap(bytes));
+					this.generator.countSent(bytes.length);
+				} else {
+					final String text = MessageCodec.encode(message, this.format);
+					session.getBasicRemote().sendText(text);
+					this.generator.countSent(utf8Length(text));
+				}
+			}
+		} catch (final IOException exception) {
+			this.generator.countError();
+			exception.printStackTrace();
+		}
+	}
+
+	/**
+	 * Count the bytes in the UTF-8 encoding of a string without encoding it.
+	 *
+	 * @param text
+	 *            The string
+	 * @return The number of bytes
+	 */
+	private static int utf8Length(String text) {
+		int length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * A change sent to the server and not yet seen.
+	 */
+	private static class Pending {
+		// When the change was sent (nanoseconds)
+		final private long				sent;
+		// Tests whether the local copy shows the change
+		final private Predicate<Trivia>	seen;
+
+		Pending(Predicate<Trivia> seen) {
+			this.sent = System.nanoTime();
+			this.seen = seen;
+		}
+	}
+
+}
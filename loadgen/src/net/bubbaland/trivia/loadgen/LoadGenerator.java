@@ -0,0 +1,418 @@
+package net.bubbaland.trivia.loadgen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.DeploymentException;
+
+import org.glassfish.tyrus.client.ClientManager;
+
+import net.bubbaland.trivia.messages.WireFormat;
+import net.bubbaland.trivia.server.Histogram;
+import net.bubbaland.trivia.server.TriviaServer;
+
+/**
+ * Runs a team of headless bots against a trivia server on this machine to find how many users it can handle.
+ *
+ * By default a server is started in its own process so its CPU use can be told apart from the bots'. Each bot
+ * connects the way TriviaClient does and sends changes at the rates in the settings; see {@link LoadBot}. Every few
+ * seconds the generator reports the end-to-end latency of the changes (from sending until the sender sees the update
+ * that reflects it), the server's CPU use read from its metrics endpoint, and the bytes sent and received by the bots.
+ *
+ * Settings are read from .trivia-loadgen-settings in the package, then the same file in the user's home directory,
+ * then from Key=Value arguments, so <code>java -jar target/loadgen.jar Bots=50 Round.Type=speed</code> runs fifty bots
+ * through speed rounds.
+ *
+ * @author Walter Kolczynski
+ */
+public class LoadGenerator {
+
+	// File name holding the load generator settings
+	private static final String					SETTINGS_FILENAME	= ".trivia-loadgen-settings";
+	// Name of the server metric holding its CPU time
+	private static final String					CPU_METRIC			= "process_cpu_nanoseconds";
+
+	final private Properties					properties;
+	final private RoundProfile					normalProfile;
+	final private RoundProfile					speedProfile;
+	// normal, speed or alternate
+	final private String						roundType;
+	// Changes not seen within this time are counted as lost (nanoseconds)
+	final private long							lostTimeout;
+
+	// Latency of every change seen, and of those seen since the last report (nanoseconds)
+	final private Histogram						latency;
+	final private AtomicReference<Histogram>	intervalLatency;
+	final private LongAdder						changes;
+	final private LongAdder						lost;
+	final private LongAdder						errors;
+	final private LongAdder						bytesSent;
+	final private LongAdder						bytesReceived;
+
+	/**
+	 * Create a load generator.
+	 *
+	 * @param properties
+	 *            The settings
+	 */
+	LoadGenerator(Properties properties) {
+		this.properties = properties;
+		this.normalProfile = new RoundProfile(properties, "Normal");
+		this.speedProfile = new RoundProfile(properties, "Speed");
+		this.roundType = properties.getProperty("Round.Type");
+		this.lostTimeout = TimeUnit.SECONDS.toNanos(Integer.parseInt(properties.getProperty("Latency.LostTimeout")));
+		this.latency = new Histogram();
+		this.intervalLatency = new AtomicReference<Histogram>(new Histogram());
+		this.changes = new LongAdder();
+		this.lost = new LongAdder();
+		this.errors = new LongAdder();
+		this.bytesSent = new LongAdder();
+		this.bytesReceived = new LongAdder();
+	}
+
+	/**
+	 * Whether a round is played as a speed round.
+	 *
+	 * @param rNumber
+	 *            The round number
+	 * @return Whether it is a speed round
+	 */
+	boolean isSpeed(int rNumber) {
+		switch (this.roundType) {
+			case "speed":
+				return true;
+			case "alternate":
+				return rNumber % 2 == 0;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param speed
+	 *            Whether the round is a speed round
+	 * @return the profile for the round
+	 */
+	RoundProfile getProfile(boolean speed) {
+		return speed ? this.speedProfile : this.normalProfile;
+	}
+
+	/**
+	 * @return how long to wait for a change before counting it as lost (nanoseconds)
+	 */
+	long getLostTimeout() {
+		return this.lostTimeout;
+	}
+
+	/**
+	 * Record the end-to-end latency of a change.
+	 *
+	 * @param nanos
+	 *            The latency (nanoseconds)
+	 */
+	void recordLatency(long nanos) {
+		this.latency.record(nanos);
+		this.intervalLatency.get().record(nanos);
+	}
+
+	void countChange() {
+		this.changes.increment();
+	}
+
+	void countLost() {
+		this.lost.increment();
+	}
+
+	void countError() {
+		this.errors.increment();
+	}
+
+	void countSent(int bytes) {
+		this.bytesSent.add(bytes);
+	}
+
+	void countReceived(int bytes) {
+		this.bytesReceived.add(bytes);
+	}
+
+	/**
+	 * Start the server if needed, connect the bots, report until the run is over, then shut everything down.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while running
+	 */
+	void run() throws InterruptedException {
+		final URI serverURI = URI.create(this.properties.getProperty("Server.URL"));
+		final int nBots = Integer.parseInt(this.properties.getProperty("Bots"));
+		final WireFormat format = WireFormat.valueOf(this.properties.getProperty("Format").toUpperCase());
+		final int duration = Integer.parseInt(this.properties.getProperty("Duration"));
+		final int interval = Integer.parseInt(this.properties.getProperty("Report.Interval"));
+
+		Process server = null;
+		if (Boolean.parseBoolean(this.properties.getProperty("Server.Start"))) {
+			server = this.startServer(serverURI);
+			if (server == null) {
+				return;
+			}
+		}
+
+		final ClientManager clientManager = ClientManager.createClient();
+		final ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+				.preferredSubprotocols(Arrays.asList(format.getSubprotocol())).build();
+		final ArrayList<LoadBot> bots = new ArrayList<LoadBot>();
+		final long connectStart = System.nanoTime();
+		for (int b = 0; b < nBots; b++) {
+			final LoadBot bot = new LoadBot(this, String.format("Bot%03d", b), b == 0, b);
+			try {
+				clientManager.connectToServer(bot, config, serverURI);
+			} catch (DeploymentException | IOException exception) {
+				System.out.println("Couldn't connect bot " + b + " to " + serverURI);
+				exception.printStackTrace();
+				continue;
+			}
+			bots.add(bot);
+		}
+		for (final LoadBot bot : bots) {
+			while (!bot.isReady()) {
+				Thread.sleep(10);
+			}
+		}
+		System.out.println(bots.size() + " bots connected and loaded the contest in "
+				+ ( System.nanoTime() - connectStart ) / 1000000 + " ms using " + format);
+
+		final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+				Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+					final Thread thread = new Thread(runnable, "Bot scheduler");
+					thread.setDaemon(true);
+					return thread;
+				});
+		for (final LoadBot bot : bots) {
+			bot.start(scheduler);
+		}
+
+		System.out.println(String.format("%6s %8s %8s %6s %9s %9s %9s %8s %10s %10s", "time", "changes", "seen",
+				"lost", "p50 ms", "p99 ms", "max ms", "cpu %", "in KB/s", "out KB/s"));
+		final long start = System.nanoTime();
+		final long startCpu = this.readServerCpu();
+		long lastTime = start, lastCpu = startCpu, lastChanges = 0, lastLost = 0, lastIn = 0, lastOut = 0;
+		for (int elapsed = interval; elapsed <= duration; elapsed += interval) {
+			Thread.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(elapsed) - System.nanoTime()) / 1000000);
+			final long now = System.nanoTime();
+			final long cpu = this.readServerCpu();
+			final Histogram seen = this.intervalLatency.getAndSet(new Histogram());
+			final long changes = this.changes.sum(), lost = this.lost.sum();
+			final long in = this.bytesReceived.sum(), out = this.bytesSent.sum();
+			final double seconds = ( now - lastTime ) / 1e9;
+			System.out.println(String.format("%6d %8d %8d %6d %9.1f %9.1f %9.1f %8s %10.1f %10.1f", elapsed,
+					changes - lastChanges, seen.getCount(), lost - lastLost, seen.getPercentile(50) / 1e6,
+					seen.getPercentile(99) / 1e6, seen.getMax() / 1e6, cpuPercent(lastCpu, cpu, now - lastTime),
+					( in - lastIn ) / 1024.0 / seconds, ( out - lastOut ) / 1024.0 / seconds));
+			lastTime = now;
+			lastCpu = cpu;
+			lastChanges = changes;
+			lastLost = lost;
+			lastIn = in;
+			lastOut = out;
+		}
+		final long end = System.nanoTime();
+		final long endCpu = this.readServerCpu();
+
+		scheduler.shutdownNow();
+		for (final LoadBot bot : bots) {
+			bot.stop();
+		}
+
+		final double seconds = ( end - start ) / 1e9;
+		System.out.println();
+		System.out.println("Bots:            " + bots.size() + " (" + this.roundType + " rounds, " + format + ")");
+		System.out.println("Changes:         " + this.changes.sum() + " sent, " + this.latency.getCount() + " seen, "
+				+ this.lost.sum() + " lost, " + this.errors.sum() + " errors");
+		System.out.println(String.format("Latency (ms):    p50 %.1f, p90 %.1f, p99 %.1f, max %.1f, mean %.1f",
+				this.latency.getPercentile(50) / 1e6, this.latency.getPercentile(90) / 1e6,
+				this.latency.getPercentile(99) / 1e6, this.latency.getMax() / 1e6, this.latency.getMean() / 1e6));
+		System.out.println("Server CPU:      " + cpuPercent(startCpu, endCpu, end - start) + " % of one core");
+		System.out.println(String.format("Bytes:           %d received (%.1f KB/s), %d sent (%.1f KB/s)",
+				this.bytesReceived.sum(), this.bytesReceived.sum() / 1024.0 / seconds, this.bytesSent.sum(),
+				this.bytesSent.sum() / 1024.0 / seconds));
+
+		if (server != null) {
+			this.stopServer(server);
+		}
+	}
+
+	/**
+	 * Start a server in its own process, using this process's class path, and wait for it to accept connections.
+	 *
+	 * @param serverURI
+	 *            The URI the bots will connect to
+	 * @return The server process, or null if it didn't start
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	private Process startServer(URI serverURI) throws InterruptedException {
+		final File dir = new File(this.properties.getProperty("Server.Dir"));
+		dir.mkdirs();
+		final ProcessBuilder builder = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java", "-cp",
+				System.getProperty("java.class.path"), TriviaServer.class.getName());
+		builder.directory(dir);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(dir, "server.out"));
+		final Process server;
+		try {
+			server = builder.start();
+		} catch (final IOException exception) {
+			System.out.println("Couldn't start server");
+			exception.printStackTrace();
+			return null;
+		}
+
+		final long start = System.nanoTime();
+		final long deadline = start
+				+ TimeUnit.SECONDS.toNanos(Integer.parseInt(this.properties.getProperty("Server.StartTimeout")));
+		while (System.nanoTime() < deadline) {
+			if (!server.isAlive()) {
+				System.out.println("Server exited during startup, see " + new File(dir, "server.out"));
+				return null;
+			}
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(serverURI.getHost(), serverURI.getPort()), 1000);
+				System.out.println("Server started in " + ( System.nanoTime() - start ) / 1000000 + " ms, output in "
+						+ new File(dir, "server.out"));
+				return server;
+			} catch (final IOException exception) {
+				Thread.sleep(100);
+			}
+		}
+		System.out.println("Server didn't start listening in time, see " + new File(dir, "server.out"));
+		server.destroyForcibly();
+		return null;
+	}
+
+	/**
+	 * Ask a server started by the load generator to shut down, and kill it if it doesn't.
+	 *
+	 * @param server
+	 *            The server process
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	private void stopServer(Process server) throws InterruptedException {
+		server.destroy();
+		if (!server.waitFor(30, TimeUnit.SECONDS)) {
+			System.out.println("Server didn't shut down, killing it");
+			server.destroyForcibly();
+		}
+	}
+
+	/**
+	 * Read the server's CPU time from its metrics endpoint.
+	 *
+	 * @return The CPU time (nanoseconds), or -1 if it isn't available
+	 */
+	private long readServerCpu() {
+		final String metricsURL = this.properties.getProperty("Server.MetricsURL");
+		if (metricsURL == null || metricsURL.isEmpty()) {
+			return -1;
+		}
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new URL(metricsURL).openStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while (( line = reader.readLine() ) != null) {
+				if (line.startsWith(CPU_METRIC + " ")) {
+					return Long.parseLong(line.substring(CPU_METRIC.length() + 1).trim());
+				}
+			}
+		} catch (final IOException | NumberFormatException exception) {
+			// Metrics are disabled or the server is somewhere else
+		}
+		return -1;
+	}
+
+	/**
+	 * Format CPU use over an interval.
+	 *
+	 * @param startCpu
+	 *            CPU time at the start (nanoseconds), or -1 if unknown
+	 * @param endCpu
+	 *            CPU time at the end (nanoseconds), or -1 if unknown
+	 * @param wallNanos
+	 *            Length of the interval (nanoseconds)
+	 * @return The percentage of one core used, or "n/a" if unknown
+	 */
+	private static String cpuPercent(long startCpu, long endCpu, long wallNanos) {
+		if (startCpu < 0 || endCpu < 0 || wallNanos <= 0) {
+			return "n/a";
+		}
+		return String.format("%.1f", 100.0 * ( endCpu - startCpu ) / wallNanos);
+	}
+
+	/**
+	 * Read the settings.
+	 *
+	 * @param args
+	 *            Settings overridden on the command line, as Key=Value
+	 * @return The settings
+	 */
+	private static Properties loadSettings(String[] args) {
+		final Properties properties = new Properties();
+
+		/**
+		 * Default properties
+		 */
+		try (InputStream defaults = LoadGenerator.class.getResourceAsStream(SETTINGS_FILENAME)) {
+			properties.load(defaults);
+		} catch (final IOException | NullPointerException e) {
+			e.printStackTrace();
+			System.out.println("Couldn't load default properties file, aborting!");
+			System.exit(-1);
+		}
+
+		/**
+		 * Load saved properties from file
+		 */
+		final File file = new File(System.getProperty("user.home") + "/" + SETTINGS_FILENAME);
+		try (BufferedReader fileBuffer = new BufferedReader(new FileReader(file))) {
+			properties.load(fileBuffer);
+		} catch (final IOException e) {
+			// Local settings are optional
+		}
+
+		/**
+		 * Command line overrides
+		 */
+		for (final String arg : args) {
+			final int equals = arg.indexOf('=');
+			if (equals < 1) {
+				System.out.println("Ignoring argument " + arg + ", expected Key=Value");
+				continue;
+			}
+			properties.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		return properties;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		new LoadGenerator(loadSettings(args)).run();
+		System.exit(0);
+	}
+
+}
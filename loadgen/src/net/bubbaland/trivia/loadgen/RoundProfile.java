@@ -0,0 +1,84 @@
+package net.bubbaland.trivia.loadgen;
+
+import java.util.Properties;
+
+/**
+ * How busy the team is during one kind of round.
+ *
+ * Rates are the mean number of times each bot does something per second; the times between actions are random, so a
+ * team of bots sends a steady stream of changes without moving in lockstep.
+ *
+ * @author Walter Kolczynski
+ */
+class RoundProfile {
+
+	// Answers proposed per second by each bot
+	final private double	proposeRate;
+	// Agreement changes per second by each bot
+	final private double	agreeRate;
+	// Answers called in per second by each bot
+	final private double	callInRate;
+	// Number of questions the lead keeps open at once
+	final private int		openQuestions;
+	// How long each question stays open (seconds)
+	final private int		questionTime;
+
+	/**
+	 * Read a profile from the load generator settings.
+	 *
+	 * @param properties
+	 *            The settings
+	 * @param prefix
+	 *            The prefix of the profile's settings, such as "Normal" or "Speed"
+	 */
+	RoundProfile(Properties properties, String prefix) {
+		this.proposeRate = Double.parseDouble(properties.getProperty(prefix + ".ProposeRate"));
+		this.agreeRate = Double.parseDouble(properties.getProperty(prefix + ".AgreeRate"));
+		this.callInRate = Double.parseDouble(properties.getProperty(prefix + ".CallInRate"));
+		this.openQuestions = Integer.parseInt(properties.getProperty(prefix + ".OpenQuestions"));
+		this.questionTime = Integer.parseInt(properties.getProperty(prefix + ".QuestionTime"));
+	}
+
+	/**
+	 * @return the answers proposed per second by each bot
+	 */
+	double getProposeRate() {
+		return this.proposeRate;
+	}
+
+	/**
+	 * @return the agreement changes per second by each bot
+	 */
+	double getAgreeRate() {
+		return this.agreeRate;
+	}
+
+	/**
+	 * @return the answers called in per second by each bot
+	 */
+	double getCallInRate() {
+		return this.callInRate;
+	}
+
+	/**
+	 * @return the total actions per second by each bot
+	 */
+	double getTotalRate() {
+		return this.proposeRate + this.agreeRate + this.callInRate;
+	}
+
+	/**
+	 * @return the number of questions the lead keeps open at once
+	 */
+	int getOpenQuestions() {
+		return this.openQuestions;
+	}
+
+	/**
+	 * @return how long each question stays open (seconds)
+	 */
+	int getQuestionTime() {
+		return this.questionTime;
+	}
+
+}
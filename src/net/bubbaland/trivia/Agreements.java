@@ -0,0 +1,317 @@
+package net.bubbaland.trivia;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import net.bubbaland.trivia.Answer.Agreement;
+
+/**
+ * Each user's agreement with an answer, stored as parallel arrays of user names from the contest's
+ * {@link UserRegistry} and agreement ordinals. An answer rarely has more than a few dozen entries, so looking one up
+ * by scanning is as fast as hashing without the boxed keys and entries.
+ *
+ * The queue panel asks every visible answer for its tally and the users on each side whenever it redraws, so the
+ * number of users with each agreement is kept up to date as entries change, and the lists of user names are built
+ * once and reused until an entry changes or a user is renamed. When a user is merged into another, the next look at
+ * the agreements combines their entries, keeping the renamed user's agreement.
+ *
+ * Sent and saved as an object from user name to agreement, the same as the table it replaces.
+ *
+ * @author Walter Kolczynski
+ */
+class Agreements implements Serializable {
+
+	private static final long			serialVersionUID	= 4730255917409117625L;
+
+	// The agreements by ordinal
+	private static final Agreement[]	AGREEMENTS			= Agreement.values();
+
+	// The users with an entry
+	private UserName[]					userNames;
+
+	// The agreement of each user, as ordinals
+	private byte[]						agreements;
+
+	// The number of entries in use
+	private int							size;
+
+	// The number of users with each agreement, by ordinal
+	private final int[]					counts;
+
+	// The names of the users with each agreement by ordinal (null where there are none), built when first needed
+	private transient String[][]		users;
+
+	// The registry the user names belong to (null if they never change)
+	private transient UserRegistry		registry;
+
+	// The registry generation the entries were last checked against
+	private transient int				generation;
+
+	/**
+	 * Create an empty set of agreements.
+	 */
+	Agreements() {
+		this.userNames = new UserName[4];
+		this.agreements = new byte[4];
+		this.size = 0;
+		this.counts = new int[AGREEMENTS.length];
+		this.users = null;
+		this.registry = null;
+	}
+
+	/**
+	 * Create a copy of other agreements, with user names that won't change.
+	 *
+	 * @param agreements
+	 *            The agreements to copy
+	 */
+	private Agreements(Agreements agreements) {
+		this.userNames = new UserName[Math.max(agreements.size, 4)];
+		for (int i = 0; i < agreements.size; i++) {
+			this.userNames[i] = UserName.freeze(agreements.userNames[i]);
+		}
+		this.agreements = Arrays.copyOf(agreements.agreements, Math.max(agreements.size, 4));
+		this.size = agreements.size;
+		this.counts = agreements.counts.clone();
+		this.users = null;
+		this.registry = null;
+	}
+
+	/**
+	 * Create agreements from a table of user names.
+	 *
+	 * @param agreements
+	 *            The agreement of each user
+	 */
+	@JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+	Agreements(Map<String, Agreement> agreements) {
+		this();
+		for (final Entry<String, Agreement> entry : agreements.entrySet()) {
+			this.put(UserName.of(entry.getKey()), entry.getValue());
+		}
+	}
+
+	/**
+	 * Copy these agreements for a snapshot. The copy's user names won't change when users are renamed.
+	 *
+	 * @return The copy
+	 */
+	synchronized Agreements copy() {
+		this.sync();
+		return new Agreements(this);
+	}
+
+	/**
+	 * Move the agreements into a contest's registry.
+	 *
+	 * @param registry
+	 *            The registry
+	 */
+	synchronized void attach(UserRegistry registry) {
+		if (this.registry == registry) {
+			return;
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.userNames[i] = registry.attach(this.userNames[i]);
+		}
+		this.registry = registry;
+		this.generation = registry.getGeneration() - 1;
+		this.sync();
+	}
+
+	/**
+	 * Get a user's agreement.
+	 *
+	 * @param user
+	 *            The user name
+	 * @return The agreement, or null if the user has none
+	 */
+	synchronized Agreement get(String user) {
+		this.sync();
+		for (int i = 0; i < this.size; i++) {
+			if (this.userNames[i].getName().equals(user)) {
+				return AGREEMENTS[this.agreements[i]];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Set a user's agreement.
+	 *
+	 * @param user
+	 *            The user name
+	 * @param agreement
+	 *            The agreement
+	 */
+	synchronized void put(UserName user, Agreement agreement) {
+		this.sync();
+		this.set(user.resolve(), agreement, true);
+		this.users = null;
+	}
+
+	/**
+	 * Get the net agreement with the answer.
+	 *
+	 * @return The number of users who agree less the number who disagree
+	 */
+	synchronized int getTally() {
+		this.sync();
+		return this.counts[Agreement.AGREE.ordinal()] - this.counts[Agreement.DISAGREE.ordinal()];
+	}
+
+	/**
+	 * Get the names of the users with an agreement.
+	 *
+	 * @param agreement
+	 *            The agreement
+	 * @return The user names, which must not be modified, or null if there are none
+	 */
+	synchronized String[] getUsers(Agreement agreement) {
+		this.sync();
+		if (this.users == null) {
+			final String[][] users = new String[AGREEMENTS.length][];
+			final int[] filled = new int[AGREEMENTS.length];
+			for (int i = 0; i < this.size; i++) {
+				final int a = this.agreements[i];
+				if (users[a] == null) {
+					users[a] = new String[this.counts[a]];
+				}
+				users[a][filled[a]++] = this.userNames[i].getName();
+			}
+			this.users = users;
+		}
+		return this.users[agreement.ordinal()];
+	}
+
+	/**
+	 * Get the agreements by user name.
+	 *
+	 * @return The agreement of each user
+	 */
+	@JsonValue
+	synchronized Map<String, Agreement> toMap() {
+		this.sync();
+		final LinkedHashMap<String, Agreement> map = new LinkedHashMap<String, Agreement>();
+		for (int i = 0; i < this.size; i++) {
+			map.put(this.userNames[i].getName(), AGREEMENTS[this.agreements[i]]);
+		}
+		return map;
+	}
+
+	/**
+	 * Write the agreements in the compact wire format, as an object from user name to agreement ordinal.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the agreements can't be written
+	 */
+	synchronized void writeCompact(JsonGenerator generator) throws IOException {
+		this.sync();
+		generator.writeStartObject();
+		for (int i = 0; i < this.size; i++) {
+			generator.writeNumberField(this.userNames[i].getName(), this.agreements[i]);
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Read agreements written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned before the start of the agreements
+	 * @return The agreements
+	 * @throws IOException
+	 *             If the agreements can't be read
+	 */
+	static Agreements readCompact(JsonParser parser) throws IOException {
+		final Agreements agreements = new Agreements();
+		parser.nextToken();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final UserName user = UserName.of(parser.getCurrentName());
+			agreements.put(user, AGREEMENTS[CompactFormat.nextInt(parser)]);
+		}
+		return agreements;
+	}
+
+	/**
+	 * Bring the entries up to date after users have been renamed: point them at the users they now stand for, and
+	 * combine the entries of users who were merged, keeping the agreement of the one that was renamed.
+	 */
+	private void sync() {
+		if (this.registry == null || this.generation == this.registry.getGeneration()) {
+			return;
+		}
+		this.generation = this.registry.getGeneration();
+		this.users = null;
+		final UserName[] userNames = this.userNames;
+		final byte[] agreements = this.agreements;
+		final int size = this.size;
+		this.userNames = new UserName[userNames.length];
+		this.agreements = new byte[agreements.length];
+		this.size = 0;
+		Arrays.fill(this.counts, 0);
+		for (int i = 0; i < size; i++) {
+			final UserName user = userNames[i].resolve();
+			this.set(user, AGREEMENTS[agreements[i]], user != userNames[i]);
+		}
+	}
+
+	/**
+	 * Set a user's agreement.
+	 *
+	 * @param user
+	 *            The user name, already resolved
+	 * @param agreement
+	 *            The agreement
+	 * @param replace
+	 *            Whether to replace an agreement the user already has
+	 */
+	private void set(UserName user, Agreement agreement, boolean replace) {
+		int i = this.indexOf(user);
+		if (i < 0) {
+			if (this.size == this.userNames.length) {
+				this.userNames = Arrays.copyOf(this.userNames, this.size * 2);
+				this.agreements = Arrays.copyOf(this.agreements, this.size * 2);
+			}
+			i = this.size++;
+			this.userNames[i] = user;
+		} else if (replace) {
+			this.counts[this.agreements[i]]--;
+		} else {
+			return;
+		}
+		this.agreements[i] = (byte) agreement.ordinal();
+		this.counts[agreement.ordinal()]++;
+	}
+
+	/**
+	 * Find a user's entry. Names in the same registry are matched by identity; others, which are made separately for
+	 * each message, by their string.
+	 *
+	 * @param user
+	 *            The user name, already resolved
+	 * @return The index of the entry, or -1 if there is none
+	 */
+	private int indexOf(UserName user) {
+		final String name = this.registry == null || user.getRegistry() == null ? user.getName() : null;
+		for (int i = 0; i < this.size; i++) {
+			if (this.userNames[i] == user || name != null && this.userNames[i].getName().equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -1,15 +1,16 @@
 package net.bubbaland.trivia;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Hashtable;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 
 /**
  * A data structure for proposed answers.
@@ -40,25 +41,29 @@ public class Answer implements Serializable {
 	@JsonProperty("answer")
 	final private String							answerText;
 
+	// The answer text with whitespace removed and case folded, used to find duplicates (not sent)
+	@JsonIgnore
+	private transient String						normalizedText;
+
 	// The confidence in the answer
 	@JsonProperty("confidence")
 	final private int								confidence;
 
-	// A counter for the number of +1's
+	// Each user's agreement with the answer
 	@JsonProperty("agreement")
-	private volatile Hashtable<String, Agreement>	agreement;
+	final private Agreements						agreement;
 
 	// The timestamp of when the answer was submitted
 	@JsonProperty("timestamp")
 	final private String							timestamp;
 
-	// The user name of the answer submitter
-	@JsonProperty("submitter")
-	private String									submitter;
+	// The answer submitter (sent as the name)
+	@JsonIgnore
+	private volatile UserName						submitter;
 
-	// The user name of the person who is calling in the answer
-	@JsonProperty("caller")
-	private volatile String							caller;
+	// The person who is calling in the answer (sent as the name)
+	@JsonIgnore
+	private volatile UserName						caller;
 
 	// The operator who accepted a correct answer
 	@JsonProperty("operator")
@@ -68,6 +73,18 @@ public class Answer implements Serializable {
 	@JsonProperty("status")
 	private volatile Status							status;
 
+	// The number of changes made to the answer, so copies can tell whether they are current (not sent)
+	@JsonIgnore
+	private transient int							revision;
+
+	// Whether this is a read-only copy (not sent)
+	@JsonIgnore
+	private transient boolean						readOnly;
+
+	// The user names of the contest the answer belongs to, or null if it doesn't belong to one yet (not sent)
+	@JsonIgnore
+	private transient UserRegistry					users;
+
 	final private static SimpleDateFormat			timeFormat	= new SimpleDateFormat("HH:mm:ss");
 
 	/**
@@ -97,34 +114,113 @@ public class Answer implements Serializable {
 	 *            Confidence in the proposed answer
 	 */
 	public Answer(int queueLocation, int qNumber, String answer, String submitter, int confidence) {
-		this(queueLocation, qNumber, answer, submitter, confidence, timeFormat.format(new Date()));
+		this(queueLocation, qNumber, answer, submitter, confidence, formatTimestamp(System.currentTimeMillis()));
 	};
 
 	protected Answer(int queueLocation, int qNumber, String answer, String submitter, int confidence,
 			String timestamp) {
-		this(queueLocation, qNumber, answer, confidence, new Hashtable<String, Agreement>(), timestamp, submitter, "",
-				"", Status.NOT_CALLED_IN);
+		this(queueLocation, qNumber, answer, confidence, new Agreements(), timestamp, submitter, "", "",
+				Status.NOT_CALLED_IN);
 	}
 
 	@JsonCreator
 	private Answer(@JsonProperty("queueLocation") int queueLocation, @JsonProperty("qNumber") int qNumber,
 			@JsonProperty("answer") String answer, @JsonProperty("confidence") int confidence,
-			@JsonProperty("agreement") Hashtable<String, Agreement> agreement,
+			@JsonProperty("agreement") Agreements agreement,
 			@JsonProperty("timestamp") String timestamp, @JsonProperty("submitter") String submitter,
 			@JsonProperty("caller") String caller, @JsonProperty("operator") String operator,
 			@JsonProperty("status") Status status) {
 		this.queueLocation = queueLocation;
 		this.qNumber = qNumber;
 		this.answerText = answer;
+		this.normalizedText = normalize(answer);
 		this.confidence = confidence;
-		this.agreement = agreement;
+		this.agreement = agreement == null ? new Agreements() : agreement;
 		this.timestamp = timestamp;
-		this.submitter = submitter;
-		this.caller = caller;
+		this.submitter = UserName.of(submitter);
+		this.caller = UserName.of(caller);
 		this.operator = operator;
 		this.status = status;
 	}
 
+	/**
+	 * Create a read-only copy of an answer.
+	 *
+	 * @param answer
+	 *            The answer to copy
+	 */
+	private Answer(Answer answer) {
+		this.queueLocation = answer.queueLocation;
+		this.qNumber = answer.qNumber;
+		this.answerText = answer.answerText;
+		this.normalizedText = answer.normalizedText;
+		this.confidence = answer.confidence;
+		this.agreement = answer.agreement.copy();
+		this.timestamp = answer.timestamp;
+		this.submitter = UserName.freeze(answer.submitter);
+		this.caller = UserName.freeze(answer.caller);
+		this.operator = answer.operator;
+		this.status = answer.status;
+		this.revision = answer.revision;
+		this.readOnly = true;
+	}
+
+	/**
+	 * Create a read-only copy of this answer, which can be read on other threads while this one changes. The copy
+	 * keeps the user names it was made with when users are renamed.
+	 *
+	 * @return The copy
+	 */
+	Answer copy() {
+		return new Answer(this);
+	}
+
+	/**
+	 * Move this answer's user names into a contest's registry, so they change when users are renamed.
+	 *
+	 * @param users
+	 *            The contest's user names
+	 */
+	void attach(UserRegistry users) {
+		this.users = users;
+		this.submitter = users.attach(this.submitter);
+		this.caller = users.attach(this.caller);
+		this.agreement.attach(users);
+	}
+
+	/**
+	 * Get the user name for a string, from the contest's registry if the answer belongs to one.
+	 *
+	 * @param name
+	 *            The user name
+	 * @return The name
+	 */
+	private UserName user(String name) {
+		return UserRegistry.get(this.users, name);
+	}
+
+	/**
+	 * Get the number of changes made to this answer. A copy with the same revision as the answer is still current.
+	 *
+	 * @return The revision
+	 */
+	int getRevision() {
+		return this.revision;
+	}
+
+	/**
+	 * Check that this answer can be changed, and count the change.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             If this is a read-only copy
+	 */
+	private void beginChange() {
+		if (this.readOnly) {
+			throw new UnsupportedOperationException("Answer " + this.queueLocation + " is a read-only copy");
+		}
+		this.revision++;
+	}
+
 	/**
 	 * Mark this answer as being called in
 	 *
@@ -132,7 +228,8 @@ public class Answer implements Serializable {
 	 *            The caller's user name
 	 */
 	public void callIn(String caller) {
-		this.caller = caller;
+		this.beginChange();
+		this.caller = this.user(caller);
 		this.operator = "";
 		this.status = Status.CALLING;
 	}
@@ -146,13 +243,61 @@ public class Answer implements Serializable {
 		return this.answerText;
 	}
 
+	/**
+	 * Gets the answer text with whitespace removed and case folded. Answers to the same question with the same
+	 * normalized text are duplicates.
+	 *
+	 * @return The normalized answer text
+	 */
+	public String getNormalizedText() {
+		if (this.normalizedText == null) {
+			// Answers restored by Java serialization skip the constructor
+			this.normalizedText = normalize(this.answerText);
+		}
+		return this.normalizedText;
+	}
+
+	/**
+	 * Normalize answer text for finding duplicates. Two texts normalize the same exactly when they are equal ignoring
+	 * case once whitespace is removed.
+	 *
+	 * @param text
+	 *            The answer text
+	 * @return The normalized text
+	 */
+	public static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		final StringBuilder normalized = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+				// The characters matched by \s
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\u000B':
+				case '\f':
+				case '\r':
+					break;
+				default:
+					// Fold case the same way String.equalsIgnoreCase compares characters
+					normalized.append(Character.toLowerCase(Character.toUpperCase(c)));
+			}
+		}
+		return normalized.toString();
+	}
+
 	/**
 	 * Gets the last person who updated the status
 	 *
 	 * @return The caller's user name
 	 */
+	@JsonProperty("caller")
 	public String getCaller() {
-		return this.caller;
+		final UserName caller = this.caller;
+		return caller == null ? null : caller.getName();
 	}
 
 	/**
@@ -187,6 +332,7 @@ public class Answer implements Serializable {
 	}
 
 	public void setQueueLocation(int i) {
+		this.beginChange();
 		this.queueLocation = i;
 	}
 
@@ -223,8 +369,23 @@ public class Answer implements Serializable {
 	 *
 	 * @return The submitter's user name
 	 */
+	@JsonProperty("submitter")
 	public String getSubmitter() {
-		return this.submitter;
+		final UserName submitter = this.submitter;
+		return submitter == null ? null : submitter.getName();
+	}
+
+	/**
+	 * Format the time an answer was submitted as a timestamp.
+	 *
+	 * @param time
+	 *            The time the answer was submitted (milliseconds since the epoch)
+	 * @return The timestamp
+	 */
+	static String formatTimestamp(long time) {
+		synchronized (timeFormat) {
+			return timeFormat.format(new Date(time));
+		}
 	}
 
 	/**
@@ -243,11 +404,13 @@ public class Answer implements Serializable {
 	 *            The caller's user name
 	 */
 	public void markAnswerCorrect(String caller) {
-		this.caller = caller;
+		this.beginChange();
+		this.caller = this.user(caller);
 		this.status = Status.CORRECT;
 	}
 
 	public void setOperator(String operator) {
+		this.beginChange();
 		this.operator = operator;
 	}
 
@@ -255,7 +418,8 @@ public class Answer implements Serializable {
 	 * Mark this answer as a duplicate
 	 */
 	public void markDuplicate() {
-		this.caller = "";
+		this.beginChange();
+		this.caller = UserName.NOBODY;
 		this.operator = "";
 		this.status = Status.DUPLICATE;
 	}
@@ -264,7 +428,8 @@ public class Answer implements Serializable {
 	 * Mark this answer as incorrect
 	 */
 	public void markIncorrect(String caller) {
-		this.caller = caller;
+		this.beginChange();
+		this.caller = this.user(caller);
 		this.status = Status.INCORRECT;
 	}
 
@@ -275,7 +440,8 @@ public class Answer implements Serializable {
 	 *            The caller's user name
 	 */
 	public void markPartial(String caller) {
-		this.caller = caller;
+		this.beginChange();
+		this.caller = this.user(caller);
 		// this.operator = "";
 		this.status = Status.PARTIAL;
 	}
@@ -284,37 +450,35 @@ public class Answer implements Serializable {
 	 * Reset this answer to uncalled
 	 */
 	public void markUncalled() {
-		this.caller = "";
+		this.beginChange();
+		this.caller = UserName.NOBODY;
 		this.operator = "";
 		this.status = Status.NOT_CALLED_IN;
 	}
 
 	public void setQNumber(int qNumber) {
+		this.beginChange();
 		this.qNumber = qNumber;
 	}
 
 	public void changeAgreement(String user, Agreement agreement) {
-		this.agreement.put(user, agreement);
+		this.beginChange();
+		this.agreement.put(this.user(user), agreement);
 	}
 
 	public int getAgreement() {
-		return Collections.frequency(this.agreement.values(), Agreement.AGREE)
-				- Collections.frequency(this.agreement.values(), Agreement.DISAGREE);
+		return this.agreement.getTally();
 	}
 
+	/**
+	 * Gets the users with an agreement. The list is shared until the agreement changes, so it must not be modified.
+	 *
+	 * @param agreeType
+	 *            The agreement
+	 * @return The user names, or null if there are none
+	 */
 	public String[] getConcurList(Agreement agreeType) {
-		ArrayList<String> agreerList = new ArrayList<String>();
-		for (String user : this.agreement.keySet()) {
-			if (this.agreement.get(user) == agreeType) {
-				agreerList.add(user);
-			}
-		}
-		if (!agreerList.isEmpty()) {
-			String[] agreers = new String[agreerList.size()];
-			agreerList.toArray(agreers);
-			return agreers;
-		}
-		return null;
+		return this.agreement.getUsers(agreeType);
 	}
 
 	public Agreement getAgreement(String user) {
@@ -325,24 +489,11 @@ public class Answer implements Serializable {
 		return agreement;
 	}
 
-	public void changeUserName(String oldName, String newName) {
-		if (this.submitter.equals(oldName)) {
-			this.submitter = newName;
-		}
-		if (this.caller.equals(oldName)) {
-			this.caller = newName;
-		}
-		if (this.agreement.containsKey(oldName)) {
-			final Agreement agreement = this.agreement.get(oldName);
-			this.agreement.remove(oldName);
-			this.agreement.put(newName, agreement);
-		}
-	}
-
 	public String toString() {
 		return ( "Queue Position " + this.queueLocation + " Q" + this.qNumber + "\n" + this.answerText + "\n"
-				+ "Submitted by " + this.submitter + " at " + this.timestamp + " with confidence " + this.confidence
-				+ "\n" + "Status: " + this.status + " Caller: " + this.caller + " Operator: " + this.operator );
+				+ "Submitted by " + this.getSubmitter() + " at " + this.timestamp + " with confidence "
+				+ this.confidence + "\n" + "Status: " + this.status + " Caller: " + this.getCaller() + " Operator: "
+				+ this.operator );
 	}
 
 	public static class QNumberCompare implements Comparator<Answer> {
@@ -396,4 +547,53 @@ public class Answer implements Serializable {
 		DUPLICATE, NOT_CALLED_IN, CALLING, INCORRECT, PARTIAL, CORRECT
 	}
 
+	/**
+	 * Write this answer in the compact wire format.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the answer can't be written
+	 */
+	public void writeCompact(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		generator.writeNumber(this.queueLocation);
+		generator.writeNumber(this.qNumber);
+		generator.writeString(this.answerText);
+		generator.writeNumber(this.confidence);
+		generator.writeString(this.timestamp);
+		generator.writeString(this.getSubmitter());
+		generator.writeString(this.getCaller());
+		generator.writeString(this.operator);
+		generator.writeNumber(this.status == null ? -1 : this.status.ordinal());
+		this.agreement.writeCompact(generator);
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Read an answer written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned at the start of the answer
+	 * @return The answer
+	 * @throws IOException
+	 *             If the answer can't be read
+	 */
+	public static Answer readCompact(JsonParser parser) throws IOException {
+		CompactFormat.start(parser);
+		final int queueLocation = CompactFormat.nextInt(parser);
+		final int qNumber = CompactFormat.nextInt(parser);
+		final String answer = CompactFormat.nextString(parser);
+		final int confidence = CompactFormat.nextInt(parser);
+		final String timestamp = CompactFormat.nextString(parser);
+		final String submitter = CompactFormat.nextString(parser);
+		final String caller = CompactFormat.nextString(parser);
+		final String operator = CompactFormat.nextString(parser);
+		final int status = CompactFormat.nextInt(parser);
+		final Agreements agreement = Agreements.readCompact(parser);
+		CompactFormat.end(parser);
+		return new Answer(queueLocation, qNumber, answer, confidence, agreement, timestamp, submitter, caller,
+				operator, status < 0 ? null : Status.values()[status]);
+	}
+
 }
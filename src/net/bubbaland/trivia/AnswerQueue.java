@@ -0,0 +1,366 @@
+package net.bubbaland.trivia;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import net.bubbaland.trivia.Answer.Status;
+
+/**
+ * The answers proposed in a round.
+ *
+ * Each answer keeps the position it was proposed at for the life of the round, so a queue index (the queue location
+ * less one) held by a client or sent in a message always means the same answer. Removing an answer leaves an empty
+ * slot in its place instead of moving the answers after it. The answers are also indexed by question number, by
+ * question number and normalized text, and by status, so finding the answers to a question or with a status takes
+ * time proportional to the number found rather than to the length of the queue.
+ *
+ * The queue is sent and saved as a list of the answers still in it; each answer's queue location puts it back in its
+ * slot when read. The indexes are built the first time they are needed, so a queue that is only sent or saved never
+ * builds them. Statuses are changed on the answers themselves, so the round reports each change with
+ * {@link #statusChanged(Answer, Status)}. Not thread-safe: the round only uses it while holding its own lock.
+ *
+ * @author Walter Kolczynski
+ */
+class AnswerQueue implements Serializable {
+
+	private static final long												serialVersionUID	= -2045174531316380932L;
+
+	// Every slot in the queue in order, null where an answer was removed
+	final private ArrayList<Answer>											log;
+
+	// Answers by question number, in queue order (null until the indexes are built)
+	private transient HashMap<Integer, ArrayList<Answer>>					byQuestion;
+
+	// Answers by question number, then by normalized text
+	private transient HashMap<Integer, HashMap<String, ArrayList<Answer>>>	byText;
+
+	// Answers by status, keyed by queue index
+	private transient EnumMap<Status, TreeMap<Integer, Answer>>				byStatus;
+
+	// The number of answers that haven't been removed
+	private int																nLive;
+
+	/**
+	 * Create an empty queue.
+	 */
+	AnswerQueue() {
+		this(Collections.<Answer> emptyList());
+	}
+
+	/**
+	 * Create a queue of existing answers, each placed at its queue location.
+	 *
+	 * @param answers
+	 *            The answers, in queue order
+	 */
+	@JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+	AnswerQueue(List<Answer> answers) {
+		this.log = new ArrayList<Answer>(answers.size());
+		this.nLive = 0;
+		for (final Answer answer : answers) {
+			this.add(answer);
+		}
+	}
+
+	/**
+	 * Create a queue holding the given slots.
+	 *
+	 * @param log
+	 *            Every slot in the queue in order, null where an answer was removed
+	 * @param nLive
+	 *            The number of answers that haven't been removed
+	 */
+	private AnswerQueue(ArrayList<Answer> log, int nLive) {
+		this.log = log;
+		this.nLive = nLive;
+	}
+
+	/**
+	 * Create a read-only copy of the queue. Answers that haven't changed since an earlier copy was made are shared with
+	 * that copy.
+	 *
+	 * @param previous
+	 *            An earlier copy of this queue, or null
+	 * @return The copy
+	 */
+	AnswerQueue copy(AnswerQueue previous) {
+		final ArrayList<Answer> copies = new ArrayList<Answer>(this.log.size());
+		for (int i = 0; i < this.log.size(); i++) {
+			final Answer answer = this.log.get(i);
+			final Answer earlier = previous == null || i >= previous.log.size() ? null : previous.log.get(i);
+			if (answer == null) {
+				copies.add(null);
+			} else if (earlier != null && earlier.getRevision() == answer.getRevision()) {
+				copies.add(earlier);
+			} else {
+				copies.add(answer.copy());
+			}
+		}
+		return new AnswerQueue(copies, this.nLive);
+	}
+
+	/**
+	 * Add an answer at its queue location, which must be after every answer already in the queue. Slots skipped over
+	 * are left empty.
+	 *
+	 * @param answer
+	 *            The answer
+	 * @throws IllegalArgumentException
+	 *             If the answer's location isn't after every slot in the queue, which means whoever added it has a
+	 *             different queue than this one
+	 */
+	void add(Answer answer) {
+		if (answer.getQueueLocation() <= this.log.size()) {
+			throw new IllegalArgumentException("Answer at location " + answer.getQueueLocation()
+					+ " can't be added to a queue with " + this.log.size() + " slots");
+		}
+		while (this.log.size() < answer.getQueueLocation() - 1) {
+			this.log.add(null);
+		}
+		this.log.add(answer);
+		this.nLive++;
+		if (this.byQuestion != null) {
+			this.byQuestion.computeIfAbsent(answer.getQNumber(), q -> new ArrayList<Answer>()).add(answer);
+			this.addText(answer);
+			this.addStatus(answer);
+		}
+	}
+
+	/**
+	 * Leave empty slots at the end of the queue up to a size, so the next answer added goes after them.
+	 *
+	 * @param size
+	 *            The number of slots, which does nothing if the queue is already that long
+	 */
+	void reserve(int size) {
+		while (this.log.size() < size) {
+			this.log.add(null);
+		}
+	}
+
+	/**
+	 * Get the answer at a queue index.
+	 *
+	 * @param queueIndex
+	 *            The queue index
+	 * @return The answer, or null if it has been removed
+	 */
+	Answer get(int queueIndex) {
+		return this.log.get(queueIndex);
+	}
+
+	/**
+	 * Get the answer at a queue index that must not have been removed.
+	 *
+	 * @param queueIndex
+	 *            The queue index
+	 * @return The answer
+	 * @throws IndexOutOfBoundsException
+	 *             If there is no answer at the index
+	 */
+	Answer getLive(int queueIndex) {
+		final Answer answer = this.log.get(queueIndex);
+		if (answer == null) {
+			throw new IndexOutOfBoundsException("Answer at index " + queueIndex + " has been removed");
+		}
+		return answer;
+	}
+
+	/**
+	 * @return the number of slots in the queue, including those of removed answers
+	 */
+	int size() {
+		return this.log.size();
+	}
+
+	/**
+	 * @return the number of answers in the queue
+	 */
+	int nLive() {
+		return this.nLive;
+	}
+
+	/**
+	 * Get the answers in the queue, leaving out removed ones.
+	 *
+	 * @return The answers in queue order
+	 */
+	@JsonValue
+	List<Answer> getAnswers() {
+		final ArrayList<Answer> answers = new ArrayList<Answer>(this.nLive);
+		for (final Answer answer : this.log) {
+			if (answer != null) {
+				answers.add(answer);
+			}
+		}
+		return answers;
+	}
+
+	/**
+	 * Get the answers to a question.
+	 *
+	 * @param qNumber
+	 *            The question number
+	 * @return The answers in queue order, which must not be modified
+	 */
+	List<Answer> getQuestion(int qNumber) {
+		this.index();
+		final ArrayList<Answer> answers = this.byQuestion.get(qNumber);
+		return answers == null ? Collections.<Answer> emptyList() : answers;
+	}
+
+	/**
+	 * Get the answers with a status.
+	 *
+	 * @param status
+	 *            The status
+	 * @return The answers in queue order, which must not be modified
+	 */
+	Collection<Answer> getStatus(Status status) {
+		this.index();
+		return this.byStatus.get(status).values();
+	}
+
+	/**
+	 * Get the answers to a question with the same normalized text.
+	 *
+	 * @param qNumber
+	 *            The question number
+	 * @param normalizedText
+	 *            The normalized answer text
+	 * @return The matching answers, which must not be modified
+	 */
+	List<Answer> getMatches(int qNumber, String normalizedText) {
+		this.index();
+		final HashMap<String, ArrayList<Answer>> answersByText = this.byText.get(qNumber);
+		final ArrayList<Answer> answers = answersByText == null ? null : answersByText.get(normalizedText);
+		return answers == null ? Collections.<Answer> emptyList() : answers;
+	}
+
+	/**
+	 * Move an answer to the bucket for its new status.
+	 *
+	 * @param answer
+	 *            The answer, whose status has already been changed
+	 * @param oldStatus
+	 *            The status before the change
+	 */
+	void statusChanged(Answer answer, Status oldStatus) {
+		if (this.byStatus == null) {
+			// Built with the current statuses when first needed
+			return;
+		}
+		if (oldStatus != null) {
+			this.byStatus.get(oldStatus).remove(answer.getQueueLocation() - 1);
+		}
+		this.addStatus(answer);
+	}
+
+	/**
+	 * Move every answer to one question to another. The answers keep their places in the queue.
+	 *
+	 * @param oldQNumber
+	 *            The question number the answers were proposed for
+	 * @param newQNumber
+	 *            The question number to move them to
+	 */
+	void remapQuestion(int oldQNumber, int newQNumber) {
+		this.index();
+		final ArrayList<Answer> moved = this.byQuestion.remove(oldQNumber);
+		this.byText.remove(oldQNumber);
+		if (moved == null) {
+			return;
+		}
+		final ArrayList<Answer> answers = this.byQuestion.computeIfAbsent(newQNumber, q -> new ArrayList<Answer>());
+		for (final Answer answer : moved) {
+			answer.setQNumber(newQNumber);
+			answers.add(answer);
+			this.addText(answer);
+		}
+		if (answers.size() > moved.size()) {
+			// Merge with the answers already proposed for the new question
+			answers.sort(Comparator.comparingInt(Answer::getQueueLocation));
+		}
+	}
+
+	/**
+	 * Remove every answer to a question, leaving their slots empty.
+	 *
+	 * @param qNumber
+	 *            The question number
+	 * @return The answers removed
+	 */
+	List<Answer> removeQuestion(int qNumber) {
+		this.index();
+		final ArrayList<Answer> removed = this.byQuestion.remove(qNumber);
+		if (removed == null) {
+			return Collections.<Answer> emptyList();
+		}
+		this.byText.remove(qNumber);
+		for (final Answer answer : removed) {
+			final int queueIndex = answer.getQueueLocation() - 1;
+			this.log.set(queueIndex, null);
+			if (answer.getStatus() != null) {
+				this.byStatus.get(answer.getStatus()).remove(queueIndex);
+			}
+		}
+		this.nLive -= removed.size();
+		return removed;
+	}
+
+	/**
+	 * Build the indexes if they haven't been built yet.
+	 */
+	private void index() {
+		if (this.byQuestion != null) {
+			return;
+		}
+		this.byQuestion = new HashMap<Integer, ArrayList<Answer>>();
+		this.byText = new HashMap<Integer, HashMap<String, ArrayList<Answer>>>();
+		this.byStatus = new EnumMap<Status, TreeMap<Integer, Answer>>(Status.class);
+		for (final Status status : Status.values()) {
+			this.byStatus.put(status, new TreeMap<Integer, Answer>());
+		}
+		for (final Answer answer : this.log) {
+			if (answer != null) {
+				this.byQuestion.computeIfAbsent(answer.getQNumber(), q -> new ArrayList<Answer>()).add(answer);
+				this.addText(answer);
+				this.addStatus(answer);
+			}
+		}
+	}
+
+	/**
+	 * Add an answer to the text index under its current question number.
+	 *
+	 * @param answer
+	 *            The answer
+	 */
+	private void addText(Answer answer) {
+		this.byText.computeIfAbsent(answer.getQNumber(), q -> new HashMap<String, ArrayList<Answer>>())
+				.computeIfAbsent(answer.getNormalizedText(), text -> new ArrayList<Answer>(1)).add(answer);
+	}
+
+	/**
+	 * Add an answer to the bucket for its current status.
+	 *
+	 * @param answer
+	 *            The answer
+	 */
+	private void addStatus(Answer answer) {
+		if (answer.getStatus() != null) {
+			this.byStatus.get(answer.getStatus()).put(answer.getQueueLocation() - 1, answer);
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package net.bubbaland.trivia;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Helpers for reading the compact wire format.
+ *
+ * In the compact format each object is written as a JSON array of its values in a fixed order, without field names, and
+ * enums are written as their ordinals. Readers are called with the parser on the opening bracket and read each value
+ * in turn. Values added to the end of an array by a newer writer are skipped.
+ *
+ * @author Walter Kolczynski
+ */
+final class CompactFormat {
+
+	private CompactFormat() {}
+
+	/**
+	 * Check that the parser is at the start of an object's array.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @throws IOException
+	 *             If the current token isn't the start of an array
+	 */
+	static void start(JsonParser parser) throws IOException {
+		if (parser.currentToken() != JsonToken.START_ARRAY) {
+			throw new JsonParseException(parser, "Expected start of compact array");
+		}
+	}
+
+	/**
+	 * Skip any remaining values and move to the end of an object's array.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @throws IOException
+	 *             If the input can't be read
+	 */
+	static void end(JsonParser parser) throws IOException {
+		JsonToken token;
+		while (( token = parser.nextToken() ) != JsonToken.END_ARRAY) {
+			if (token == null) {
+				throw new JsonParseException(parser, "Unexpected end of compact array");
+			}
+			parser.skipChildren();
+		}
+	}
+
+	/**
+	 * Read the next value as an int.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @return The value
+	 * @throws IOException
+	 *             If the input can't be read
+	 */
+	static int nextInt(JsonParser parser) throws IOException {
+		parser.nextToken();
+		return parser.getIntValue();
+	}
+
+	/**
+	 * Read the next value as a boolean.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @return The value
+	 * @throws IOException
+	 *             If the input can't be read
+	 */
+	static boolean nextBoolean(JsonParser parser) throws IOException {
+		return parser.nextToken() == JsonToken.VALUE_TRUE;
+	}
+
+	/**
+	 * Read the next value as a string.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @return The value, or null
+	 * @throws IOException
+	 *             If the input can't be read
+	 */
+	static String nextString(JsonParser parser) throws IOException {
+		return parser.nextToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+	}
+
+	/**
+	 * Move to the start of the next nested array.
+	 *
+	 * @param parser
+	 *            The parser
+	 * @return false if the value is null instead of an array
+	 * @throws IOException
+	 *             If the value is neither an array nor null
+	 */
+	static boolean nextArray(JsonParser parser) throws IOException {
+		final JsonToken token = parser.nextToken();
+		if (token == JsonToken.VALUE_NULL) {
+			return false;
+		}
+		if (token != JsonToken.START_ARRAY) {
+			throw new JsonParseException(parser, "Expected nested compact array");
+		}
+		return true;
+	}
+
+}
@@ -1,12 +1,16 @@
 package net.bubbaland.trivia;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 
 /**
@@ -19,44 +23,48 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
  */
 public class Question implements Serializable {
 
-	private static final long	serialVersionUID	= 5230169250657519692L;
+	private static final long		serialVersionUID	= 5230169250657519692L;
 
-	public static final Pattern	VISUAL_PATTERN		= Pattern.compile("([Vv]isual )([Tt]rivia )?(#)?([0-9]+)");
+	public static final Pattern		VISUAL_PATTERN		= Pattern.compile("([Vv]isual )([Tt]rivia )?(#)?([0-9]+)");
 
 	// The question number
 	@JsonProperty("qNumber")
-	private final int			qNumber;
+	private final int				qNumber;
 
 	// The value of the question
 	@JsonProperty("value")
-	private volatile int		value;
+	private volatile int			value;
 
 	// The text of the question
 	@JsonProperty("question")
-	private volatile String		question;
+	private volatile String			question;
 
 	// The text of the correct answer
 	@JsonProperty("answer")
-	private volatile String		answer;
+	private volatile String			answer;
 
-	// The user who submitted the correct answer
-	@JsonProperty("submitter")
-	private volatile String		submitter;
+	// The user who submitted the correct answer (sent as the name)
+	@JsonIgnore
+	private volatile UserName		submitter;
 
 	// Whether the question is currently open
 	@JsonProperty("isOpen")
-	private volatile boolean	isOpen;
+	private volatile boolean		isOpen;
 
 	// Whether the question has ever been open
 	@JsonProperty("beenOpen")
-	private volatile boolean	beenOpen;
+	private volatile boolean		beenOpen;
 
 	// Whether the question was answered correctly
 	@JsonProperty("correct")
-	private volatile boolean	correct;
+	private volatile boolean		correct;
 
 	@JsonProperty("visualTrivia")
-	private volatile int		visualTrivia;
+	private volatile int			visualTrivia;
+
+	// The user names of the contest the question belongs to, or null if it doesn't belong to one yet (not sent)
+	@JsonIgnore
+	private transient UserRegistry	users;
 
 	/**
 	 * Creates a new question.
@@ -70,6 +78,18 @@ public class Question implements Serializable {
 		this(qNumber, 0, "", "", "", "", false, false, false, 0);
 	}
 
+	/**
+	 * Create a copy of a question, which keeps the submitter's name it was made with when users are renamed.
+	 *
+	 * @param question
+	 *            The question to copy
+	 */
+	Question(Question question) {
+		this(question.qNumber, question.value, question.question, question.answer, null, null, question.isOpen,
+				question.beenOpen, question.correct, question.visualTrivia);
+		this.submitter = UserName.freeze(question.submitter);
+	}
+
 	@JsonCreator
 	private Question(@JsonProperty("qNumber") int qNumber, @JsonProperty("value") int value,
 			@JsonProperty("question") String question, @JsonProperty("answer") String answer,
@@ -80,13 +100,24 @@ public class Question implements Serializable {
 		this.value = value;
 		this.question = question;
 		this.answer = answer;
-		this.submitter = submitter;
+		this.submitter = UserName.of(submitter);
 		this.isOpen = open;
 		this.beenOpen = beenOpen;
 		this.correct = correct;
 		this.visualTrivia = visualTrivia;
 	}
 
+	/**
+	 * Move the question's user names into a contest's registry, so they change when users are renamed.
+	 *
+	 * @param users
+	 *            The contest's user names
+	 */
+	void attach(UserRegistry users) {
+		this.users = users;
+		this.submitter = users.attach(this.submitter);
+	}
+
 	/**
 	 * Checks if the question has ever been open
 	 *
@@ -150,8 +181,10 @@ public class Question implements Serializable {
 	 *
 	 * @return The submitter's name
 	 */
+	@JsonProperty("submitter")
 	public String getSubmitter() {
-		return this.submitter;
+		final UserName submitter = this.submitter;
+		return submitter == null ? null : submitter.getName();
 	}
 
 	/**
@@ -195,7 +228,7 @@ public class Question implements Serializable {
 		this.correct = true;
 		this.isOpen = false;
 		this.answer = answer;
-		this.submitter = submitter;
+		this.submitter = UserRegistry.get(this.users, submitter);
 	}
 
 	/**
@@ -204,7 +237,7 @@ public class Question implements Serializable {
 	protected void markQuestionIncorrect() {
 		this.correct = false;
 		this.answer = "";
-		this.submitter = "";
+		this.submitter = UserName.NOBODY;
 	}
 
 	/**
@@ -217,7 +250,7 @@ public class Question implements Serializable {
 		this.isOpen = true;
 		this.beenOpen = true;
 		this.correct = false;
-		this.submitter = "";
+		this.submitter = UserName.NOBODY;
 	}
 
 	/**
@@ -227,7 +260,7 @@ public class Question implements Serializable {
 		this.value = 0;
 		this.question = "";
 		this.answer = "";
-		this.submitter = "";
+		this.submitter = UserName.NOBODY;
 		this.isOpen = false;
 		this.beenOpen = false;
 		this.correct = false;
@@ -265,7 +298,7 @@ public class Question implements Serializable {
 	 *            The new submitter
 	 */
 	protected void setSubmitter(String submitter) {
-		this.submitter = submitter;
+		this.submitter = UserRegistry.get(this.users, submitter);
 	}
 
 	/**
@@ -282,18 +315,12 @@ public class Question implements Serializable {
 		this.value = question.value;
 		this.question = question.question;
 		this.answer = question.answer;
-		this.submitter = question.submitter;
+		this.submitter = UserRegistry.get(this.users, question.getSubmitter());
 		this.isOpen = question.isOpen;
 		this.beenOpen = question.beenOpen;
 		this.correct = question.correct;
 	}
 
-	protected void changeUserName(String oldName, String newName) {
-		if (this.submitter.equals(oldName)) {
-			this.submitter = newName;
-		}
-	}
-
 	public User[] getEffort(User[] userList) {
 		ArrayList<User> userEffortList = new ArrayList<User>();
 		for (User user : userList) {
@@ -315,7 +342,7 @@ public class Question implements Serializable {
 
 	public String toString() {
 		return ( "Q#" + this.qNumber + " worth " + this.value + "\n" + "Open: " + this.isOpen + " Been Open: "
-				+ this.beenOpen + " Correct: " + this.correct + "(" + this.submitter + ")" + "\n" + "Q: "
+				+ this.beenOpen + " Correct: " + this.correct + "(" + this.getSubmitter() + ")" + "\n" + "Q: "
 				+ this.question + "\n" + "A: " + this.answer + "\n" + "Visual Trivia: " + this.visualTrivia + "\n" );
 	}
 
@@ -323,4 +350,50 @@ public class Question implements Serializable {
 		return EqualsBuilder.reflectionEquals(this, question);
 	}
 
+	/**
+	 * Write this question in the compact wire format.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the question can't be written
+	 */
+	public void writeCompact(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		generator.writeNumber(this.qNumber);
+		generator.writeNumber(this.value);
+		generator.writeString(this.question);
+		generator.writeString(this.answer);
+		generator.writeString(this.getSubmitter());
+		generator.writeBoolean(this.isOpen);
+		generator.writeBoolean(this.beenOpen);
+		generator.writeBoolean(this.correct);
+		generator.writeNumber(this.visualTrivia);
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Read a question written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned at the start of the question
+	 * @return The question
+	 * @throws IOException
+	 *             If the question can't be read
+	 */
+	public static Question readCompact(JsonParser parser) throws IOException {
+		CompactFormat.start(parser);
+		final int qNumber = CompactFormat.nextInt(parser);
+		final int value = CompactFormat.nextInt(parser);
+		final String question = CompactFormat.nextString(parser);
+		final String answer = CompactFormat.nextString(parser);
+		final String submitter = CompactFormat.nextString(parser);
+		final boolean open = CompactFormat.nextBoolean(parser);
+		final boolean beenOpen = CompactFormat.nextBoolean(parser);
+		final boolean correct = CompactFormat.nextBoolean(parser);
+		final int visualTrivia = CompactFormat.nextInt(parser);
+		CompactFormat.end(parser);
+		return new Question(qNumber, value, question, answer, "", submitter, open, beenOpen, correct, visualTrivia);
+	}
+
 }
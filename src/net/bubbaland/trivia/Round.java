@@ -1,13 +1,20 @@
 package net.bubbaland.trivia;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import net.bubbaland.trivia.Answer.Agreement;
 import net.bubbaland.trivia.Answer.Status;
@@ -71,7 +78,7 @@ public class Round implements Serializable {
 
 	// The answer queue for this round
 	@JsonProperty("answerQueue")
-	private volatile ArrayList<Answer>	answerQueue;
+	private final AnswerQueue			answerQueue;
 
 	// The discrepancy text for this round, used if the announced score does not match the calculated score
 	@JsonProperty("discrepancyText")
@@ -83,6 +90,18 @@ public class Round implements Serializable {
 	@JsonProperty("showHost")
 	private volatile String				showHost;
 
+	// Totals over the questions, recomputed once after each change (not sent)
+	@JsonIgnore
+	private transient Totals			totals;
+
+	// Whether this is a read-only copy (not sent)
+	@JsonIgnore
+	private transient boolean			readOnly;
+
+	// The user names of the contest the round belongs to, or null if it doesn't belong to one yet (not sent)
+	@JsonIgnore
+	private transient UserRegistry		users;
+
 	/**
 	 * @return the showName
 	 */
@@ -95,6 +114,7 @@ public class Round implements Serializable {
 	 *            the showName to set
 	 */
 	public void setShowName(String showName) {
+		this.checkWritable();
 		this.showName = showName;
 		this.version++;
 	}
@@ -111,6 +131,7 @@ public class Round implements Serializable {
 	 *            the showHost to set
 	 */
 	public void setShowHost(String showHost) {
+		this.checkWritable();
 		this.showHost = showHost;
 		this.version++;
 	}
@@ -140,7 +161,7 @@ public class Round implements Serializable {
 		this.showHost = "";
 		this.version = 0;
 		this.setNQuestions(this.nQuestionsNormal);
-		this.answerQueue = new ArrayList<Answer>(0);
+		this.answerQueue = new AnswerQueue();
 	}
 
 	@JsonCreator
@@ -149,7 +170,7 @@ public class Round implements Serializable {
 			@JsonProperty("questions") ArrayList<Question> questions, @JsonProperty("speed") boolean speed,
 			@JsonProperty("announced") boolean announced, @JsonProperty("announcedPoints") int announcedPoints,
 			@JsonProperty("place") int place, @JsonProperty("standings") ScoreEntry[] standings,
-			@JsonProperty("answerQueue") ArrayList<Answer> answerQueue, @JsonProperty("showName") String showName,
+			@JsonProperty("answerQueue") AnswerQueue answerQueue, @JsonProperty("showName") String showName,
 			@JsonProperty("showHost") String showHost, @JsonProperty("discrepancyText") String discrepancyText) {
 		this.version = version;
 		this.rNumber = rNumber;
@@ -176,9 +197,11 @@ public class Round implements Serializable {
 	 *            The user calling the answer in
 	 */
 	public synchronized void callIn(int queueIndex, String caller) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		final Answer.Status oldStatus = answer.getStatus();
 		answer.callIn(caller);
+		this.answerQueue.statusChanged(answer, oldStatus);
 		final int qNumber = answer.getQNumber();
 		if (oldStatus == Answer.Status.CORRECT) {
 			this.getQuestion(qNumber).openQuestion("");
@@ -194,6 +217,7 @@ public class Round implements Serializable {
 	 * @param userList
 	 */
 	public synchronized void close(int qNumber, User[] userList) {
+		this.checkWritable();
 		this.getQuestion(qNumber).closeQuestion();
 		if (userList != null) {
 			Arrays.stream(userList).parallel().forEach(u -> u.endEffort(qNumber));
@@ -250,6 +274,7 @@ public class Round implements Serializable {
 	 *            The operator who accepted the correct answer
 	 */
 	public void editQuestion(int qNumber, int value, String qText, String aText, boolean isCorrect, String submitter) {
+		this.checkWritable();
 		this.editQuestion(qNumber, value, qText);
 		if (isCorrect) {
 			this.markCorrect(qNumber, aText, submitter);
@@ -262,6 +287,7 @@ public class Round implements Serializable {
 	}
 
 	public void editQuestion(int qNumber, int value, String qText) {
+		this.checkWritable();
 		this.setValue(qNumber, value);
 		this.setQuestionText(qNumber, qText);
 	}
@@ -275,18 +301,66 @@ public class Round implements Serializable {
 		return this.announcedPoints;
 	}
 
-	public Answer[] getAnswerQueue() {
-		final Answer[] queue = new Answer[this.answerQueue.size()];
-		this.answerQueue.toArray(queue);
-		return queue;
+	/**
+	 * Gets the answers in the queue, leaving out any that have been removed.
+	 *
+	 * @return The answers in queue order
+	 */
+	public synchronized Answer[] getAnswerQueue() {
+		final List<Answer> queue = this.answerQueue.getAnswers();
+		return queue.toArray(new Answer[queue.size()]);
 	}
 
-	public Answer getAnswer(int queueIndex) {
+	/**
+	 * Gets an answer in the queue. Answers keep their queue index for the life of the round.
+	 *
+	 * @param queueIndex
+	 *            The index of the answer in the queue
+	 * @return The answer, or null if it has been removed
+	 */
+	public synchronized Answer getAnswer(int queueIndex) {
 		return this.answerQueue.get(queueIndex);
 	}
 
 	/**
-	 * Gets the size of the answer queue.
+	 * Gets a read-only copy of an answer in the queue as it is now, which later changes to the answer don't reach.
+	 *
+	 * @param queueIndex
+	 *            The index of the answer in the queue
+	 * @return The copy, or null if the answer has been removed
+	 */
+	public synchronized Answer copyAnswer(int queueIndex) {
+		final Answer answer = this.answerQueue.get(queueIndex);
+		return answer == null ? null : answer.copy();
+	}
+
+	/**
+	 * Gets the answers proposed for a question.
+	 *
+	 * @param qNumber
+	 *            The question number
+	 * @return The answers in queue order
+	 */
+	public synchronized Answer[] getAnswers(int qNumber) {
+		final List<Answer> answers = this.answerQueue.getQuestion(qNumber);
+		return answers.toArray(new Answer[answers.size()]);
+	}
+
+	/**
+	 * Gets the answers in the queue with a status.
+	 *
+	 * @param status
+	 *            The status
+	 * @return The answers in queue order
+	 */
+	public synchronized Answer[] getAnswers(Answer.Status status) {
+		final Collection<Answer> answers = this.answerQueue.getStatus(status);
+		return answers.toArray(new Answer[answers.size()]);
+	}
+
+	/**
+	 * Gets the size of the answer queue, including the places of answers that have been removed. Every queue index
+	 * is less than the size.
 	 *
 	 * @return The answer queue size
 	 */
@@ -294,9 +368,26 @@ public class Round implements Serializable {
 		return this.answerQueue.size();
 	}
 
-	public void changeUserName(String oldName, String newName) {
-		this.questions.stream().parallel().forEach(q -> q.changeUserName(oldName, newName));
-		this.answerQueue.parallelStream().forEach(a -> a.changeUserName(oldName, newName));
+	/**
+	 * Gets the number of answers in the queue, leaving out any that have been removed.
+	 *
+	 * @return The number of answers
+	 */
+	public synchronized int nAnswers() {
+		return this.answerQueue.nLive();
+	}
+
+	/**
+	 * Move the round's user names into a contest's registry, so they change when users are renamed in the contest.
+	 *
+	 * @param users
+	 *            The contest's user names
+	 */
+	synchronized void attach(UserRegistry users) {
+		this.checkWritable();
+		this.users = users;
+		this.questions.forEach(q -> q.attach(users));
+		this.answerQueue.getAnswers().forEach(a -> a.attach(users));
 	}
 
 
@@ -360,7 +451,7 @@ public class Round implements Serializable {
 	 * @return The total points earned
 	 */
 	public int getEarned() {
-		return this.questions.stream().parallel().mapToInt(q -> q.getEarned()).sum();
+		return this.getTotals().earned;
 	}
 
 
@@ -420,7 +511,7 @@ public class Round implements Serializable {
 	 * @return The total value of this round
 	 */
 	public int getValue() {
-		return this.questions.stream().mapToInt(q -> q.getQuestionValue()).sum();
+		return this.getTotals().value;
 	}
 
 	public int getVersion() {
@@ -493,8 +584,11 @@ public class Round implements Serializable {
 	 *
 	 */
 	public synchronized void markCorrect(int queueIndex, String caller, User[] userList) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
+		final Answer.Status oldStatus = answer.getStatus();
 		answer.markAnswerCorrect(caller);
+		this.answerQueue.statusChanged(answer, oldStatus);
 		final int qNumber = answer.getQNumber();
 		final String answerText = answer.getAnswerText();
 		final String submitter = answer.getSubmitter();
@@ -519,6 +613,7 @@ public class Round implements Serializable {
 	 *
 	 */
 	public synchronized void markCorrect(int qNumber, String answerText, String submitter) {
+		this.checkWritable();
 		this.getQuestion(qNumber).markQuestionCorrect(answerText, submitter);
 		this.version++;
 	}
@@ -531,15 +626,17 @@ public class Round implements Serializable {
 	 *
 	 */
 	public synchronized void markDuplicate(int queueIndex) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
+		final Answer.Status oldStatus = answer.getStatus();
 		answer.markDuplicate();
-		final String aText = answer.getAnswerText().replaceAll("\\s+", "");
-		final int qNumber = answer.getQNumber();
-		this.answerQueue.parallelStream()
-				.filter(a -> a.getQueueLocation() != queueIndex + 1 && a.getQNumber() == qNumber
-						&& a.getAnswerText().replaceAll("\\s+", "").equalsIgnoreCase(aText)
-						&& a.getStatus() != Status.DUPLICATE)
-				.forEach(a -> a.changeAgreement(a.getSubmitter(), Agreement.AGREE));
+		this.answerQueue.statusChanged(answer, oldStatus);
+		// Each submitter of the same answer agrees with it
+		for (final Answer match : this.answerQueue.getMatches(answer.getQNumber(), answer.getNormalizedText())) {
+			if (match != answer && match.getStatus() != Status.DUPLICATE) {
+				match.changeAgreement(match.getSubmitter(), Agreement.AGREE);
+			}
+		}
 		this.version++;
 	}
 
@@ -550,6 +647,7 @@ public class Round implements Serializable {
 	 *            The question number
 	 */
 	public synchronized void markQuestionIncorrect(int qNumber) {
+		this.checkWritable();
 		this.getQuestion(qNumber).markQuestionIncorrect();
 		this.version++;
 	}
@@ -563,7 +661,8 @@ public class Round implements Serializable {
 	 *            The user calling the answer in
 	 */
 	public synchronized void markAnswerIncorrect(int queueIndex) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		final Answer.Status oldStatus = answer.getStatus();
 		final int qNumber = answer.getQNumber();
 		if (oldStatus == Answer.Status.CORRECT) {
@@ -581,9 +680,11 @@ public class Round implements Serializable {
 	 *            The user calling the answer in
 	 */
 	public synchronized void markAnswerIncorrect(int queueIndex, String caller) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		final Answer.Status oldStatus = answer.getStatus();
 		answer.markIncorrect(caller);
+		this.answerQueue.statusChanged(answer, oldStatus);
 		final int qNumber = answer.getQNumber();
 		if (oldStatus == Answer.Status.CORRECT) {
 			this.getQuestion(qNumber).openQuestion("");
@@ -600,9 +701,11 @@ public class Round implements Serializable {
 	 *            The user calling the answer in
 	 */
 	public synchronized void markPartial(int queueIndex, String caller) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		final Answer.Status oldStatus = answer.getStatus();
 		answer.markPartial(caller);
+		this.answerQueue.statusChanged(answer, oldStatus);
 		final int qNumber = answer.getQNumber();
 		if (oldStatus == Answer.Status.CORRECT) {
 			this.getQuestion(qNumber).openQuestion("");
@@ -618,9 +721,11 @@ public class Round implements Serializable {
 	 *
 	 */
 	public synchronized void markUncalled(int queueIndex) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		final Answer.Status oldStatus = answer.getStatus();
 		answer.markUncalled();
+		this.answerQueue.statusChanged(answer, oldStatus);
 		final int qNumber = answer.getQNumber();
 		if (oldStatus == Answer.Status.CORRECT) {
 			this.getQuestion(qNumber).openQuestion("");
@@ -629,12 +734,23 @@ public class Round implements Serializable {
 	}
 
 	public synchronized void changeAgreement(String user, int queueIndex, Answer.Agreement agreement) {
-		this.answerQueue.get(queueIndex).changeAgreement(user, agreement);
+		this.checkWritable();
+		this.answerQueue.getLive(queueIndex).changeAgreement(user, agreement);
 		this.version++;
 	}
 
-	public Agreement getAgreement(String user, int queueIndex) {
-		return this.answerQueue.get(queueIndex).getAgreement(user);
+	/**
+	 * Get a user's agreement with an answer in the queue.
+	 *
+	 * @param user
+	 *            The user name
+	 * @param queueIndex
+	 *            The index of the answer in the queue
+	 * @return The agreement, or null if the answer has been removed
+	 */
+	public synchronized Agreement getAgreement(String user, int queueIndex) {
+		final Answer answer = this.answerQueue.get(queueIndex);
+		return answer == null ? null : answer.getAgreement(user);
 	}
 
 	public Question[] getQuestions() {
@@ -647,7 +763,7 @@ public class Round implements Serializable {
 	 * @return The number of correct answers
 	 */
 	public int nCorrect() {
-		return (int) this.questions.stream().parallel().filter(q -> q.isCorrect()).count();
+		return this.getTotals().nCorrect;
 	}
 
 	/**
@@ -676,11 +792,11 @@ public class Round implements Serializable {
 	 * @return The number of open questions
 	 */
 	public int nOpen() {
-		return (int) this.questions.stream().filter(q -> q.isOpen()).count();
+		return this.getTotals().nOpen;
 	}
 
 	public int nUnopened() {
-		return (int) this.questions.stream().filter(q -> !q.beenOpen()).count();
+		return this.getTotals().nUnopened;
 	}
 
 	/**
@@ -696,15 +812,20 @@ public class Round implements Serializable {
 	 *            The text of the question
 	 */
 	public synchronized void open(String user, int qNumber) {
+		this.checkWritable();
 		this.getQuestion(qNumber).openQuestion(user);
 		this.version++;
 	}
 
 	public synchronized void reopen(int qNumber) {
+		this.checkWritable();
 		this.getQuestion(qNumber).openQuestion("");
-		this.answerQueue.parallelStream()
-				.filter(a -> a.getQNumber() == qNumber && a.getStatus() == Answer.Status.CORRECT)
-				.forEach(a -> a.markUncalled());
+		for (final Answer answer : this.answerQueue.getQuestion(qNumber)) {
+			if (answer.getStatus() == Answer.Status.CORRECT) {
+				answer.markUncalled();
+				this.answerQueue.statusChanged(answer, Answer.Status.CORRECT);
+			}
+		}
 		this.version++;
 	}
 
@@ -720,38 +841,78 @@ public class Round implements Serializable {
 	 * @param confidence
 	 *            The confidence in the answer
 	 */
-	public synchronized void proposeAnswer(int qNumber, String answer, String submitter, int confidence) {
+	public void proposeAnswer(int qNumber, String answer, String submitter, int confidence) {
+		this.proposeAnswer(qNumber, answer, submitter, confidence, System.currentTimeMillis());
+	}
+
+	/**
+	 * Propose an answer for a question at a given time (used when replaying changes).
+	 *
+	 * @param qNumber
+	 *            The question number
+	 * @param answer
+	 *            The proposed answer
+	 * @param submitter
+	 *            The user submitting the answer
+	 * @param confidence
+	 *            The confidence in the answer
+	 * @param time
+	 *            The time the answer was proposed (milliseconds since the epoch)
+	 */
+	public synchronized void proposeAnswer(int qNumber, String answer, String submitter, int confidence, long time) {
+		this.checkWritable();
 		final int queueIndex = this.answerQueue.size();
-		boolean isDuplicate = this.answerQueue.parallelStream()
-				.anyMatch(a -> a.getQNumber() == qNumber
-						&& a.getAnswerText().replaceAll("\\s+", "").equalsIgnoreCase(answer.replaceAll("\\s+", ""))
-						&& a.getStatus() != Status.DUPLICATE);
-		this.answerQueue.add(new Answer(queueIndex + 1, qNumber, answer, submitter, confidence));
+		final Answer newAnswer =
+				new Answer(queueIndex + 1, qNumber, answer, submitter, confidence, Answer.formatTimestamp(time));
+		this.attach(newAnswer);
+		boolean isDuplicate = false;
+		for (final Answer match : this.answerQueue.getMatches(qNumber, newAnswer.getNormalizedText())) {
+			if (match.getStatus() != Status.DUPLICATE) {
+				isDuplicate = true;
+				break;
+			}
+		}
+		this.answerQueue.add(newAnswer);
 		if (isDuplicate) {
 			this.markDuplicate(queueIndex);
 		}
 		this.version++;
 	}
 
+	/**
+	 * Add an answer that was already proposed elsewhere at its queue location (used when applying updates from the
+	 * server).
+	 *
+	 * @param answer
+	 *            The proposed answer
+	 * @throws IllegalArgumentException
+	 *             If the answer's location is already used in this round, in which case the round is unchanged
+	 */
+	public synchronized void addAnswer(Answer answer) {
+		this.checkWritable();
+		this.answerQueue.add(answer);
+		this.attach(answer);
+		this.version++;
+	}
+
 	public synchronized void remapQuestion(int oldQNumber, int newQNumber) {
+		this.checkWritable();
 		this.getQuestion(newQNumber).copy(this.getQuestion(oldQNumber));
 		this.getQuestion(oldQNumber).resetQuestion();
-		this.answerQueue.parallelStream().filter(a -> a.getQNumber() == oldQNumber)
-				.forEach(a -> a.setQNumber(newQNumber));
+		this.answerQueue.remapQuestion(oldQNumber, newQNumber);
 		this.version++;
 	}
 
 	/**
-	 * Reset a question.
+	 * Reset a question, removing its answers from the queue. The other answers keep their places in the queue.
 	 *
 	 * @param qNumber
 	 *            The question number
 	 */
 	public synchronized void resetQuestion(int qNumber) {
+		this.checkWritable();
 		this.getQuestion(qNumber).resetQuestion();
-		this.answerQueue.parallelStream().filter(a -> a.getQNumber() == qNumber)
-				.forEach(a -> this.answerQueue.remove(a));
-		IntStream.range(1, this.answerQueue.size()).forEach(a -> this.answerQueue.get(a - 1).setQueueLocation(a));
+		this.answerQueue.removeQuestion(qNumber);
 		this.version++;
 	}
 
@@ -774,6 +935,7 @@ public class Round implements Serializable {
 	 *            The announced place
 	 */
 	public synchronized void setAnnounced(int announcedPoints, int place) {
+		this.checkWritable();
 		this.announced = true;
 		this.announcedPoints = announcedPoints;
 		this.place = place;
@@ -789,6 +951,7 @@ public class Round implements Serializable {
 	 *            The correct answer
 	 */
 	public synchronized void setAnswerText(int qNumber, String answer) {
+		this.checkWritable();
 		this.getQuestion(qNumber).setAnswerText(answer);
 		this.version++;
 	}
@@ -800,13 +963,19 @@ public class Round implements Serializable {
 	 *            The new discrepancy text
 	 */
 	public synchronized void setDiscrepencyText(String discrepancyText) {
+		this.checkWritable();
 		this.discrepancyText = discrepancyText;
 		this.version++;
 	}
 
 	public synchronized void setNQuestions(int nQuestions) {
+		this.checkWritable();
 		while (nQuestions > this.questions.size()) {
-			this.questions.add(new Question(this.questions.size() + 1));
+			final Question question = new Question(this.questions.size() + 1);
+			if (this.users != null) {
+				question.attach(this.users);
+			}
+			this.questions.add(question);
 		}
 		while (nQuestions < this.questions.size()) {
 			this.questions.remove(this.getQuestion(this.questions.size()));
@@ -824,7 +993,8 @@ public class Round implements Serializable {
 	 *            The operator
 	 */
 	public synchronized void setOperator(int queueIndex, String operator) {
-		final Answer answer = this.answerQueue.get(queueIndex);
+		this.checkWritable();
+		final Answer answer = this.answerQueue.getLive(queueIndex);
 		answer.setOperator(operator);
 		this.version++;
 	}
@@ -838,6 +1008,7 @@ public class Round implements Serializable {
 	 *            The new value
 	 */
 	public synchronized void setQuestionText(int qNumber, String question) {
+		this.checkWritable();
 		this.getQuestion(qNumber).setQuestionText(question);
 		this.version++;
 	}
@@ -848,6 +1019,7 @@ public class Round implements Serializable {
 	 * @param isSpeed
 	 */
 	public synchronized void setSpeed(boolean isSpeed) {
+		this.checkWritable();
 		this.speed = isSpeed;
 		this.setNQuestions(isSpeed ? this.nQuestionsSpeed : this.nQuestionsNormal);
 	}
@@ -859,6 +1031,7 @@ public class Round implements Serializable {
 	 *            Array of ScoreEntry representing each team's score this round
 	 */
 	public synchronized void setStandings(ScoreEntry[] standings, String teamName) {
+		this.checkWritable();
 		this.announced = true;
 		this.standings = standings;
 		for (final ScoreEntry entry : standings) {
@@ -879,6 +1052,7 @@ public class Round implements Serializable {
 	 *            the submitter
 	 */
 	public synchronized void setSubmitter(int qNumber, String submitter) {
+		this.checkWritable();
 		this.getQuestion(qNumber).setSubmitter(submitter);
 		this.version++;
 	}
@@ -892,6 +1066,7 @@ public class Round implements Serializable {
 	 *            The new value
 	 */
 	public synchronized void setValue(int qNumber, int value) {
+		this.checkWritable();
 		this.getQuestion(qNumber).setValue(value);
 		this.version++;
 	}
@@ -900,6 +1075,7 @@ public class Round implements Serializable {
 	 * Make this a normal round
 	 */
 	public synchronized void unsetSpeed() {
+		this.checkWritable();
 		this.speed = false;
 		this.version++;
 	}
@@ -924,14 +1100,15 @@ public class Round implements Serializable {
 			s = s + q.toString() + "\n";
 		}
 		s = s + "== Answer queue for round " + this.rNumber + " ==\n";
-		for (Answer a : this.answerQueue) {
+		for (Answer a : this.answerQueue.getAnswers()) {
 			s = s + a.toString() + "\n";
 		}
 		return s;
 	}
 
 	/**
-	 * Set an answer in the queue. Used when loading a saved state from file.
+	 * Set an answer at the end of the queue. Used when loading a saved state from file that doesn't record queue
+	 * locations.
 	 *
 	 * @param qNumber
 	 *            The question number
@@ -950,15 +1127,46 @@ public class Round implements Serializable {
 	 */
 	public synchronized void setAnswer(int qNumber, String answer, String submitter, int confidence, String status,
 			String caller, String operator, String timestamp) {
-		final Answer newAnswer =
-				new Answer(this.answerQueue.size() + 1, qNumber, answer, submitter, confidence, timestamp);
-		this.answerQueue.add(newAnswer);
+		this.setAnswer(this.answerQueue.size() + 1, qNumber, answer, submitter, confidence, status, caller, operator,
+				timestamp);
+	}
+
+	/**
+	 * Set an answer at its place in the queue. Used when loading a saved state from file.
+	 *
+	 * @param queueLocation
+	 *            The answer's queue location, which must be after every answer already in the queue
+	 * @param qNumber
+	 *            The question number
+	 * @param answer
+	 *            The answer text
+	 * @param submitter
+	 *            The user submitting the answer
+	 * @param confidence
+	 *            The confidence in the answer
+	 * @param status
+	 *            The current status
+	 * @param caller
+	 *            The user calling the question in
+	 * @param operator
+	 *            The operator who accepted the correct answer
+	 * @param timestamp
+	 *            When the answer was proposed
+	 * @throws IllegalArgumentException
+	 *             If the location is already used in this round, in which case the round is unchanged
+	 */
+	public synchronized void setAnswer(int queueLocation, int qNumber, String answer, String submitter,
+			int confidence, String status, String caller, String operator, String timestamp) {
+		this.checkWritable();
+		final Answer newAnswer = new Answer(queueLocation, qNumber, answer, submitter, confidence, timestamp);
+		this.attach(newAnswer);
 		switch (status) {
 			case "Duplicate":
 				newAnswer.markDuplicate();
 				break;
 			case "Calling":
 				newAnswer.callIn(caller);
+				break;
 			case "Incorrect":
 				newAnswer.markIncorrect(caller);
 				break;
@@ -971,9 +1179,118 @@ public class Round implements Serializable {
 				break;
 			default:
 		}
+		// Added once its status is set so it goes in the right status bucket
+		this.answerQueue.add(newAnswer);
 		this.version++;
 	}
 
+	/**
+	 * Extend the answer queue with empty slots, for answers that were removed from the end of a saved queue. Used when
+	 * loading a saved state from file, so answers proposed afterwards get the same queue locations they would have
+	 * before the save.
+	 *
+	 * @param size
+	 *            The size of the saved queue, including the places of removed answers
+	 */
+	public synchronized void setAnswerQueueSize(int size) {
+		this.checkWritable();
+		this.answerQueue.reserve(size);
+	}
+
+	/**
+	 * Create a read-only copy of this round, which can be read on other threads while this one changes. Answers that
+	 * haven't changed since an earlier copy was made are shared with that copy instead of being copied again. The
+	 * copy keeps the user names it was made with when users are renamed.
+	 *
+	 * @param previous
+	 *            An earlier copy of this round, or null
+	 * @return The copy
+	 */
+	public synchronized Round copy(Round previous) {
+		final ArrayList<Question> questionCopies = new ArrayList<Question>(this.questions.size());
+		for (final Question question : this.questions) {
+			questionCopies.add(new Question(question));
+		}
+		final Round copy = new Round(this.version, this.rNumber, this.nQuestionsSpeed, this.nQuestionsNormal,
+				questionCopies, this.speed, this.announced, this.announcedPoints, this.place, this.standings,
+				this.answerQueue.copy(previous == null ? null : previous.answerQueue), this.showName, this.showHost,
+				this.discrepancyText);
+		copy.nQuestions = this.nQuestions;
+		copy.readOnly = true;
+		return copy;
+	}
+
+	/**
+	 * Move a new answer's user names into the contest's registry, if the round belongs to a contest.
+	 *
+	 * @param answer
+	 *            The answer
+	 */
+	private void attach(Answer answer) {
+		if (this.users != null) {
+			answer.attach(this.users);
+		}
+	}
+
+	/**
+	 * Check that this round can be changed.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             If this is a read-only copy
+	 */
+	private void checkWritable() {
+		if (this.readOnly) {
+			throw new UnsupportedOperationException("Round " + this.rNumber + " is a read-only copy");
+		}
+	}
+
+	/**
+	 * Get the totals over the questions, recomputing them if the round has changed since they were last computed. The
+	 * totals are immutable, so they can be shared between threads without locking.
+	 *
+	 * @return The totals
+	 */
+	private Totals getTotals() {
+		// Read the version first, so totals computed during a change are replaced once the change is done
+		final int version = this.version;
+		Totals totals = this.totals;
+		if (totals == null || totals.version != version) {
+			totals = new Totals(version, this.questions.toArray(new Question[0]));
+			this.totals = totals;
+		}
+		return totals;
+	}
+
+	/**
+	 * Totals over a round's questions as of one version of the round. Every change to a round increments its version,
+	 * so the totals only need to be computed once per change however often they are read.
+	 */
+	private static class Totals {
+		final private int	version;
+		final private int	earned;
+		final private int	value;
+		final private int	nCorrect;
+		final private int	nOpen;
+		final private int	nUnopened;
+
+		private Totals(int version, Question[] questions) {
+			int earned = 0, value = 0, nCorrect = 0, nOpen = 0, nUnopened = 0;
+			for (final Question question : questions) {
+				earned += question.getEarned();
+				value += question.getQuestionValue();
+				nCorrect += question.isCorrect() ? 1 : 0;
+				nOpen += question.isOpen() ? 1 : 0;
+				nUnopened += question.beenOpen() ? 0 : 1;
+			}
+			this.version = version;
+			this.earned = earned;
+			this.value = value;
+			this.nCorrect = nCorrect;
+			this.nOpen = nOpen;
+			this.nUnopened = nUnopened;
+		}
+	}
+
 	/**
 	 * Gets the current open questions.
 	 *
@@ -983,4 +1300,97 @@ public class Round implements Serializable {
 		return this.questions.stream().parallel().filter(q -> q.isOpen()).toArray(Question[]::new);
 	}
 
+	/**
+	 * Write this round in the compact wire format.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the round can't be written
+	 */
+	public void writeCompact(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		generator.writeNumber(this.version);
+		generator.writeNumber(this.rNumber);
+		generator.writeNumber(this.nQuestionsSpeed);
+		generator.writeNumber(this.nQuestionsNormal);
+		generator.writeNumber(this.nQuestions);
+		generator.writeBoolean(this.speed);
+		generator.writeBoolean(this.announced);
+		generator.writeNumber(this.announcedPoints);
+		generator.writeNumber(this.place);
+		generator.writeString(this.discrepancyText);
+		generator.writeString(this.showName);
+		generator.writeString(this.showHost);
+		generator.writeStartArray();
+		for (final Question question : this.questions) {
+			question.writeCompact(generator);
+		}
+		generator.writeEndArray();
+		generator.writeStartArray();
+		for (final Answer answer : this.answerQueue.getAnswers()) {
+			answer.writeCompact(generator);
+		}
+		generator.writeEndArray();
+		final ScoreEntry[] standings = this.standings;
+		if (standings == null) {
+			generator.writeNull();
+		} else {
+			generator.writeStartArray();
+			for (final ScoreEntry entry : standings) {
+				entry.writeCompact(generator);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Read a round written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned at the start of the round
+	 * @return The round
+	 * @throws IOException
+	 *             If the round can't be read
+	 */
+	public static Round readCompact(JsonParser parser) throws IOException {
+		CompactFormat.start(parser);
+		final int version = CompactFormat.nextInt(parser);
+		final int rNumber = CompactFormat.nextInt(parser);
+		final int nQuestionsSpeed = CompactFormat.nextInt(parser);
+		final int nQuestionsNormal = CompactFormat.nextInt(parser);
+		final int nQuestions = CompactFormat.nextInt(parser);
+		final boolean speed = CompactFormat.nextBoolean(parser);
+		final boolean announced = CompactFormat.nextBoolean(parser);
+		final int announcedPoints = CompactFormat.nextInt(parser);
+		final int place = CompactFormat.nextInt(parser);
+		final String discrepancyText = CompactFormat.nextString(parser);
+		final String showName = CompactFormat.nextString(parser);
+		final String showHost = CompactFormat.nextString(parser);
+		final ArrayList<Question> questions = new ArrayList<Question>();
+		CompactFormat.nextArray(parser);
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			questions.add(Question.readCompact(parser));
+		}
+		final ArrayList<Answer> answers = new ArrayList<Answer>();
+		CompactFormat.nextArray(parser);
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			answers.add(Answer.readCompact(parser));
+		}
+		ScoreEntry[] standings = null;
+		if (CompactFormat.nextArray(parser)) {
+			final ArrayList<ScoreEntry> entries = new ArrayList<ScoreEntry>();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				entries.add(ScoreEntry.readCompact(parser));
+			}
+			standings = entries.toArray(new ScoreEntry[entries.size()]);
+		}
+		CompactFormat.end(parser);
+		final Round round = new Round(version, rNumber, nQuestionsSpeed, nQuestionsNormal, questions, speed, announced,
+				announcedPoints, place, standings, new AnswerQueue(answers), showName, showHost, discrepancyText);
+		round.nQuestions = nQuestions;
+		return round;
+	}
+
 }
@@ -1,11 +1,14 @@
 package net.bubbaland.trivia;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Comparator;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 
 /**
  * A data structure for the announced score and place of one team.
@@ -74,4 +77,38 @@ public class ScoreEntry implements Comparable<ScoreEntry>, Serializable {
 		return String.format("%1$3d %2$60s %3$05d", this.place, this.teamName, this.score);
 	}
 
+	/**
+	 * Write this entry in the compact wire format.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the entry can't be written
+	 */
+	public void writeCompact(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		generator.writeString(this.teamName);
+		generator.writeNumber(this.score);
+		generator.writeNumber(this.place);
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Read an entry written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned at the start of the entry
+	 * @return The entry
+	 * @throws IOException
+	 *             If the entry can't be read
+	 */
+	public static ScoreEntry readCompact(JsonParser parser) throws IOException {
+		CompactFormat.start(parser);
+		final String teamName = CompactFormat.nextString(parser);
+		final int score = CompactFormat.nextInt(parser);
+		final int place = CompactFormat.nextInt(parser);
+		CompactFormat.end(parser);
+		return new ScoreEntry(teamName, score, place);
+	}
+
 }
@@ -1,5 +1,6 @@
 package net.bubbaland.trivia;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,7 +11,11 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 /**
  * The primary data structure for the trivia contest.
@@ -22,43 +27,55 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class Trivia implements Serializable {
 
-	private static final long	serialVersionUID	= -1849743738638088417L;
+	private static final long				serialVersionUID	= -1849743738638088417L;
 
 	// The team name
 	@JsonProperty("teamName")
-	final private String		teamName;
+	final private String					teamName;
 
 	// The team number
 	@JsonProperty("teamNumber")
-	private int					teamNumber;
+	private int								teamNumber;
 
 	// The number of rounds
 	@JsonProperty("nRounds")
-	final private int			nRounds;
+	final private int						nRounds;
 
 	// The number of questions in a normal round
 	@JsonProperty("nQuestionsNormal")
-	final private int			nQuestionsNormal;
+	final private int						nQuestionsNormal;
 
 	// The number of questions in a speed round
 	@JsonProperty("nQuestionsSpeed")
-	final private int			nQuestionsSpeed;
+	final private int						nQuestionsSpeed;
 
 	// The maximum number of questions allowed
 	@JsonProperty("nQuestionsMax")
-	final private int			nQuestionsMax;
+	final private int						nQuestionsMax;
 
 	// Number of visual trivias
 	@JsonProperty("nVisual")
-	private volatile int		nVisual;
+	private volatile int					nVisual;
 
 	// The current round
 	@JsonProperty("rNumber")
-	private volatile int		currentRoundNumber;
+	private volatile int					currentRoundNumber;
 
 	// Array of all the rounds in the contest
 	@JsonProperty("rounds")
-	private volatile Round[]	rounds;
+	private volatile Round[]				rounds;
+
+	// Totals across the rounds, recomputed once after any round changes (not sent)
+	@JsonIgnore
+	private transient Totals				totals;
+
+	// Whether this is a read-only copy (not sent)
+	@JsonIgnore
+	private transient boolean				readOnly;
+
+	// The names of the users in the contest (not sent)
+	@JsonIgnore
+	private final transient UserRegistry	users;
 
 	/**
 	 * Creates a new trivia contest
@@ -80,8 +97,9 @@ public class Trivia implements Serializable {
 		this.nQuestionsSpeed = nQuestionsSpeed;
 		this.nQuestionsMax = nQuestionsMax;
 		this.rounds = new Round[nRounds];
+		this.users = new UserRegistry();
 		IntStream.rangeClosed(1, nRounds).parallel()
-				.forEach(r -> this.rounds[r - 1] = new Round(r, nQuestions, nQuestionsSpeed));
+				.forEach(r -> this.rounds[r - 1] = this.attach(new Round(r, nQuestions, nQuestionsSpeed)));
 		this.currentRoundNumber = 1;
 		this.nVisual = 1;
 	}
@@ -101,6 +119,68 @@ public class Trivia implements Serializable {
 		this.currentRoundNumber = rNumber;
 		this.rounds = rounds;
 		this.nVisual = nVisuals;
+		this.users = new UserRegistry();
+		Arrays.stream(this.rounds).forEach(r -> this.attach(r));
+	}
+
+	/**
+	 * Create a read-only copy of a contest.
+	 *
+	 * @param trivia
+	 *            The contest to copy
+	 * @param roundCopies
+	 *            Copies of every round, in order
+	 */
+	private Trivia(Trivia trivia, Round[] roundCopies) {
+		this.teamName = trivia.teamName;
+		this.teamNumber = trivia.teamNumber;
+		this.nRounds = trivia.nRounds;
+		this.nQuestionsNormal = trivia.nQuestionsNormal;
+		this.nQuestionsSpeed = trivia.nQuestionsSpeed;
+		this.nQuestionsMax = trivia.nQuestionsMax;
+		this.currentRoundNumber = trivia.currentRoundNumber;
+		this.rounds = roundCopies;
+		this.nVisual = trivia.nVisual;
+		this.users = null;
+		this.readOnly = true;
+	}
+
+	/**
+	 * Create a read-only copy of the contest data that uses the given rounds in place of the live ones. The copies
+	 * keep their user names when users are renamed in this contest.
+	 *
+	 * @param roundCopies
+	 *            Copies of every round, in order
+	 * @return The copy
+	 */
+	public Trivia copy(Round[] roundCopies) {
+		return new Trivia(this, roundCopies);
+	}
+
+	/**
+	 * Move a round's user names into this contest's registry.
+	 *
+	 * @param round
+	 *            The round, or null
+	 * @return The round
+	 */
+	private Round attach(Round round) {
+		if (round != null) {
+			round.attach(this.users);
+		}
+		return round;
+	}
+
+	/**
+	 * Check that this contest can be changed.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             If this is a read-only copy
+	 */
+	private void checkWritable() {
+		if (this.readOnly) {
+			throw new UnsupportedOperationException("The contest data is a read-only copy");
+		}
 	}
 
 	/**
@@ -123,8 +203,7 @@ public class Trivia implements Serializable {
 	 * @return The cumulative number of points earned
 	 */
 	public int getCumulativeEarned(int rNumber) {
-		return Arrays.stream(this.rounds).parallel().filter(r -> r.getRoundNumber() <= rNumber)
-				.mapToInt(r -> r.getEarned()).sum();
+		return this.getTotals().cumulativeEarned[this.clampRound(rNumber)];
 	}
 
 	/**
@@ -144,8 +223,34 @@ public class Trivia implements Serializable {
 	 * @return The cumulative value
 	 */
 	public int getCumulativeValue(int rNumber) {
-		return Arrays.stream(this.rounds).parallel().filter(r -> r.getRoundNumber() <= rNumber)
-				.mapToInt(r -> r.getValue()).sum();
+		return this.getTotals().cumulativeValue[this.clampRound(rNumber)];
+	}
+
+	/**
+	 * Limit a round number to the rounds in the contest, with 0 for before the first round.
+	 *
+	 * @param rNumber
+	 *            The round number
+	 * @return The limited round number
+	 */
+	private int clampRound(int rNumber) {
+		return Math.max(0, Math.min(rNumber, this.rounds.length));
+	}
+
+	/**
+	 * Get the totals across the rounds, recomputing them if any round has changed or been replaced since they were
+	 * last computed.
+	 *
+	 * @return The totals
+	 */
+	private Totals getTotals() {
+		final Round[] rounds = this.rounds;
+		Totals totals = this.totals;
+		if (totals == null || !totals.isCurrent(rounds)) {
+			totals = new Totals(rounds);
+			this.totals = totals;
+		}
+		return totals;
 	}
 
 	/**
@@ -180,8 +285,7 @@ public class Trivia implements Serializable {
 	}
 
 	public int getLastAnnounced() {
-		return Arrays.stream(this.rounds).filter(r -> r.isAnnounced()).mapToInt(r -> r.getRoundNumber()).max()
-				.orElse(0);
+		return this.getTotals().lastAnnounced;
 	}
 
 	/**
@@ -208,6 +312,7 @@ public class Trivia implements Serializable {
 	}
 
 	public void setTeamNumber(int teamNumber) {
+		this.checkWritable();
 		this.teamNumber = teamNumber;
 	}
 
@@ -232,7 +337,7 @@ public class Trivia implements Serializable {
 	}
 
 	private void setRound(Round r) {
-		this.rounds[r.getRoundNumber() - 1] = r;
+		this.rounds[r.getRoundNumber() - 1] = this.attach(r);
 	}
 
 	/**
@@ -266,6 +371,7 @@ public class Trivia implements Serializable {
 	 * Start a new round.
 	 */
 	public void newRound() {
+		this.checkWritable();
 		if (this.getCurrentRound().nOpen() == 0 && this.getCurrentRound().nUnopened() == 0
 				&& this.currentRoundNumber + 1 <= this.nRounds) {
 			this.currentRoundNumber++;
@@ -276,8 +382,9 @@ public class Trivia implements Serializable {
 	 * Reset the entire trivia contest.
 	 */
 	public void reset() {
+		this.checkWritable();
 		Arrays.parallelSetAll(this.rounds,
-				(index) -> new Round(index + 1, Trivia.this.nQuestionsNormal, Trivia.this.nQuestionsSpeed));
+				(index) -> this.attach(new Round(index + 1, this.nQuestionsNormal, this.nQuestionsSpeed)));
 		this.currentRoundNumber = 1;
 	}
 
@@ -288,10 +395,12 @@ public class Trivia implements Serializable {
 	 *            The new current round number
 	 */
 	public void setCurrentRoundNumber(int rNumber) {
+		this.checkWritable();
 		this.currentRoundNumber = rNumber;
 	}
 
 	public void setNVisual(int nVisual) {
+		this.checkWritable();
 		this.nVisual = nVisual;
 	}
 
@@ -378,11 +487,23 @@ public class Trivia implements Serializable {
 	 *            The rounds with updated versions
 	 */
 	public synchronized void updateRounds(Round[] newRounds) {
+		this.checkWritable();
 		Arrays.stream(newRounds).parallel().forEach(r -> this.setRound(r));
 	}
 
+	/**
+	 * Change a user's name everywhere in the contest. The contest holds each name once in its {@link UserRegistry},
+	 * so this only changes that name, or points it at the existing user if the new name is already in use. Other
+	 * contests and read-only copies of this one are unchanged.
+	 *
+	 * @param oldName
+	 *            The old user name
+	 * @param newName
+	 *            The new user name
+	 */
 	public void changeUserName(String oldName, String newName) {
-		Arrays.stream(this.rounds).parallel().forEach(r -> r.changeUserName(oldName, newName));
+		this.checkWritable();
+		this.users.rename(oldName, newName);
 	}
 
 	public String toString() {
@@ -396,4 +517,121 @@ public class Trivia implements Serializable {
 		}
 		return s;
 	}
+
+	/**
+	 * Write this contest in the compact wire format.
+	 *
+	 * @param generator
+	 *            The generator to write to
+	 * @throws IOException
+	 *             If the contest can't be written
+	 */
+	public void writeCompact(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		generator.writeString(this.teamName);
+		generator.writeNumber(this.teamNumber);
+		generator.writeNumber(this.nRounds);
+		generator.writeNumber(this.nQuestionsNormal);
+		generator.writeNumber(this.nQuestionsSpeed);
+		generator.writeNumber(this.nQuestionsMax);
+		generator.writeNumber(this.nVisual);
+		generator.writeNumber(this.currentRoundNumber);
+		generator.writeStartArray();
+		for (final Round round : this.rounds) {
+			round.writeCompact(generator);
+		}
+		generator.writeEndArray();
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Read a contest written in the compact wire format.
+	 *
+	 * @param parser
+	 *            The parser, positioned at the start of the contest
+	 * @return The contest
+	 * @throws IOException
+	 *             If the contest can't be read
+	 */
+	public static Trivia readCompact(JsonParser parser) throws IOException {
+		CompactFormat.start(parser);
+		final String teamName = CompactFormat.nextString(parser);
+		final int teamNumber = CompactFormat.nextInt(parser);
+		final int nRounds = CompactFormat.nextInt(parser);
+		final int nQuestionsNormal = CompactFormat.nextInt(parser);
+		final int nQuestionsSpeed = CompactFormat.nextInt(parser);
+		final int nQuestionsMax = CompactFormat.nextInt(parser);
+		final int nVisual = CompactFormat.nextInt(parser);
+		final int rNumber = CompactFormat.nextInt(parser);
+		final ArrayList<Round> rounds = new ArrayList<Round>();
+		CompactFormat.nextArray(parser);
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			rounds.add(Round.readCompact(parser));
+		}
+		CompactFormat.end(parser);
+		return new Trivia(teamName, teamNumber, nRounds, nQuestionsNormal, nQuestionsSpeed, nQuestionsMax, nVisual,
+				rNumber, rounds.toArray(new Round[rounds.size()]));
+	}
+
+	/**
+	 * Totals across the rounds as of one version of each round: the earned points and question values through each
+	 * round, and the last announced round. Checking that the totals are current only compares each round's identity
+	 * and version, so cumulative totals for every round cost one pass over the rounds after each change.
+	 */
+	private static class Totals {
+		// The rounds and their versions when the totals were computed
+		final private Round[]	rounds;
+		final private int[]		versions;
+		// Totals through each round, where index 0 is before the first round
+		final private int[]		cumulativeEarned;
+		final private int[]		cumulativeValue;
+		final private int		lastAnnounced;
+
+		private Totals(Round[] rounds) {
+			this.rounds = rounds.clone();
+			this.versions = new int[rounds.length];
+			this.cumulativeEarned = new int[rounds.length + 1];
+			this.cumulativeValue = new int[rounds.length + 1];
+			int lastAnnounced = 0;
+			for (int r = 0; r < rounds.length; r++) {
+				final Round round = this.rounds[r];
+				int earned = 0, value = 0;
+				if (round != null) {
+					// Read the version first, so totals computed during a change are replaced once the change is done
+					this.versions[r] = round.getVersion();
+					earned = round.getEarned();
+					value = round.getValue();
+					if (round.isAnnounced()) {
+						lastAnnounced = Math.max(lastAnnounced, round.getRoundNumber());
+					}
+				}
+				this.cumulativeEarned[r + 1] = this.cumulativeEarned[r] + earned;
+				this.cumulativeValue[r + 1] = this.cumulativeValue[r] + value;
+			}
+			this.lastAnnounced = lastAnnounced;
+		}
+
+		/**
+		 * Check whether the totals are current.
+		 *
+		 * @param rounds
+		 *            The contest's rounds
+		 * @return Whether every round is the same round at the same version as when the totals were computed
+		 */
+		private boolean isCurrent(Round[] rounds) {
+			if (rounds.length != this.rounds.length) {
+				return false;
+			}
+			for (int r = 0; r < rounds.length; r++) {
+				if (rounds[r] != this.rounds[r]) {
+					return false;
+				}
+				if (rounds[r] != null && rounds[r].getVersion() != this.versions[r]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 }
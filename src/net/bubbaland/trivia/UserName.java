@@ -0,0 +1,132 @@
+package net.bubbaland.trivia;
+
+import java.io.Serializable;
+
+/**
+ * A user name as stored in the contest data.
+ *
+ * Answers, questions and agreements hold these instead of strings. Each name in a contest is held once by the
+ * contest's {@link UserRegistry}, so renaming a user changes the one shared name and every answer sees the change.
+ * When a user is renamed to a name that is already in use, the old name is instead pointed at the existing one, and
+ * anything holding it resolves to the existing user from then on.
+ *
+ * Names that don't belong to a registry (read from a message or a save before joining a contest, or copied for a
+ * snapshot) never change.
+ *
+ * @author Walter Kolczynski
+ */
+final class UserName implements Serializable {
+
+	private static final long				serialVersionUID	= 2874517300564104934L;
+
+	// The empty name, used when nobody has called an answer in
+	static final UserName					NOBODY				= new UserName("", null);
+
+	// The registry that renames this name (null if it never changes)
+	private final transient UserRegistry	registry;
+
+	// The current name
+	private volatile String					name;
+
+	// The name this one was merged into, or null if it stands for its own user
+	private volatile UserName				mergedInto;
+
+	// An unchanging copy under the current name, reused by every snapshot until the name changes
+	private transient volatile UserName		frozen;
+
+	/**
+	 * Create a user name.
+	 *
+	 * @param name
+	 *            The name
+	 * @param registry
+	 *            The registry the name belongs to, or null if it never changes
+	 */
+	UserName(String name, UserRegistry registry) {
+		this.name = name;
+		this.registry = registry;
+	}
+
+	/**
+	 * Get a name that doesn't belong to a registry.
+	 *
+	 * @param name
+	 *            The name
+	 * @return The user name, or null for a null name
+	 */
+	static UserName of(String name) {
+		if (name == null) {
+			return null;
+		}
+		return name.isEmpty() ? NOBODY : new UserName(name, null);
+	}
+
+	/**
+	 * @return the registry this name belongs to, or null if it never changes
+	 */
+	UserRegistry getRegistry() {
+		return this.registry;
+	}
+
+	/**
+	 * Get the name that stands for this user, following any merges.
+	 *
+	 * @return The user name
+	 */
+	UserName resolve() {
+		UserName user = this;
+		while (user.mergedInto != null) {
+			user = user.mergedInto;
+		}
+		return user;
+	}
+
+	/**
+	 * @return the current name
+	 */
+	String getName() {
+		return this.resolve().name;
+	}
+
+	/**
+	 * Change the name. Only called by the registry.
+	 *
+	 * @param name
+	 *            The new name
+	 */
+	void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Merge this user into another. Only called by the registry.
+	 *
+	 * @param user
+	 *            The user this one is now the same as
+	 */
+	void mergeInto(UserName user) {
+		this.mergedInto = user;
+	}
+
+	/**
+	 * Get a copy of this name that won't change, for a snapshot.
+	 *
+	 * @param user
+	 *            The user name, or null
+	 * @return The copy, or null for null
+	 */
+	static UserName freeze(UserName user) {
+		if (user == null || user.registry == null) {
+			return user;
+		}
+		final UserName root = user.resolve();
+		final String name = root.name;
+		UserName frozen = root.frozen;
+		if (frozen == null || !frozen.name.equals(name)) {
+			frozen = new UserName(name, null);
+			root.frozen = frozen;
+		}
+		return frozen;
+	}
+
+}
@@ -0,0 +1,117 @@
+package net.bubbaland.trivia;
+
+import java.util.HashMap;
+
+/**
+ * The user names in one contest.
+ *
+ * The contest data stores the users who submitted, called in and agreed with answers as {@link UserName}s from its
+ * registry, and reads the strings only when the data is shown, sent or saved. Renaming a user then changes one name
+ * here instead of every answer in every round. Each contest has its own registry, so renaming a user in one leaves
+ * every other contest in the process alone, including the snapshots copied from it, which hold unchanging copies of
+ * the names.
+ *
+ * Only names in use are held. A name that is renamed to one already in use is merged into it and dropped from the
+ * registry, and is collected once nothing refers to it. Messages and saves carry the strings, and names read from them
+ * join the registry when their round joins the contest. Lookups and changes are synchronized.
+ *
+ * @author Walter Kolczynski
+ */
+class UserRegistry {
+
+	// Names by their current string
+	private final HashMap<String, UserName>	names;
+
+	// The number of times a name has been changed or merged
+	private volatile int					generation;
+
+	/**
+	 * Create an empty registry.
+	 */
+	UserRegistry() {
+		this.names = new HashMap<String, UserName>();
+		this.generation = 0;
+	}
+
+	/**
+	 * Get the name for a string, adding it if it hasn't been seen before.
+	 *
+	 * @param name
+	 *            The user name
+	 * @return The name, or null for a null string
+	 */
+	synchronized UserName get(String name) {
+		if (name == null) {
+			return null;
+		}
+		if (name.isEmpty()) {
+			return UserName.NOBODY;
+		}
+		return this.names.computeIfAbsent(name, n -> new UserName(n, this));
+	}
+
+	/**
+	 * Get this registry's name for a user name from elsewhere.
+	 *
+	 * @param user
+	 *            The user name, or null
+	 * @return The registry's name, or null for null
+	 */
+	UserName attach(UserName user) {
+		if (user == null || user == UserName.NOBODY || user.getRegistry() == this) {
+			return user;
+		}
+		return this.get(user.getName());
+	}
+
+	/**
+	 * Get a name for a string, from a registry if there is one.
+	 *
+	 * @param registry
+	 *            The registry, or null
+	 * @param name
+	 *            The user name
+	 * @return The name, or null for a null string
+	 */
+	static UserName get(UserRegistry registry, String name) {
+		return registry == null ? UserName.of(name) : registry.get(name);
+	}
+
+	/**
+	 * Get the registry's generation, which changes whenever a user is renamed, so anything holding strings read from
+	 * names, or holding names that may have been merged, can tell when to check them again.
+	 *
+	 * @return The generation
+	 */
+	int getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Change a user's name. If the new name is already in use, the two users are merged: the old name resolves to the
+	 * new one's user from then on.
+	 *
+	 * @param oldName
+	 *            The old user name
+	 * @param newName
+	 *            The new user name
+	 */
+	synchronized void rename(String oldName, String newName) {
+		if (oldName == null || newName == null || oldName.equals(newName)) {
+			return;
+		}
+		final UserName user = this.names.remove(oldName);
+		if (user == null) {
+			return;
+		}
+		final UserName existing = newName.isEmpty() ? UserName.NOBODY : this.names.get(newName);
+		if (existing == null) {
+			user.setName(newName);
+			this.names.put(newName, user);
+		} else {
+			user.mergeInto(existing);
+		}
+		this.generation++;
+	}
+
+}
@@ -2,15 +2,24 @@ package net.bubbaland.trivia.client;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.websocket.ClientEndpoint;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.DeploymentException;
 import javax.websocket.EncodeException;
 import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -18,13 +27,23 @@ import javax.websocket.OnOpen;
 import javax.websocket.Session;
 
 import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.TyrusClientEngine;
+import org.glassfish.tyrus.core.AnnotatedEndpoint;
+import org.glassfish.tyrus.core.ComponentProviderService;
+import org.glassfish.tyrus.core.ErrorCollector;
 
+import net.bubbaland.trivia.Round;
 import net.bubbaland.trivia.Trivia;
 import net.bubbaland.trivia.User;
 import net.bubbaland.trivia.client.dialog.LoadStateDialog;
 import net.bubbaland.trivia.messages.ChangeUserMessage;
+import net.bubbaland.trivia.messages.FetchRoundMessage;
 import net.bubbaland.trivia.messages.FetchTriviaMessage;
 import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.PerMessageDeflate;
+import net.bubbaland.trivia.messages.ResumeSessionMessage;
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
 import net.bubbaland.trivia.messages.SaveListMessage;
 import net.bubbaland.trivia.messages.SetNVisualMessage;
 import net.bubbaland.trivia.messages.SetRoleMessage;
@@ -33,6 +52,7 @@ import net.bubbaland.trivia.messages.SetTeamNumberMessage;
 import net.bubbaland.trivia.messages.TriviaDataMessage;
 import net.bubbaland.trivia.messages.UpdateRoundsMessage;
 import net.bubbaland.trivia.messages.UserListMessage;
+import net.bubbaland.trivia.messages.WireFormat;
 
 /**
  * Provides the root functionality for connecting to the trivia server and creating the associated GUI.
@@ -40,9 +60,16 @@ import net.bubbaland.trivia.messages.UserListMessage;
  * @author Walter Kolczynski
  *
  */
-@ClientEndpoint(decoders = { Message.MessageDecoder.class }, encoders = { Message.MessageEncoder.class })
+@ClientEndpoint(decoders = { Message.MessageDecoder.class, Message.BinaryMessageDecoder.class },
+		encoders = { Message.MessageEncoder.class, Message.BinaryMessageEncoder.class },
+		subprotocols = { "trivia-smile-2", "trivia-compact-2", "trivia-json-2" })
 public class TriviaClient implements Runnable {
 
+	// Close codes for a connection the server ended on purpose or over what was sent, which reconnecting won't fix
+	private static final EnumSet<CloseCodes>	FINAL_CLOSE_CODES	= EnumSet.of(CloseCodes.NORMAL_CLOSURE,
+			CloseCodes.PROTOCOL_ERROR, CloseCodes.CANNOT_ACCEPT, CloseCodes.NOT_CONSISTENT, CloseCodes.VIOLATED_POLICY,
+			CloseCodes.TOO_BIG, CloseCodes.NO_EXTENSION);
+
 	private volatile User	user;
 
 	// Hashtable of active users and roles
@@ -61,6 +88,20 @@ public class TriviaClient implements Runnable {
 
 	private final String	serverURL;
 
+	// Epoch of the round versions in the local trivia object
+	private volatile long	epoch;
+
+	// Rounds requested in full that haven't arrived yet, so missing several deltas only fetches a round once
+	private final Set<Integer>	pendingFetches;
+
+	// Number of automatic reconnection attempts before asking the user
+	private final int		reconnectAttempts;
+	// Initial and maximum delay limits between reconnection attempts (milliseconds)
+	private final int		reconnectBaseDelay;
+	private final int		reconnectMaxDelay;
+	// Compression offered to the server (null if disabled)
+	private final PerMessageDeflate	deflate;
+
 	/**
 	 * Creates a new trivia client
 	 */
@@ -72,20 +113,86 @@ public class TriviaClient implements Runnable {
 		this.setUserName("User" + String.format("%05d", new Random().nextInt(99999)));
 		this.userList = new User[0];
 		this.trivia = null;
+		this.pendingFetches = ConcurrentHashMap.newKeySet();
 		this.timeToIdle = Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("UserList.timeToIdle"));
+		this.reconnectAttempts = Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("Reconnect.Attempts"));
+		this.reconnectBaseDelay = Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("Reconnect.BaseDelay"));
+		this.reconnectMaxDelay = Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("Reconnect.MaxDelay"));
+		if (Boolean.parseBoolean(TriviaGUI.PROPERTIES.getProperty("Deflate.Enabled"))) {
+			this.deflate = new PerMessageDeflate(false,
+					Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("Deflate.Level")),
+					Boolean.parseBoolean(TriviaGUI.PROPERTIES.getProperty("Deflate.ClientNoContextTakeover")),
+					Boolean.parseBoolean(TriviaGUI.PROPERTIES.getProperty("Deflate.ServerNoContextTakeover")),
+					Integer.parseInt(TriviaGUI.PROPERTIES.getProperty("Deflate.Threshold")));
+		} else {
+			this.deflate = null;
+		}
 	}
 
 	@Override
 	public void run() {
+		if (this.connect()) {
+			TriviaClient.this.setUserName(this.user.getUserName());
+		} else {
+			this.gui.disconnected();
+		}
+	}
+
+	/**
+	 * Open a connection to the server.
+	 *
+	 * @return Whether the connection succeeded
+	 */
+	private boolean connect() {
 		final ClientManager clientManager = ClientManager.createClient();
 		try {
-			clientManager.connectToServer(this, URI.create(this.serverURL));
-			TriviaClient.this.setUserName(this.user.getUserName());
+			if (this.deflate == null) {
+				clientManager.connectToServer(this, URI.create(this.serverURL));
+			} else {
+				// Annotated endpoints can't list extensions, so wrap this one in a configuration offering compression
+				final ErrorCollector errors = new ErrorCollector();
+				final AnnotatedEndpoint endpoint = AnnotatedEndpoint.fromInstance(this,
+						ComponentProviderService.createClient(), false, TyrusClientEngine.DEFAULT_INCOMING_BUFFER_SIZE,
+						errors);
+				if (!errors.isEmpty()) {
+					throw errors.composeComprehensiveException();
+				}
+				final ClientEndpointConfig annotated = (ClientEndpointConfig) endpoint.getEndpointConfig();
+				final ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+						.decoders(annotated.getDecoders()).encoders(annotated.getEncoders())
+						.preferredSubprotocols(annotated.getPreferredSubprotocols())
+						.extensions(Arrays.<Extension> asList(this.deflate)).build();
+				clientManager.connectToServer(endpoint, config, URI.create(this.serverURL));
+			}
+			return true;
 		} catch (DeploymentException | IOException exception) {
-			this.gui.disconnected();
+			return false;
 		}
 	}
 
+	/**
+	 * Try to reconnect after losing the connection, waiting a random time up to an exponentially growing limit between
+	 * attempts so clients dropped together don't all retry together. Asks the user what to do if every attempt fails.
+	 */
+	private void reconnect() {
+		final Random random = new Random();
+		for (int attempt = 0; attempt < this.reconnectAttempts; attempt++) {
+			final long limit =
+					Math.min(this.reconnectMaxDelay, (long) this.reconnectBaseDelay << Math.min(attempt, 20));
+			try {
+				Thread.sleep(random.nextInt((int) limit + 1));
+			} catch (final InterruptedException exception) {
+				return;
+			}
+			this.log("Reconnecting to trivia server (attempt " + ( attempt + 1 ) + " of " + this.reconnectAttempts
+					+ ")...");
+			if (this.connect()) {
+				return;
+			}
+		}
+		this.gui.disconnected();
+	}
+
 	public int getTimeToIdle() {
 		return this.timeToIdle;
 	}
@@ -182,7 +289,11 @@ public class TriviaClient implements Runnable {
 			System.out.println("Trying to send message from Event Dispatch Thread!");
 		}
 		try {
-			this.session.getBasicRemote().sendObject(message);
+			if (WireFormat.forSubprotocol(this.session.getNegotiatedSubprotocol()).isBinary()) {
+				this.session.getBasicRemote().sendBinary(ByteBuffer.wrap(MessageCodec.encodeBinary(message)));
+			} else {
+				this.session.getBasicRemote().sendObject(message);
+			}
 		} catch (IOException | EncodeException exception) {
 			log("Error transmitting message to server!");
 			log(message.toString());
@@ -194,7 +305,15 @@ public class TriviaClient implements Runnable {
 	public void onOpen(final Session session, EndpointConfig config) {
 		this.gui.log("Connected to trivia server (" + this.serverURL + ").");
 		this.session = session;
-		this.sendMessage(new FetchTriviaMessage());
+		// Answers to requests made on the old connection won't arrive
+		this.pendingFetches.clear();
+		if (this.trivia != null && this.epoch != 0) {
+			// Only get what changed while we were disconnected
+			this.sendMessage(new ResumeSessionMessage(this.user.getUserName(), this.user.getRole(), this.epoch,
+					this.trivia.getVersions()));
+		} else {
+			this.sendMessage(new FetchTriviaMessage());
+		}
 	}
 
 	@OnError
@@ -214,6 +333,8 @@ public class TriviaClient implements Runnable {
 			case "TriviaDataMessage": {
 				TriviaDataMessage message = (TriviaDataMessage) genericMessage;
 				this.trivia = message.getTrivia();
+				this.epoch = message.getEpoch();
+				this.pendingFetches.clear();
 				break;
 			}
 			case "UserListMessage": {
@@ -229,6 +350,34 @@ public class TriviaClient implements Runnable {
 			case "UpdateRoundsMessage": {
 				UpdateRoundsMessage message = (UpdateRoundsMessage) genericMessage;
 				this.trivia.updateRounds(message.getUpdatedRounds());
+				for (final Round round : message.getUpdatedRounds()) {
+					this.pendingFetches.remove(round.getRoundNumber());
+				}
+				break;
+			}
+			case "AnswerAddedDeltaMessage":
+			case "AnswerStatusDeltaMessage":
+			case "AgreementDeltaMessage":
+			case "QuestionDeltaMessage": {
+				RoundDeltaMessage message = (RoundDeltaMessage) genericMessage;
+				final Round round = this.trivia.getRound(message.getRoundNumber());
+				if (round.getVersion() > message.getBaseVersion()) {
+					// Already included in a full round sent since
+					break;
+				}
+				if (round.getVersion() == message.getBaseVersion()) {
+					try {
+						message.apply(round);
+					} catch (final RuntimeException exception) {
+						// The round doesn't match the server's after all, so the version check below fetches it
+						this.log("Couldn't apply update to round " + message.getRoundNumber() + ": "
+								+ exception.getMessage());
+					}
+				}
+				if (round.getVersion() != message.getVersion() && this.pendingFetches.add(message.getRoundNumber())) {
+					// Missed an update, get the whole round unless it has already been requested
+					this.sendMessage(new FetchRoundMessage(message.getRoundNumber()));
+				}
 				break;
 			}
 			case "SetNVisualMessage": {
@@ -247,10 +396,31 @@ public class TriviaClient implements Runnable {
 		this.gui.updateGUI(false);
 	}
 
+	/**
+	 * Handle the connection closing. Reconnects automatically if the connection was lost or the server is restarting
+	 * or shedding load, but not if the server closed it on purpose or refused what was sent, since trying again would
+	 * end the same way.
+	 *
+	 * @param session
+	 *            The session that closed
+	 * @param reason
+	 *            Why the session closed
+	 */
 	@OnClose
-	public void onClose() {
-		this.gui.log("Connection closed");
-		this.gui.disconnected();
+	public void onClose(Session session, CloseReason reason) {
+		this.gui.log("Connection closed (" + reason.getCloseCode() + ( reason.getReasonPhrase().isEmpty() ? ""
+				: ": " + reason.getReasonPhrase() ) + ")");
+		final boolean retry = !FINAL_CLOSE_CODES.contains(CloseCodes.getCloseCode(reason.getCloseCode().getCode()));
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (retry) {
+					TriviaClient.this.reconnect();
+				} else {
+					TriviaClient.this.gui.disconnected();
+				}
+			}
+		}, "Reconnect").start();
 	}
 
 	public User[] getUserList() {
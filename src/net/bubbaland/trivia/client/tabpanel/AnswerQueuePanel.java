@@ -448,7 +448,7 @@ public class AnswerQueuePanel extends TriviaMainPanel implements MouseListener,
 			this.qNumberLabel.setText("Q#*");
 		}
 
-		final int queueSize = this.client.getTrivia().getCurrentRound().getAnswerQueueSize();
+		final int queueSize = this.client.getTrivia().getCurrentRound().nAnswers();
 		this.queueSizeLabel.setText(queueSize + "");
 		if (this.gui.getFilterTextPattern().pattern().equals("")) {
 			this.answerLabel.setText("Proposed Answer");
@@ -680,7 +680,11 @@ public class AnswerQueuePanel extends TriviaMainPanel implements MouseListener,
 			switch (command) {
 				case "View":
 					queueIndex = Integer.parseInt(this.contextMenu.getName());
-					final Answer answer = round.getAnswerQueue()[queueIndex];
+					final Answer answer = round.getAnswer(queueIndex);
+					if (answer == null) {
+						// Removed since the menu was opened
+						break;
+					}
 					final int qNumber = answer.getQNumber();
 					final Question question = round.getQuestion(qNumber);
 					final int qValue = question.getQuestionValue();
@@ -0,0 +1,55 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+
+public class AgreementDeltaMessage extends RoundDeltaMessage {
+
+	@JsonProperty("queueIndex")
+	final int		queueIndex;
+	@JsonProperty("userName")
+	final String	userName;
+	@JsonProperty("agreement")
+	final Agreement	agreement;
+
+	/**
+	 * @return the queueIndex
+	 */
+	public int getQueueIndex() {
+		return this.queueIndex;
+	}
+
+	/**
+	 * @return the userName
+	 */
+	public String getUserName() {
+		return this.userName;
+	}
+
+	/**
+	 * @return the agreement
+	 */
+	public Agreement getAgreement() {
+		return this.agreement;
+	}
+
+	@JsonCreator
+	public AgreementDeltaMessage(@JsonProperty("roundNumber") int roundNumber,
+			@JsonProperty("baseVersion") int baseVersion, @JsonProperty("version") int version,
+			@JsonProperty("queueIndex") int queueIndex, @JsonProperty("userName") String userName,
+			@JsonProperty("agreement") Agreement agreement) {
+		super(roundNumber, baseVersion, version);
+		this.queueIndex = queueIndex;
+		this.userName = userName;
+		this.agreement = agreement;
+	}
+
+	@Override
+	public void apply(Round round) {
+		round.changeAgreement(this.userName, this.queueIndex, this.agreement);
+	}
+
+}
@@ -0,0 +1,34 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Round;
+
+public class AnswerAddedDeltaMessage extends RoundDeltaMessage {
+
+	@JsonProperty("answer")
+	final Answer answer;
+
+	/**
+	 * @return the answer
+	 */
+	public Answer getAnswer() {
+		return this.answer;
+	}
+
+	@JsonCreator
+	public AnswerAddedDeltaMessage(@JsonProperty("roundNumber") int roundNumber,
+			@JsonProperty("baseVersion") int baseVersion, @JsonProperty("version") int version,
+			@JsonProperty("answer") Answer answer) {
+		super(roundNumber, baseVersion, version);
+		this.answer = answer;
+	}
+
+	@Override
+	public void apply(Round round) {
+		round.addAnswer(this.answer);
+	}
+
+}
@@ -0,0 +1,75 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.Answer.Status;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.User;
+
+public class AnswerStatusDeltaMessage extends RoundDeltaMessage {
+
+	@JsonProperty("queueIndex")
+	final int		queueIndex;
+	@JsonProperty("status")
+	final Status	status;
+	@JsonProperty("caller")
+	final String	caller;
+
+	/**
+	 * @return the queueIndex
+	 */
+	public int getQueueIndex() {
+		return this.queueIndex;
+	}
+
+	/**
+	 * @return the status
+	 */
+	public Status getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * @return the caller
+	 */
+	public String getCaller() {
+		return this.caller;
+	}
+
+	@JsonCreator
+	public AnswerStatusDeltaMessage(@JsonProperty("roundNumber") int roundNumber,
+			@JsonProperty("baseVersion") int baseVersion, @JsonProperty("version") int version,
+			@JsonProperty("queueIndex") int queueIndex, @JsonProperty("status") Status status,
+			@JsonProperty("caller") String caller) {
+		super(roundNumber, baseVersion, version);
+		this.queueIndex = queueIndex;
+		this.status = status;
+		this.caller = caller;
+	}
+
+	@Override
+	public void apply(Round round) {
+		switch (this.status) {
+			case CALLING:
+				round.callIn(this.queueIndex, this.caller);
+				break;
+			case CORRECT:
+				round.markCorrect(this.queueIndex, this.caller, (User[]) null);
+				break;
+			case INCORRECT:
+				round.markAnswerIncorrect(this.queueIndex, this.caller);
+				break;
+			case PARTIAL:
+				round.markPartial(this.queueIndex, this.caller);
+				break;
+			case NOT_CALLED_IN:
+				round.markUncalled(this.queueIndex);
+				break;
+			case DUPLICATE:
+				round.markDuplicate(this.queueIndex);
+				break;
+		}
+	}
+
+}
@@ -0,0 +1,13 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class FetchRoundMessage extends RoundMessage {
+
+	@JsonCreator
+	public FetchRoundMessage(@JsonProperty("roundNumber") int roundNumber) {
+		super(roundNumber);
+	}
+
+}
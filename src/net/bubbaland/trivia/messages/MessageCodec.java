@@ -0,0 +1,332 @@
+package net.bubbaland.trivia.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Question;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.ScoreEntry;
+import net.bubbaland.trivia.Trivia;
+
+/**
+ * Shared JSON codec for the wire protocol.
+ *
+ * The <code>MessageCodec</code> holds a single, fully configured <code>ObjectMapper</code> along with a cached
+ * <code>ObjectReader</code> for <code>Message</code> and a cached <code>ObjectWriter</code> for each concrete message
+ * type. Readers and writers are immutable and thread-safe, so the serializer caches stay warm across every session and
+ * every call. All encoding and decoding of messages should go through this class.
+ *
+ * A second mapper produces the compact format. It identifies messages by short registered names instead of class names,
+ * and writes the contest data with the hand-written streaming serializers in the model classes, which emit each object
+ * as an array of values without field names. Either format can be decoded without knowing which one was negotiated,
+ * since the type property comes first and has a different name in each.
+ *
+ * A third mapper writes the compact format in Smile, a binary encoding of JSON, for connections that negotiated binary
+ * frames. Repeated strings such as user names are written once per message and referred to afterwards.
+ *
+ * @author Walter Kolczynski
+ */
+public class MessageCodec {
+
+	// The single configured mapper shared by all readers and writers
+	private static final ObjectMapper										MAPPER;
+
+	// Reader for any message (the concrete type is resolved from the type property)
+	private static final ObjectReader										READER;
+
+	// Writers for each concrete message type, created on first use
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter>	WRITERS	=
+			new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+	// Mapper, reader and writers for the compact format
+	private static final ObjectMapper										COMPACT_MAPPER;
+	private static final ObjectReader										COMPACT_READER;
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter>	COMPACT_WRITERS	=
+			new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+	// Mapper, reader and writers for the compact format in Smile
+	private static final ObjectMapper										SMILE_MAPPER;
+	private static final ObjectReader										SMILE_READER;
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter>	SMILE_WRITERS	=
+			new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+	// Start of every compact message
+	private static final String											COMPACT_PREFIX	= "{\"t\":";
+
+	// Messages that can be sent in the compact format; each is identified by its name without the Message suffix
+	private static final Class<?>[]										COMPACT_TYPES	= { AgreementDeltaMessage.class,
+			AgreementMessage.class, AnswerAddedDeltaMessage.class, AnswerMessage.class, AnswerStatusDeltaMessage.class,
+			CallInAnswerMessage.class, ChangeUserMessage.class, CloseQuestionMessage.class, EditQuestionMessage.class,
+			FetchRoundMessage.class, FetchTriviaMessage.class, GetSaveListMessage.class, LoadSaveMessage.class,
+			MarkAnswerCorrectMessage.class, MarkAnswerDuplicateMessage.class, MarkAnswerIncorrectMessage.class,
+			MarkAnswerPartialMessage.class, MarkAnswerUncalledMessage.class, OpenQuestionMessage.class,
+			ProposeAnswerMessage.class, QuestionDeltaMessage.class, QuestionMessage.class, RemapQuestionMessage.class,
+			ReopenQuestionMessage.class, ResetQuestionMessage.class, RestartTimerMessage.class,
+			ResumeSessionMessage.class, RoundMessage.class, SaveListMessage.class, SetDiscrepencyTextMessage.class,
+			SetEffortMessage.class, SetNQuestionsMessage.class, SetNVisualMessage.class, SetOperatorMessage.class,
+			SetQuestionAnswerMessage.class, SetQuestionMessage.class, SetRoleMessage.class, SetRoundMessage.class,
+			SetShowHostMessage.class, SetShowNameMessage.class, SetSpeedRoundMessage.class,
+			SetTeamNumberMessage.class, TriviaDataMessage.class, UpdateRoundsMessage.class, UserListMessage.class };
+
+	static {
+		MAPPER = configure(new ObjectMapper());
+		READER = MAPPER.readerFor(Message.class);
+
+		COMPACT_MAPPER = configureCompact(configure(new ObjectMapper()));
+		COMPACT_READER = COMPACT_MAPPER.readerFor(Message.class);
+
+		final SmileFactory smileFactory = new SmileFactory();
+		smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		SMILE_MAPPER = configureCompact(configure(new ObjectMapper(smileFactory)));
+		SMILE_READER = SMILE_MAPPER.readerFor(Message.class);
+	}
+
+	/**
+	 * Apply the settings shared by every format to a mapper.
+	 *
+	 * @param mapper
+	 *            The mapper
+	 * @return The mapper
+	 */
+	private static ObjectMapper configure(ObjectMapper mapper) {
+		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		mapper.setVisibility(mapper.getVisibilityChecker().with(JsonAutoDetect.Visibility.NONE));
+		mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+		return mapper;
+	}
+
+	/**
+	 * Register the short type names and streaming serializers of the compact format with a mapper.
+	 *
+	 * @param mapper
+	 *            The mapper
+	 * @return The mapper
+	 */
+	private static ObjectMapper configureCompact(ObjectMapper mapper) {
+		mapper.addMixIn(Message.class, CompactTypeInfo.class);
+		for (final Class<?> type : COMPACT_TYPES) {
+			mapper.registerSubtypes(new NamedType(type, type.getSimpleName().replaceFirst("Message$", "")));
+		}
+		final SimpleModule module = new SimpleModule("CompactContestData");
+		addCompact(module, Trivia.class, Trivia::writeCompact, Trivia::readCompact);
+		addCompact(module, Round.class, Round::writeCompact, Round::readCompact);
+		addCompact(module, Question.class, Question::writeCompact, Question::readCompact);
+		addCompact(module, Answer.class, Answer::writeCompact, Answer::readCompact);
+		addCompact(module, ScoreEntry.class, ScoreEntry::writeCompact, ScoreEntry::readCompact);
+		mapper.registerModule(module);
+		return mapper;
+	}
+
+	private MessageCodec() {}
+
+	/**
+	 * Get the shared mapper. The mapper must not be reconfigured after startup.
+	 *
+	 * @return The shared object mapper
+	 */
+	public static ObjectMapper getMapper() {
+		return MAPPER;
+	}
+
+	/**
+	 * Get the cached writer for a message type.
+	 *
+	 * @param messageClass
+	 *            The concrete message class
+	 * @return The writer for the class
+	 */
+	public static ObjectWriter writerFor(Class<? extends Message> messageClass) {
+		return writerFor(messageClass, WireFormat.JSON);
+	}
+
+	/**
+	 * Get the cached writer for a message type in a wire format.
+	 *
+	 * @param messageClass
+	 *            The concrete message class
+	 * @param format
+	 *            The wire format
+	 * @return The writer for the class
+	 */
+	public static ObjectWriter writerFor(Class<? extends Message> messageClass, WireFormat format) {
+		final ConcurrentHashMap<Class<?>, ObjectWriter> writers;
+		final ObjectMapper mapper;
+		switch (format) {
+			case COMPACT:
+				writers = COMPACT_WRITERS;
+				mapper = COMPACT_MAPPER;
+				break;
+			case SMILE:
+				writers = SMILE_WRITERS;
+				mapper = SMILE_MAPPER;
+				break;
+			default:
+				writers = WRITERS;
+				mapper = MAPPER;
+				break;
+		}
+		ObjectWriter writer = writers.get(messageClass);
+		if (writer == null) {
+			writer = mapper.writerFor(messageClass);
+			final ObjectWriter existing = writers.putIfAbsent(messageClass, writer);
+			if (existing != null) {
+				writer = existing;
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * Encode a message as JSON text.
+	 *
+	 * @param message
+	 *            The message to encode
+	 * @return The JSON representation of the message
+	 * @throws IOException
+	 *             If the message cannot be serialized
+	 */
+	public static String encode(Message message) throws IOException {
+		return writerFor(message.getClass()).writeValueAsString(message);
+	}
+
+	/**
+	 * Encode a message as text in a wire format.
+	 *
+	 * @param message
+	 *            The message to encode
+	 * @param format
+	 *            The wire format, which must not be binary
+	 * @return The encoded message
+	 * @throws IOException
+	 *             If the message cannot be serialized
+	 */
+	public static String encode(Message message, WireFormat format) throws IOException {
+		if (format.isBinary()) {
+			throw new IllegalArgumentException(format + " is a binary format");
+		}
+		return writerFor(message.getClass(), format).writeValueAsString(message);
+	}
+
+	/**
+	 * Encode a message in the binary wire format.
+	 *
+	 * @param message
+	 *            The message to encode
+	 * @return The Smile representation of the message
+	 * @throws IOException
+	 *             If the message cannot be serialized
+	 */
+	public static byte[] encodeBinary(Message message) throws IOException {
+		return writerFor(message.getClass(), WireFormat.SMILE).writeValueAsBytes(message);
+	}
+
+	/**
+	 * Decode a message from text in either wire format.
+	 *
+	 * @param text
+	 *            The encoded message
+	 * @return The decoded message
+	 * @throws IOException
+	 *             If the text cannot be parsed
+	 */
+	public static Message decode(String text) throws IOException {
+		return textFormat(text) == WireFormat.COMPACT ? COMPACT_READER.readValue(text) : READER.readValue(text);
+	}
+
+	/**
+	 * Get the wire format a text message was encoded in.
+	 *
+	 * @param text
+	 *            The encoded message
+	 * @return The format, COMPACT or JSON
+	 */
+	public static WireFormat textFormat(String text) {
+		return text.startsWith(COMPACT_PREFIX) ? WireFormat.COMPACT : WireFormat.JSON;
+	}
+
+	/**
+	 * Decode a message from the binary wire format.
+	 *
+	 * @param bytes
+	 *            The encoded message
+	 * @return The decoded message
+	 * @throws IOException
+	 *             If the bytes cannot be parsed
+	 */
+	public static Message decode(ByteBuffer bytes) throws IOException {
+		if (bytes.hasArray()) {
+			return SMILE_READER.readValue(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		}
+		final byte[] copy = new byte[bytes.remaining()];
+		bytes.duplicate().get(copy);
+		return SMILE_READER.readValue(copy);
+	}
+
+	/**
+	 * Register the streaming serializer and deserializer for a contest data class.
+	 *
+	 * @param module
+	 *            The module to add them to
+	 * @param type
+	 *            The class
+	 * @param writer
+	 *            Writes an object in the compact format
+	 * @param reader
+	 *            Reads an object in the compact format
+	 */
+	private static <T> void addCompact(SimpleModule module, Class<T> type, final CompactWriter<T> writer,
+			final CompactReader<T> reader) {
+		module.addSerializer(type, new StdSerializer<T>(type) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void serialize(T value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+				writer.write(value, generator);
+			}
+		});
+		module.addDeserializer(type, new StdDeserializer<T>(type) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+				return reader.read(parser);
+			}
+		});
+	}
+
+	private interface CompactWriter<T> {
+		void write(T value, JsonGenerator generator) throws IOException;
+	}
+
+	private interface CompactReader<T> {
+		T read(JsonParser parser) throws IOException;
+	}
+
+	/**
+	 * Type information used in place of class names in the compact format.
+	 */
+	@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "t")
+	private static abstract class CompactTypeInfo {}
+
+}
@@ -0,0 +1,455 @@
+package net.bubbaland.trivia.messages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.websocket.Extension;
+
+import org.glassfish.tyrus.core.ProtocolException;
+import org.glassfish.tyrus.core.extension.ExtendedExtension;
+import org.glassfish.tyrus.core.frame.Frame;
+
+/**
+ * The permessage-deflate WebSocket extension (RFC 7692).
+ *
+ * Question text and answer queues are repetitive English, so most messages shrink several times over when deflated. A
+ * message smaller than the threshold is sent uncompressed, which the extension allows per message. Unless context
+ * takeover is disabled, each side keeps its compression window between messages, so text repeated from earlier
+ * messages costs almost nothing.
+ *
+ * One instance is shared by every connection on a side; the per-connection compressor state is kept in the extension
+ * context. Window sizes other than the default 15 bits aren't supported, since the JDK compressor can't limit them.
+ *
+ * @author Walter Kolczynski
+ */
+public class PerMessageDeflate implements ExtendedExtension {
+
+	public static final String		NAME						= "permessage-deflate";
+
+	private static final String	SERVER_NO_CONTEXT_TAKEOVER	= "server_no_context_takeover";
+	private static final String	CLIENT_NO_CONTEXT_TAKEOVER	= "client_no_context_takeover";
+	private static final String	SERVER_MAX_WINDOW_BITS		= "server_max_window_bits";
+
+	// Empty block that ends every compressed message, which is left off on the wire
+	private static final byte[]	TAIL						= { 0, 0, (byte) 0xff, (byte) 0xff };
+
+	// Which side of the connection this instance is on
+	final private boolean			server;
+	// Compression level (0-9)
+	final private int				level;
+	// Whether this side resets its compressor after each message
+	final private boolean			noContextTakeover;
+	// Whether to ask the other side to reset its compressor after each message
+	final private boolean			peerNoContextTakeover;
+	// Smallest message worth compressing (bytes)
+	final private int				threshold;
+
+	// Statistics for messages sent
+	final private LongAdder		deflatedCount;
+	final private LongAdder		skippedCount;
+	final private LongAdder		deflateInBytes;
+	final private LongAdder		deflateOutBytes;
+	final private LongAdder		deflateNanos;
+	// Statistics for messages received
+	final private LongAdder		inflatedCount;
+	final private LongAdder		inflateInBytes;
+	final private LongAdder		inflateOutBytes;
+	final private LongAdder		inflateNanos;
+
+	/**
+	 * Create a new extension.
+	 *
+	 * @param server
+	 *            Whether this is the server side
+	 * @param level
+	 *            The compression level (0-9)
+	 * @param noContextTakeover
+	 *            Whether this side resets its compressor after each message
+	 * @param peerNoContextTakeover
+	 *            Whether to ask the other side to reset its compressor after each message
+	 * @param threshold
+	 *            The smallest message to compress (bytes)
+	 */
+	public PerMessageDeflate(boolean server, int level, boolean noContextTakeover, boolean peerNoContextTakeover,
+			int threshold) {
+		this.server = server;
+		this.level = level;
+		this.noContextTakeover = noContextTakeover;
+		this.peerNoContextTakeover = peerNoContextTakeover;
+		this.threshold = threshold;
+		this.deflatedCount = new LongAdder();
+		this.skippedCount = new LongAdder();
+		this.deflateInBytes = new LongAdder();
+		this.deflateOutBytes = new LongAdder();
+		this.deflateNanos = new LongAdder();
+		this.inflatedCount = new LongAdder();
+		this.inflateInBytes = new LongAdder();
+		this.inflateOutBytes = new LongAdder();
+		this.inflateNanos = new LongAdder();
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * The parameters offered by a client. A server answers through {@link #onExtensionNegotiation}.
+	 */
+	@Override
+	public List<Extension.Parameter> getParameters() {
+		final ArrayList<Extension.Parameter> parameters = new ArrayList<Extension.Parameter>();
+		if (!this.server) {
+			if (this.noContextTakeover) {
+				parameters.add(new FlagParameter(CLIENT_NO_CONTEXT_TAKEOVER));
+			}
+			if (this.peerNoContextTakeover) {
+				parameters.add(new FlagParameter(SERVER_NO_CONTEXT_TAKEOVER));
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Whether a client's offer can be accepted. Offers that limit the server's window can't be honored.
+	 *
+	 * @param offer
+	 *            The extension as requested by the client
+	 * @return true if the offer can be accepted
+	 */
+	public boolean accepts(Extension offer) {
+		if (!NAME.equals(offer.getName())) {
+			return false;
+		}
+		for (final Extension.Parameter parameter : offer.getParameters()) {
+			if (SERVER_MAX_WINDOW_BITS.equals(parameter.getName()) && !"15".equals(parameter.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Accept a client's offer (server side).
+	 */
+	@Override
+	public List<Extension.Parameter> onExtensionNegotiation(ExtensionContext context,
+			List<Extension.Parameter> requestedParameters) {
+		final boolean ownReset =
+				this.noContextTakeover || hasParameter(requestedParameters, SERVER_NO_CONTEXT_TAKEOVER);
+		final boolean peerReset =
+				this.peerNoContextTakeover || hasParameter(requestedParameters, CLIENT_NO_CONTEXT_TAKEOVER);
+		context.getProperties().put(NAME, new State(this.level, ownReset, peerReset));
+
+		final ArrayList<Extension.Parameter> parameters = new ArrayList<Extension.Parameter>();
+		if (ownReset) {
+			parameters.add(new FlagParameter(SERVER_NO_CONTEXT_TAKEOVER));
+		}
+		if (peerReset) {
+			parameters.add(new FlagParameter(CLIENT_NO_CONTEXT_TAKEOVER));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Apply the server's answer to our offer (client side).
+	 */
+	@Override
+	public void onHandshakeResponse(ExtensionContext context, List<Extension.Parameter> responseParameters) {
+		final boolean ownReset =
+				this.noContextTakeover || hasParameter(responseParameters, CLIENT_NO_CONTEXT_TAKEOVER);
+		final boolean peerReset = hasParameter(responseParameters, SERVER_NO_CONTEXT_TAKEOVER);
+		context.getProperties().put(NAME, new State(this.level, ownReset, peerReset));
+	}
+
+	@Override
+	public Frame processOutgoing(ExtensionContext context, Frame frame) {
+		final State state = (State) context.getProperties().get(NAME);
+		if (state == null || frame.isControlFrame()) {
+			return frame;
+		}
+		synchronized (state.deflater) {
+			final boolean first = frame.getOpcode() != 0;
+			if (first) {
+				// A fragmented message is large by definition
+				state.deflating = !frame.isFin() || frame.getPayloadLength() >= this.threshold;
+				if (!state.deflating) {
+					this.skippedCount.increment();
+				}
+			}
+			if (!state.deflating) {
+				return frame;
+			}
+
+			final long start = System.nanoTime();
+			final byte[] payload = frame.getPayloadData();
+			final byte[] compressed = deflate(state.deflater, payload, frame.isFin());
+			if (frame.isFin() && state.ownReset) {
+				state.deflater.reset();
+			}
+			this.deflateNanos.add(System.nanoTime() - start);
+			this.deflateInBytes.add(payload.length);
+			this.deflateOutBytes.add(compressed.length);
+			if (frame.isFin()) {
+				this.deflatedCount.increment();
+			}
+			return Frame.builder(frame).rsv1(first).payloadData(compressed).payloadLength(compressed.length).build();
+		}
+	}
+
+	@Override
+	public Frame processIncoming(ExtensionContext context, Frame frame) {
+		final State state = (State) context.getProperties().get(NAME);
+		if (state == null || frame.isControlFrame()) {
+			return frame;
+		}
+		synchronized (state.inflater) {
+			if (frame.getOpcode() != 0) {
+				state.inflating = frame.isRsv1();
+			}
+			if (!state.inflating) {
+				return frame;
+			}
+
+			final long start = System.nanoTime();
+			final byte[] payload = frame.getPayloadData();
+			final byte[] inflated;
+			try {
+				inflated = inflate(state.inflater, payload, frame.isFin());
+			} catch (final DataFormatException exception) {
+				throw new ProtocolException("Invalid compressed message: " + exception.getMessage());
+			}
+			if (frame.isFin() && state.peerReset) {
+				state.inflater.reset();
+			}
+			this.inflateNanos.add(System.nanoTime() - start);
+			this.inflateInBytes.add(payload.length);
+			this.inflateOutBytes.add(inflated.length);
+			if (frame.isFin()) {
+				this.inflatedCount.increment();
+			}
+			return Frame.builder(frame).rsv1(false).payloadData(inflated).payloadLength(inflated.length).build();
+		}
+	}
+
+	@Override
+	public void destroy(ExtensionContext context) {
+		final State state = (State) context.getProperties().remove(NAME);
+		if (state != null) {
+			synchronized (state.deflater) {
+				state.deflater.end();
+			}
+			synchronized (state.inflater) {
+				state.inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Compress one frame of a message.
+	 *
+	 * @param deflater
+	 *            The connection's compressor
+	 * @param payload
+	 *            The frame payload
+	 * @param last
+	 *            Whether this is the last frame of the message
+	 * @return The compressed payload
+	 */
+	private static byte[] deflate(Deflater deflater, byte[] payload, boolean last) {
+		deflater.setInput(payload);
+		byte[] buffer = new byte[payload.length / 2 + 64];
+		int length = 0;
+		while (true) {
+			length += deflater.deflate(buffer, length, buffer.length - length, Deflater.SYNC_FLUSH);
+			if (length < buffer.length) {
+				break;
+			}
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		if (last) {
+			// Every flush ends with the empty block, which the receiver puts back
+			length -= TAIL.length;
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Decompress one frame of a message.
+	 *
+	 * @param inflater
+	 *            The connection's decompressor
+	 * @param payload
+	 *            The frame payload
+	 * @param last
+	 *            Whether this is the last frame of the message
+	 * @return The decompressed payload
+	 * @throws DataFormatException
+	 *             If the payload isn't valid compressed data
+	 */
+	private static byte[] inflate(Inflater inflater, byte[] payload, boolean last) throws DataFormatException {
+		byte[] input = payload;
+		if (last) {
+			input = Arrays.copyOf(payload, payload.length + TAIL.length);
+			System.arraycopy(TAIL, 0, input, payload.length, TAIL.length);
+		}
+		inflater.setInput(input);
+		byte[] buffer = new byte[input.length * 4 + 64];
+		int length = 0;
+		while (true) {
+			length += inflater.inflate(buffer, length, buffer.length - length);
+			if (length < buffer.length) {
+				break;
+			}
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Whether a parameter list includes a parameter.
+	 *
+	 * @param parameters
+	 *            The parameters
+	 * @param name
+	 *            The parameter name
+	 * @return true if the parameter is present
+	 */
+	private static boolean hasParameter(List<Extension.Parameter> parameters, String name) {
+		if (parameters == null) {
+			return false;
+		}
+		for (final Extension.Parameter parameter : parameters) {
+			if (name.equals(parameter.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of messages sent compressed
+	 */
+	public long getDeflatedCount() {
+		return this.deflatedCount.sum();
+	}
+
+	/**
+	 * @return the number of messages sent uncompressed because they were below the threshold
+	 */
+	public long getSkippedCount() {
+		return this.skippedCount.sum();
+	}
+
+	/**
+	 * @return the number of bytes compressed
+	 */
+	public long getDeflateInBytes() {
+		return this.deflateInBytes.sum();
+	}
+
+	/**
+	 * @return the number of compressed bytes sent
+	 */
+	public long getDeflateOutBytes() {
+		return this.deflateOutBytes.sum();
+	}
+
+	/**
+	 * @return the time spent compressing (nanoseconds)
+	 */
+	public long getDeflateNanos() {
+		return this.deflateNanos.sum();
+	}
+
+	/**
+	 * @return the number of compressed messages received
+	 */
+	public long getInflatedCount() {
+		return this.inflatedCount.sum();
+	}
+
+	/**
+	 * @return the number of compressed bytes received
+	 */
+	public long getInflateInBytes() {
+		return this.inflateInBytes.sum();
+	}
+
+	/**
+	 * @return the number of bytes after decompression
+	 */
+	public long getInflateOutBytes() {
+		return this.inflateOutBytes.sum();
+	}
+
+	/**
+	 * @return the time spent decompressing (nanoseconds)
+	 */
+	public long getInflateNanos() {
+		return this.inflateNanos.sum();
+	}
+
+	/**
+	 * Summarize the statistics for logging.
+	 *
+	 * @return The summary
+	 */
+	public String getStatistics() {
+		final long inBytes = this.getDeflateInBytes();
+		final long outBytes = this.getDeflateOutBytes();
+		return String.format("sent %d compressed (%d skipped), %d -> %d bytes (%.1f%%) in %d ms; "
+				+ "received %d compressed, %d -> %d bytes in %d ms", this.getDeflatedCount(), this.getSkippedCount(), inBytes, outBytes,
+				inBytes == 0 ? 0.0 : 100.0 * outBytes / inBytes, this.getDeflateNanos() / 1000000,
+				this.getInflatedCount(), this.getInflateInBytes(), this.getInflateOutBytes(),
+				this.getInflateNanos() / 1000000);
+	}
+
+	/**
+	 * The compressor state for one connection.
+	 */
+	private static class State {
+		final private Deflater	deflater;
+		final private Inflater	inflater;
+		// Whether to reset after each message sent and received
+		final private boolean	ownReset;
+		final private boolean	peerReset;
+		// Whether the message currently being sent or received is compressed
+		private boolean			deflating;
+		private boolean			inflating;
+
+		private State(int level, boolean ownReset, boolean peerReset) {
+			this.deflater = new Deflater(level, true);
+			this.inflater = new Inflater(true);
+			this.ownReset = ownReset;
+			this.peerReset = peerReset;
+		}
+	}
+
+	/**
+	 * A parameter without a value.
+	 */
+	private static class FlagParameter implements Extension.Parameter {
+		final private String name;
+
+		private FlagParameter(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return this.name;
+		}
+
+		@Override
+		public String getValue() {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.Round;
+
+public class QuestionDeltaMessage extends RoundDeltaMessage {
+
+	@JsonProperty("questionNumber")
+	final int		questionNumber;
+	@JsonProperty("questionText")
+	final String	questionText;
+	@JsonProperty("value")
+	final int		value;
+
+	/**
+	 * @return the questionNumber
+	 */
+	public int getQuestionNumber() {
+		return this.questionNumber;
+	}
+
+	/**
+	 * @return the questionText
+	 */
+	public String getQuestionText() {
+		return this.questionText;
+	}
+
+	/**
+	 * @return the value
+	 */
+	public int getValue() {
+		return this.value;
+	}
+
+	@JsonCreator
+	public QuestionDeltaMessage(@JsonProperty("roundNumber") int roundNumber,
+			@JsonProperty("baseVersion") int baseVersion, @JsonProperty("version") int version,
+			@JsonProperty("questionNumber") int questionNumber, @JsonProperty("questionText") String questionText,
+			@JsonProperty("value") int value) {
+		super(roundNumber, baseVersion, version);
+		this.questionNumber = questionNumber;
+		this.questionText = questionText;
+		this.value = value;
+	}
+
+	@Override
+	public void apply(Round round) {
+		round.editQuestion(this.questionNumber, this.value, this.questionText);
+	}
+
+}
@@ -0,0 +1,63 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.User;
+
+/**
+ * Sent by a reconnecting client in place of <code>FetchTriviaMessage</code>. The server restores the user's name and
+ * role and only sends the rounds that changed since the versions the client already holds.
+ */
+public class ResumeSessionMessage extends Message {
+
+	@JsonProperty("userName")
+	final String	userName;
+
+	@JsonProperty("role")
+	final User.Role	role;
+
+	@JsonProperty("epoch")
+	final long		epoch;
+
+	@JsonProperty("versions")
+	final int[]		versions;
+
+	/**
+	 * @return the userName
+	 */
+	public String getUserName() {
+		return this.userName;
+	}
+
+	/**
+	 * @return the role
+	 */
+	public User.Role getRole() {
+		return this.role;
+	}
+
+	/**
+	 * @return the epoch of the trivia data the client holds
+	 */
+	public long getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * @return the round versions the client holds
+	 */
+	public int[] getVersions() {
+		return this.versions;
+	}
+
+	@JsonCreator
+	public ResumeSessionMessage(@JsonProperty("userName") String userName, @JsonProperty("role") User.Role role,
+			@JsonProperty("epoch") long epoch, @JsonProperty("versions") int[] versions) {
+		this.userName = userName;
+		this.role = role;
+		this.epoch = epoch;
+		this.versions = versions;
+	}
+
+}
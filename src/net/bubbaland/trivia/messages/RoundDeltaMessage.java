@@ -0,0 +1,55 @@
+package net.bubbaland.trivia.messages;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.bubbaland.trivia.Round;
+
+/**
+ * Base class for messages carrying a single change to a round.
+ *
+ * A delta can only be applied to a round at exactly <code>baseVersion</code>, and applying it must leave the round at
+ * <code>version</code>. If either check fails, the receiver has missed an update and should fetch the full round.
+ *
+ * A delta holds the change as it was made, never a live part of the round, since it may be sent after later changes
+ * that have their own deltas.
+ *
+ * @author Walter Kolczynski
+ */
+public abstract class RoundDeltaMessage extends RoundMessage {
+
+	@JsonProperty("baseVersion")
+	final int	baseVersion;
+
+	@JsonProperty("version")
+	final int	version;
+
+	/**
+	 * @return the version of the round the delta applies to
+	 */
+	public int getBaseVersion() {
+		return this.baseVersion;
+	}
+
+	/**
+	 * @return the version of the round after the delta is applied
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	public RoundDeltaMessage(@JsonProperty("roundNumber") int roundNumber,
+			@JsonProperty("baseVersion") int baseVersion, @JsonProperty("version") int version) {
+		super(roundNumber);
+		this.baseVersion = baseVersion;
+		this.version = version;
+	}
+
+	/**
+	 * Apply this change to a round.
+	 *
+	 * @param round
+	 *            The round, which must be at the base version
+	 */
+	public abstract void apply(Round round);
+
+}
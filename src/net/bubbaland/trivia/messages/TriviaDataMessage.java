@@ -8,7 +8,11 @@ import net.bubbaland.trivia.Trivia;
 public class TriviaDataMessage extends Message {
 
 	@JsonProperty("trivia")
-	final Trivia trivia;
+	final Trivia	trivia;
+
+	// Identifies this line of round versions; changes when the server starts or a save is loaded
+	@JsonProperty("epoch")
+	final long		epoch;
 
 	/**
 	 * @return the trivia
@@ -17,9 +21,17 @@ public class TriviaDataMessage extends Message {
 		return this.trivia;
 	}
 
+	/**
+	 * @return the epoch
+	 */
+	public long getEpoch() {
+		return this.epoch;
+	}
+
 	@JsonCreator
-	public TriviaDataMessage(@JsonProperty("trivia") Trivia trivia) {
+	public TriviaDataMessage(@JsonProperty("trivia") Trivia trivia, @JsonProperty("epoch") long epoch) {
 		this.trivia = trivia;
+		this.epoch = epoch;
 	}
 
 }
@@ -0,0 +1,84 @@
+package net.bubbaland.trivia.messages;
+
+/**
+ * The encodings a connection can use for messages, each negotiated as a WebSocket subprotocol.
+ *
+ * Each format has two names. Every client names answers by their queue index (the answer's queue location less one),
+ * but only clients that ask for the current name keep the gaps left by removed answers in their own queue, so only
+ * they can apply deltas that name answers by queue index. Clients that ask for the legacy name (or for no subprotocol
+ * at all) are sent whole rounds instead.
+ *
+ * @author Walter Kolczynski
+ */
+public enum WireFormat {
+	// Self-describing JSON with full class names, used by clients that don't ask for anything else
+	JSON("trivia-json-2", "trivia-json", false),
+	// JSON with short type ids, and contest data written as positional arrays
+	COMPACT("trivia-compact-2", "trivia-compact", false),
+	// The compact format in Smile, a binary encoding of JSON, sent as binary frames
+	SMILE("trivia-smile-2", "trivia-smile", true);
+
+	private final String	subprotocol;
+	private final String	legacySubprotocol;
+	private final boolean	binary;
+
+	private WireFormat(String subprotocol, String legacySubprotocol, boolean binary) {
+		this.subprotocol = subprotocol;
+		this.legacySubprotocol = legacySubprotocol;
+		this.binary = binary;
+	}
+
+	/**
+	 * @return the subprotocol name
+	 */
+	public String getSubprotocol() {
+		return this.subprotocol;
+	}
+
+	/**
+	 * @return the subprotocol name used by clients from before the answer queue kept removed answers' places
+	 */
+	public String getLegacySubprotocol() {
+		return this.legacySubprotocol;
+	}
+
+	/**
+	 * @return whether messages in this format are sent as binary frames
+	 */
+	public boolean isBinary() {
+		return this.binary;
+	}
+
+	/**
+	 * Get the format for a negotiated subprotocol.
+	 *
+	 * @param subprotocol
+	 *            The subprotocol, or null or empty if none was negotiated
+	 * @return The matching format, or JSON if there is none
+	 */
+	public static WireFormat forSubprotocol(String subprotocol) {
+		for (final WireFormat format : WireFormat.values()) {
+			if (format.subprotocol.equals(subprotocol) || format.legacySubprotocol.equals(subprotocol)) {
+				return format;
+			}
+		}
+		return JSON;
+	}
+
+	/**
+	 * Get whether a negotiated subprotocol is a legacy name, whose clients can't apply deltas to the answer queue.
+	 *
+	 * @param subprotocol
+	 *            The subprotocol, or null or empty if none was negotiated
+	 * @return Whether the subprotocol is not one of the current names
+	 */
+	public static boolean isLegacy(String subprotocol) {
+		for (final WireFormat format : WireFormat.values()) {
+			if (format.subprotocol.equals(subprotocol)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,139 @@
+package net.bubbaland.trivia.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
+
+/**
+ * Merges round broadcasts that happen close together.
+ *
+ * The first change after a quiet period starts a window. Every change made during the window only marks the rounds
+ * dirty and records its delta, and when the window closes a single broadcast sends everything that changed. During a
+ * speed round this turns a burst of proposals and agreements into one update per client instead of one per click.
+ *
+ * All requests and flushes happen on the writer thread; the timer only queues the flush to the pipeline.
+ *
+ * @author Walter Kolczynski
+ */
+class BroadcastCoalescer {
+
+	final private MutationPipeline						pipeline;
+	// Sends the changed rounds, given the deltas recorded since the last broadcast
+	final private Consumer<List<RoundDeltaMessage>>	broadcaster;
+	// Length of the window (milliseconds), or 0 to broadcast every change immediately
+	final private long									window;
+	final private ScheduledExecutorService				timer;
+
+	// Deltas recorded during the current window, in order
+	private ArrayList<RoundDeltaMessage>				pendingDeltas;
+	// Whether anything changed during the current window
+	private boolean										dirty;
+	// Whether a flush has been scheduled
+	private boolean										scheduled;
+
+	// Statistics
+	final private AtomicLong							requestCount;
+	final private AtomicLong							flushCount;
+
+	/**
+	 * Create a new coalescer.
+	 *
+	 * @param pipeline
+	 *            The pipeline flushes are run on
+	 * @param window
+	 *            The window length (milliseconds)
+	 * @param broadcaster
+	 *            Sends the changed rounds
+	 */
+	BroadcastCoalescer(MutationPipeline pipeline, long window, Consumer<List<RoundDeltaMessage>> broadcaster) {
+		this.pipeline = pipeline;
+		this.window = window;
+		this.broadcaster = broadcaster;
+		this.timer = window > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+		this.pendingDeltas = new ArrayList<RoundDeltaMessage>();
+		this.requestCount = new AtomicLong();
+		this.flushCount = new AtomicLong();
+	}
+
+	/**
+	 * Request a broadcast of the changed rounds.
+	 *
+	 * @param delta
+	 *            The delta describing the change, or null if only the full round describes it
+	 */
+	void request(RoundDeltaMessage delta) {
+		this.requestCount.incrementAndGet();
+		if (delta != null) {
+			this.pendingDeltas.add(delta);
+		}
+		this.dirty = true;
+		if (this.timer == null) {
+			this.flush();
+		} else if (!this.scheduled) {
+			this.scheduled = true;
+			this.timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					BroadcastCoalescer.this.pipeline.submit(new Runnable() {
+						@Override
+						public void run() {
+							BroadcastCoalescer.this.flush();
+						}
+					});
+				}
+			}, this.window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Broadcast everything that changed during the current window.
+	 */
+	void flush() {
+		this.scheduled = false;
+		if (!this.dirty) {
+			return;
+		}
+		final ArrayList<RoundDeltaMessage> deltas = this.pendingDeltas;
+		this.pendingDeltas = new ArrayList<RoundDeltaMessage>();
+		this.dirty = false;
+		this.flushCount.incrementAndGet();
+		this.broadcaster.accept(deltas);
+	}
+
+	/**
+	 * Stop the timer. Anything still pending should be flushed from the writer thread first.
+	 */
+	void stop() {
+		if (this.timer != null) {
+			this.timer.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of broadcasts requested
+	 */
+	long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * @return the number of broadcasts actually sent
+	 */
+	long getFlushCount() {
+		return this.flushCount.get();
+	}
+
+	/**
+	 * @return the number of requested broadcasts that were merged into another
+	 */
+	long getMergedCount() {
+		return this.requestCount.get() - this.flushCount.get();
+	}
+
+}
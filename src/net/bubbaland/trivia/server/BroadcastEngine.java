@@ -0,0 +1,254 @@
+package net.bubbaland.trivia.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.websocket.Session;
+
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.User;
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
+import net.bubbaland.trivia.messages.UpdateRoundsMessage;
+import net.bubbaland.trivia.messages.WireFormat;
+
+/**
+ * Sends changed rounds to connected clients.
+ *
+ * Sessions are grouped by the round versions they currently hold. The changed rounds for each distinct version vector
+ * are found once, and the same frame is queued for every session in the group, so it is serialized at most once per
+ * wire format. Since nearly every client is kept at the same versions, a broadcast usually costs a single encode
+ * regardless of the number of clients.
+ *
+ * When the changes to a round since a session's version are described by a chain of deltas leading to the current
+ * version, the deltas are sent instead of the full round, as long as they add up to no more than a set number of
+ * encoded bytes. Past that, the one full round is cheaper to queue, send and apply than the chain. Sessions that
+ * negotiated a legacy subprotocol (see {@link WireFormat}) are grouped apart and always sent full rounds.
+ *
+ * @author Walter Kolczynski
+ */
+class BroadcastEngine {
+
+	// The most encoded bytes of deltas sent for one round before sending the full round instead
+	private final int	maxChainBytes;
+
+	/**
+	 * Create a broadcast engine.
+	 *
+	 * @param maxChainBytes
+	 *            The most encoded bytes of deltas to send for one round, in the format of the first session in a group,
+	 *            before sending the full round instead
+	 */
+	BroadcastEngine(int maxChainBytes) {
+		this.maxChainBytes = maxChainBytes;
+	}
+
+	/**
+	 * Send the rounds that have changed to each session.
+	 *
+	 * @param trivia
+	 *            The current trivia data
+	 * @param sessions
+	 *            The connected sessions and their endpoints
+	 * @param deltas
+	 *            Deltas describing recent changes, in the order they were made, each holding its change as it was
+	 *            made
+	 */
+	void broadcastChangedRounds(Trivia trivia, Map<Session, TriviaServerEndpoint> sessions,
+			List<RoundDeltaMessage> deltas) {
+		final long start = System.nanoTime();
+		final ServerEvents.Broadcast event = new ServerEvents.Broadcast();
+		event.begin();
+		// Sessions sent at least one frame, and what was queued for them
+		int fanOut = 0;
+		int frameCount = 0;
+		long size = 0;
+
+		// Encoded deltas, shared by every group that can use them
+		final HashMap<RoundDeltaMessage, OutboundQueue.Frame> deltaFrames =
+				new HashMap<RoundDeltaMessage, OutboundQueue.Frame>();
+
+		// Group the sessions by the round versions they hold
+		final LinkedHashMap<VersionKey, ArrayList<Entry<Session, TriviaServerEndpoint>>> groups =
+				new LinkedHashMap<VersionKey, ArrayList<Entry<Session, TriviaServerEndpoint>>>();
+		for (final Entry<Session, TriviaServerEndpoint> entry : sessions.entrySet()) {
+			final int[] versions = entry.getValue().getUser().getRoundVersions();
+			if (versions == null) {
+				continue;
+			}
+			final VersionKey key = new VersionKey(versions, entry.getValue().isFullRoundsOnly());
+			ArrayList<Entry<Session, TriviaServerEndpoint>> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<Entry<Session, TriviaServerEndpoint>>();
+				groups.put(key, group);
+			}
+			group.add(entry);
+		}
+
+		for (final Entry<VersionKey, ArrayList<Entry<Session, TriviaServerEndpoint>>> groupEntry : groups
+				.entrySet()) {
+			final int[] oldVersions = groupEntry.getKey().versions;
+			// Legacy clients apply deltas to their own list of answers, which doesn't keep the gaps of removed ones
+			final boolean useDeltas = !groupEntry.getKey().fullRoundsOnly;
+			// Delta chains are measured in the format of the first session, which nearly always matches the rest
+			final OutboundQueue firstOutbound = groupEntry.getValue().get(0).getValue().getOutboundQueue();
+			final WireFormat format = firstOutbound == null ? WireFormat.JSON : firstOutbound.getFormat();
+			final Round[] changedRounds = trivia.getChangedRounds(oldVersions);
+			if (changedRounds.length == 0) {
+				continue;
+			}
+
+			// Record the versions being sent before encoding, so a concurrent change is resent next time
+			final int[] newVersions = oldVersions.clone();
+			final ArrayList<OutboundQueue.Frame> frames = new ArrayList<OutboundQueue.Frame>();
+			final ArrayList<Round> fullRounds = new ArrayList<Round>();
+			for (final Round round : changedRounds) {
+				final int rNumber = round.getRoundNumber();
+				final int version = round.getVersion();
+				final ArrayList<OutboundQueue.Frame> deltaFrameList = useDeltas
+						? this.chainFrames(findChain(deltas, rNumber, oldVersions[rNumber - 1], version), deltaFrames,
+								format)
+						: null;
+				if (deltaFrameList == null) {
+					fullRounds.add(round);
+				} else {
+					frames.addAll(deltaFrameList);
+				}
+				newVersions[rNumber - 1] = version;
+			}
+			if (!fullRounds.isEmpty()) {
+				frames.add(OutboundQueue.Frame.rounds(new UpdateRoundsMessage(fullRounds.toArray(new Round[0])),
+						fullRounds.stream().mapToInt(round -> round.getRoundNumber()).toArray()));
+			}
+
+			for (final Entry<Session, TriviaServerEndpoint> entry : groupEntry.getValue()) {
+				final Session session = entry.getKey();
+				final User user = entry.getValue().getUser();
+				final OutboundQueue outbound = entry.getValue().getOutboundQueue();
+				if (session == null || !session.isOpen() || outbound == null) {
+					continue;
+				}
+				for (final OutboundQueue.Frame frame : frames) {
+					outbound.add(frame);
+					if (event.isEnabled()) {
+						size += frame.getSize(outbound.getFormat());
+					}
+				}
+				user.setRoundVersions(newVersions.clone());
+				fanOut++;
+				frameCount += frames.size();
+			}
+		}
+
+		TriviaServer.METRICS.histogram(MetricsRegistry.name("broadcast_nanoseconds", "kind", "rounds"))
+				.recordSince(start);
+		TriviaServer.METRICS.histogram(MetricsRegistry.name("broadcast_sessions", "kind", "rounds")).record(fanOut);
+		TriviaServer.METRICS.histogram("broadcast_groups").record(groups.size());
+		event.end();
+		if (event.shouldCommit()) {
+			event.kind = "rounds";
+			event.sessions = fanOut;
+			event.frames = frameCount;
+			event.size = size;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Find the deltas that take a round from one version to another.
+	 *
+	 * @param deltas
+	 *            The available deltas
+	 * @param rNumber
+	 *            The round number
+	 * @param fromVersion
+	 *            The version the session holds
+	 * @param toVersion
+	 *            The current version
+	 * @return The deltas in order, or null if they don't cover every change
+	 */
+	private static ArrayList<RoundDeltaMessage> findChain(List<RoundDeltaMessage> deltas, int rNumber,
+			int fromVersion, int toVersion) {
+		if (deltas == null || deltas.isEmpty()) {
+			return null;
+		}
+		final ArrayList<RoundDeltaMessage> chain = new ArrayList<RoundDeltaMessage>();
+		int version = fromVersion;
+		for (final RoundDeltaMessage delta : deltas) {
+			if (version == toVersion) {
+				break;
+			}
+			if (delta.getRoundNumber() == rNumber && delta.getBaseVersion() == version) {
+				chain.add(delta);
+				version = delta.getVersion();
+			}
+		}
+		return version == toVersion ? chain : null;
+	}
+
+	/**
+	 * Get a frame for each delta in a chain, reusing frames already made for other groups.
+	 *
+	 * @param chain
+	 *            The deltas, or null if there is no usable chain
+	 * @param deltaFrames
+	 *            Frames already made during this broadcast
+	 * @param format
+	 *            The wire format to measure the chain in
+	 * @return The frames, or null if the full round must be sent instead
+	 */
+	private ArrayList<OutboundQueue.Frame> chainFrames(ArrayList<RoundDeltaMessage> chain,
+			HashMap<RoundDeltaMessage, OutboundQueue.Frame> deltaFrames, WireFormat format) {
+		if (chain == null) {
+			return null;
+		}
+		final ArrayList<OutboundQueue.Frame> frames = new ArrayList<OutboundQueue.Frame>();
+		int size = 0;
+		for (final RoundDeltaMessage delta : chain) {
+			OutboundQueue.Frame frame = deltaFrames.get(delta);
+			if (frame == null) {
+				frame = OutboundQueue.Frame.delta(delta, delta.getRoundNumber());
+				deltaFrames.put(delta, frame);
+			}
+			// Encoded once here, and shared by every session sent the frame
+			size += frame.getSize(format);
+			if (size > this.maxChainBytes) {
+				return null;
+			}
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	/**
+	 * Hash key wrapping a round version vector and whether the sessions are sent whole rounds only.
+	 */
+	private static class VersionKey {
+		private final int[]		versions;
+		private final boolean	fullRoundsOnly;
+		private final int		hash;
+
+		private VersionKey(int[] versions, boolean fullRoundsOnly) {
+			this.versions = versions;
+			this.fullRoundsOnly = fullRoundsOnly;
+			this.hash = Arrays.hashCode(versions) * 31 + Boolean.hashCode(fullRoundsOnly);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof VersionKey && this.fullRoundsOnly == ( (VersionKey) other ).fullRoundsOnly
+					&& Arrays.equals(this.versions, ( (VersionKey) other ).versions);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package net.bubbaland.trivia.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values, such as durations in nanoseconds or sizes in bytes.
+ *
+ * Values are counted in log-linear buckets: each power of two is split into 16 equal buckets, so any percentile is
+ * reported within about 6% of the true value while the whole histogram stays a fixed array of counters. Recording is
+ * lock-free and can be done from any thread.
+ *
+ * Public so the load generator can summarize the latencies it measures the same way the server does.
+ *
+ * @author Walter Kolczynski
+ */
+public class Histogram {
+
+	// Bits of precision kept below the leading bit
+	private static final int	SUB_BITS		= 4;
+	private static final int	SUB_BUCKETS		= 1 << SUB_BITS;
+	// Enough buckets for any positive long
+	private static final int	BUCKET_COUNT	= ( 64 - SUB_BITS ) * SUB_BUCKETS;
+
+	final private AtomicLongArray	buckets;
+	final private LongAdder			count;
+	final private LongAdder			sum;
+	final private LongAccumulator	max;
+
+	/**
+	 * Create a new, empty histogram.
+	 */
+	public Histogram() {
+		this.buckets = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+		this.max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value
+	 *            The value, where negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		this.buckets.incrementAndGet(bucketIndex(value));
+		this.count.increment();
+		this.sum.add(value);
+		this.max.accumulate(value);
+	}
+
+	/**
+	 * Count the time since a start time.
+	 *
+	 * @param startNanos
+	 *            The start time, from System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		this.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Get a percentile of the values recorded.
+	 *
+	 * @param percentile
+	 *            The percentile, between 0 and 100
+	 * @return The largest value in the bucket holding the percentile, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		final long total = this.count.sum();
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += this.buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(bucketTop(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return the sum of the values recorded
+	 */
+	public long getSum() {
+		return this.sum.sum();
+	}
+
+	/**
+	 * @return the largest value recorded
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0 if nothing has been recorded
+	 */
+	public double getMean() {
+		final long total = this.count.sum();
+		return total == 0 ? 0 : (double) this.sum.sum() / total;
+	}
+
+	/**
+	 * Find the bucket that counts a value.
+	 *
+	 * @param value
+	 *            A non-negative value
+	 * @return The bucket index
+	 */
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) ( value >>> ( exponent - SUB_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return ( exponent - SUB_BITS + 1 ) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Find the largest value counted by a bucket.
+	 *
+	 * @param index
+	 *            The bucket index
+	 * @return The largest value
+	 */
+	private static long bucketTop(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long bottom = (long) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+		return bottom + ( 1L << shift ) - 1;
+	}
+
+}
@@ -0,0 +1,138 @@
+package net.bubbaland.trivia.server;
+
+import java.util.EnumSet;
+
+import javax.websocket.Session;
+
+import net.bubbaland.trivia.User;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
+import net.bubbaland.trivia.messages.RoundMessage;
+
+/**
+ * Applies one type of message from a client.
+ *
+ * Each handler declares how its message affects the server, so the dispatcher can journal, validate and broadcast
+ * generically instead of each case doing it by hand. Handlers are registered once at startup and looked up by the
+ * message class.
+ *
+ * @author Walter Kolczynski
+ */
+class MessageHandler<M extends Message> {
+
+	/**
+	 * What handling a message does besides running the action.
+	 */
+	enum Trait {
+		// Changes the contest state, so the message is journaled
+		MUTATES,
+		// Acts on the round named in the message, which must exist
+		TOUCHES_ROUND,
+		// Changes rounds, which are broadcast afterwards using the delta the action returns (if any)
+		BROADCASTS_ROUNDS
+	}
+
+	/**
+	 * The work done for a message.
+	 */
+	interface Action<M extends Message> {
+		/**
+		 * Apply a message.
+		 *
+		 * @param message
+		 *            The message
+		 * @param user
+		 *            The user who sent the message
+		 * @param session
+		 *            The user's session, or null when replaying the journal
+		 * @return The delta describing the round change, or null if only the full round describes it (or nothing is
+		 *         broadcast)
+		 */
+		RoundDeltaMessage apply(M message, User user, Session session);
+	}
+
+	final private Class<M>			type;
+	final private EnumSet<Trait>	traits;
+	final private Action<M>			action;
+
+	// Time spent handling each message (nanoseconds)
+	final private Histogram			latency;
+
+	/**
+	 * Create a new handler.
+	 *
+	 * @param type
+	 *            The message class handled
+	 * @param traits
+	 *            What handling the message does
+	 * @param action
+	 *            The work done for each message
+	 * @param latency
+	 *            Records the time spent handling each message
+	 */
+	MessageHandler(Class<M> type, EnumSet<Trait> traits, Action<M> action, Histogram latency) {
+		if (traits.contains(Trait.TOUCHES_ROUND) && !RoundMessage.class.isAssignableFrom(type)) {
+			throw new IllegalArgumentException(type.getSimpleName() + " doesn't name a round");
+		}
+		this.type = type;
+		this.traits = EnumSet.copyOf(traits);
+		this.action = action;
+		this.latency = latency;
+	}
+
+	/**
+	 * Run the action for a message and record how long it took.
+	 *
+	 * @param message
+	 *            The message, which must be of the handled type
+	 * @param user
+	 *            The user who sent the message
+	 * @param session
+	 *            The user's session, or null when replaying the journal
+	 * @return The delta returned by the action
+	 */
+	RoundDeltaMessage handle(Message message, User user, Session session) {
+		final long start = System.nanoTime();
+		try {
+			return this.action.apply(this.type.cast(message), user, session);
+		} finally {
+			this.latency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return the message class handled
+	 */
+	Class<M> getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return whether the message names a round that must exist
+	 */
+	boolean touchesRound() {
+		return this.traits.contains(Trait.TOUCHES_ROUND);
+	}
+
+	/**
+	 * @return whether the message changes the contest state
+	 */
+	boolean mutates() {
+		return this.traits.contains(Trait.MUTATES);
+	}
+
+	/**
+	 * @return whether changed rounds are broadcast after the message is handled
+	 */
+	boolean broadcastsRounds() {
+		return this.traits.contains(Trait.BROADCASTS_ROUNDS);
+	}
+
+	/**
+	 * @return the time spent handling each message (nanoseconds)
+	 */
+	Histogram getLatency() {
+		return this.latency;
+	}
+
+}
@@ -0,0 +1,493 @@
+package net.bubbaland.trivia.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import net.bubbaland.trivia.User;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+
+/**
+ * Write-ahead journal of the messages that change the trivia state.
+ *
+ * Every applied mutation is appended to a segmented log of JSON lines. A single writer thread drains all pending
+ * entries, writes them together and syncs them to disk according to the fsync policy, so concurrent callers share one
+ * sync (group commit). On startup the journal is replayed on top of the last snapshot it was checkpointed against, and
+ * each new snapshot retires the segments it covers.
+ *
+ * @author Walter Kolczynski
+ */
+public class MessageJournal {
+
+	/**
+	 * When to force journal writes to disk.
+	 */
+	public enum FsyncPolicy {
+		// Sync every group commit; callers can wait until their entry is durable
+		ALWAYS,
+		// Sync at most once per interval
+		INTERVAL,
+		// Leave syncing to the operating system
+		NEVER
+	}
+
+	// Name of the file recording the snapshot the journal applies to
+	private static final String					CHECKPOINT_FILENAME	= "checkpoint";
+	// Prefix and suffix for segment files
+	private static final String					SEGMENT_PREFIX		= "journal-";
+	private static final String					SEGMENT_SUFFIX		= ".log";
+
+	private static final ObjectWriter			ENTRY_WRITER		= MessageCodec.getMapper().writerFor(Entry.class);
+	private static final ObjectReader			ENTRY_READER		= MessageCodec.getMapper().readerFor(Entry.class);
+
+	final private File							directory;
+	final private FsyncPolicy					fsyncPolicy;
+	final private long							fsyncInterval;
+	final private long							segmentSize;
+
+	// Entries and checkpoint markers waiting for the writer thread
+	final private LinkedBlockingQueue<Object>	pending;
+	final private Thread						writerThread;
+
+	// The last sequence number handed out
+	private long								lastSequence;
+	// The last sequence number written to disk (and synced, if the policy requires it)
+	private long								committedSequence;
+
+	// Segments no longer written to, oldest first
+	final private ArrayList<Segment>			closedSegments;
+
+	// Current segment
+	private File								segmentFile;
+	private FileOutputStream					segmentStream;
+	private Writer								segmentWriter;
+	private long								segmentBytes;
+	private long								lastSync;
+
+	private volatile boolean					running;
+
+	/**
+	 * Creates a new journal.
+	 *
+	 * @param directory
+	 *            The directory holding the segments (created if needed)
+	 * @param fsyncPolicy
+	 *            When to sync writes to disk
+	 * @param fsyncInterval
+	 *            Minimum time between syncs for the interval policy (milliseconds)
+	 * @param segmentSize
+	 *            Size at which a new segment is started (bytes)
+	 */
+	public MessageJournal(String directory, FsyncPolicy fsyncPolicy, long fsyncInterval, long segmentSize) {
+		this.directory = new File(directory);
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncInterval = fsyncInterval;
+		this.segmentSize = segmentSize;
+		this.pending = new LinkedBlockingQueue<Object>();
+		this.closedSegments = new ArrayList<Segment>();
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MessageJournal.this.writeLoop();
+			}
+		}, "Journal writer");
+		this.writerThread.setDaemon(true);
+		this.running = false;
+	}
+
+	/**
+	 * Get the snapshot the journal was last checkpointed against.
+	 *
+	 * @return The snapshot file name, or null if there is none
+	 */
+	public String getSnapshotName() {
+		final String[] checkpoint = this.readCheckpoint();
+		return checkpoint == null ? null : checkpoint[0];
+	}
+
+	/**
+	 * Read every entry recorded after the last checkpoint. Must be called before the journal is opened.
+	 *
+	 * @return The entries, in the order they were applied
+	 */
+	public ArrayList<Entry> readEntries() {
+		final ArrayList<Entry> entries = new ArrayList<Entry>();
+		final String[] checkpoint = this.readCheckpoint();
+		final long checkpointSequence = checkpoint == null ? 0 : Long.parseLong(checkpoint[1]);
+		this.lastSequence = checkpointSequence;
+		for (final File segment : this.listSegments()) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(segment), StandardCharsets.UTF_8))) {
+				String line;
+				while (( line = reader.readLine() ) != null) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					final Entry entry;
+					try {
+						entry = ENTRY_READER.readValue(line);
+					} catch (final IOException exception) {
+						// A torn final write from a crash; nothing after it was committed
+						TriviaServer.log("Ignoring unreadable journal entry in " + segment.getName());
+						break;
+					}
+					if (entry.sequence > checkpointSequence) {
+						entries.add(entry);
+					}
+					this.lastSequence = Math.max(this.lastSequence, entry.sequence);
+				}
+			} catch (final IOException exception) {
+				TriviaServer.log("Couldn't read journal segment " + segment.getName());
+				exception.printStackTrace();
+			}
+		}
+		this.committedSequence = this.lastSequence;
+		return entries;
+	}
+
+	/**
+	 * Open a new segment and start the writer thread.
+	 *
+	 * @throws IOException
+	 *             If the segment can't be created
+	 */
+	public synchronized void open() throws IOException {
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Couldn't create journal directory " + this.directory);
+		}
+		// Segments left by a previous run hold nothing past the entries read at startup
+		for (final File segment : this.listSegments()) {
+			this.closedSegments.add(new Segment(segment, this.committedSequence));
+		}
+		this.startSegment();
+		this.running = true;
+		this.writerThread.start();
+	}
+
+	/**
+	 * Append a message to the journal.
+	 *
+	 * @param userName
+	 *            The user who sent the message
+	 * @param message
+	 *            The message that was applied
+	 * @param time
+	 *            When the message was applied (milliseconds since the epoch)
+	 * @param users
+	 *            The active users the message's handler depended on, or null if it didn't use them
+	 * @return The sequence number of the entry
+	 */
+	public synchronized long append(String userName, Message message, long time, User[] users) {
+		final long sequence = ++this.lastSequence;
+		String line = null;
+		try {
+			line = ENTRY_WRITER.writeValueAsString(new Entry(sequence, userName, message, time, users));
+		} catch (final IOException exception) {
+			TriviaServer.log("Couldn't journal " + message.getClass().getSimpleName());
+			exception.printStackTrace();
+		}
+		// Queue even a failed entry so the committed sequence keeps advancing
+		this.pending.add(new PendingEntry(sequence, line));
+		return sequence;
+	}
+
+	/**
+	 * Get the last sequence number handed out.
+	 *
+	 * @return The sequence number
+	 */
+	public synchronized long getLastSequence() {
+		return this.lastSequence;
+	}
+
+	/**
+	 * Wait until an entry has been committed. Returns immediately unless the policy syncs every write.
+	 *
+	 * @param sequence
+	 *            The sequence number of the entry
+	 */
+	public void awaitCommit(long sequence) {
+		if (this.fsyncPolicy != FsyncPolicy.ALWAYS) {
+			return;
+		}
+		synchronized (this.pending) {
+			while (this.running && this.committedSequence < sequence) {
+				try {
+					this.pending.wait();
+				} catch (final InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record that a snapshot holds every entry up to a sequence number. Once the entries before the checkpoint are
+	 * written, the journal starts a new segment and deletes the old segments holding only entries up to that sequence
+	 * number. Entries appended while the snapshot was being saved are kept until a later checkpoint covers them.
+	 *
+	 * @param snapshotName
+	 *            The snapshot file name
+	 * @param sequence
+	 *            The last sequence number included in the snapshot
+	 */
+	public void checkpoint(String snapshotName, long sequence) {
+		this.pending.add(new Checkpoint(snapshotName, sequence));
+	}
+
+	/**
+	 * Write any pending entries and stop the writer thread.
+	 */
+	public void close() {
+		this.running = false;
+		this.writerThread.interrupt();
+		try {
+			this.writerThread.join(5000);
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		final ArrayList<Object> batch = new ArrayList<Object>();
+		while (this.running || !this.pending.isEmpty()) {
+			try {
+				if (this.pending.isEmpty()) {
+					batch.add(this.pending.take());
+				}
+			} catch (final InterruptedException exception) {
+				// Shutting down, write whatever is left
+			}
+			this.pending.drainTo(batch);
+			try {
+				this.writeBatch(batch);
+			} catch (final IOException exception) {
+				TriviaServer.log("Couldn't write to journal");
+				exception.printStackTrace();
+			}
+			batch.clear();
+		}
+		try {
+			this.segmentWriter.close();
+		} catch (final IOException exception) {
+			exception.printStackTrace();
+		}
+		synchronized (this.pending) {
+			this.pending.notifyAll();
+		}
+	}
+
+	private void writeBatch(ArrayList<Object> batch) throws IOException {
+		long written = this.committedSequence;
+		for (final Object item : batch) {
+			if (item instanceof Checkpoint) {
+				this.commit(written);
+				this.applyCheckpoint((Checkpoint) item);
+				continue;
+			}
+			final PendingEntry entry = (PendingEntry) item;
+			written = entry.sequence;
+			if (entry.line == null) {
+				continue;
+			}
+			this.segmentWriter.write(entry.line);
+			this.segmentWriter.write('\n');
+			// Approximate, since the size only decides when to roll over
+			this.segmentBytes += entry.line.length() + 1;
+			if (this.segmentBytes >= this.segmentSize) {
+				this.commit(written);
+				this.closeSegment();
+				this.startSegment();
+			}
+		}
+		this.commit(written);
+	}
+
+	private void commit(long written) throws IOException {
+		this.segmentWriter.flush();
+		final long now = System.currentTimeMillis();
+		if (this.fsyncPolicy == FsyncPolicy.ALWAYS
+				|| ( this.fsyncPolicy == FsyncPolicy.INTERVAL && now - this.lastSync >= this.fsyncInterval )) {
+			this.segmentStream.getFD().sync();
+			this.lastSync = now;
+		}
+		synchronized (this.pending) {
+			this.committedSequence = written;
+			this.pending.notifyAll();
+		}
+	}
+
+	private void applyCheckpoint(Checkpoint checkpoint) throws IOException {
+		// Start a fresh segment so the entries written so far are in closed segments
+		this.closeSegment();
+		this.startSegment();
+
+		final File temp = new File(this.directory, CHECKPOINT_FILENAME + ".tmp");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+			writer.write(checkpoint.snapshotName + "\n" + checkpoint.sequence + "\n");
+		}
+		Files.move(temp.toPath(), new File(this.directory, CHECKPOINT_FILENAME).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// Only delete segments the snapshot covers; later entries were applied after its state was captured
+		while (!this.closedSegments.isEmpty() && this.closedSegments.get(0).lastSequence <= checkpoint.sequence) {
+			final File segment = this.closedSegments.remove(0).file;
+			if (!segment.delete()) {
+				TriviaServer.log("Couldn't delete journal segment " + segment.getName());
+			}
+		}
+		TriviaServer.log("Journal checkpointed at " + checkpoint.sequence + " against " + checkpoint.snapshotName);
+	}
+
+	/**
+	 * Close the current segment, which holds entries up to the committed sequence number.
+	 *
+	 * @throws IOException
+	 *             If the segment can't be closed
+	 */
+	private void closeSegment() throws IOException {
+		this.segmentWriter.close();
+		this.closedSegments.add(new Segment(this.segmentFile, this.committedSequence));
+	}
+
+	private void startSegment() throws IOException {
+		final String name = SEGMENT_PREFIX + String.format("%012d", this.committedSequence + 1) + SEGMENT_SUFFIX;
+		File file = new File(this.directory, name);
+		// Never append to a segment left behind by a previous run
+		for (int n = 1; file.exists(); n++) {
+			file = new File(this.directory, name + "." + n);
+		}
+		this.segmentFile = file;
+		this.segmentStream = new FileOutputStream(file);
+		this.segmentWriter = new OutputStreamWriter(this.segmentStream, StandardCharsets.UTF_8);
+		this.segmentBytes = 0;
+	}
+
+	private File[] listSegments() {
+		final File[] segments = this.directory.listFiles(
+				(dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.contains(SEGMENT_SUFFIX));
+		if (segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private String[] readCheckpoint() {
+		final File file = new File(this.directory, CHECKPOINT_FILENAME);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			final String[] lines =
+					new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split("\n");
+			return lines.length == 2 ? lines : null;
+		} catch (final IOException exception) {
+			TriviaServer.log("Couldn't read journal checkpoint");
+			exception.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * A journaled message along with the user who sent it and the inputs its handler took from outside the trivia
+	 * state, so replaying it gives the same result as applying it did.
+	 */
+	public static class Entry {
+		@JsonProperty("seq")
+		final long		sequence;
+		@JsonProperty("user")
+		final String	userName;
+		@JsonProperty("message")
+		final Message	message;
+		// Missing from entries written before it was recorded
+		@JsonProperty("time")
+		final long		time;
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		@JsonProperty("users")
+		final User[]	users;
+
+		@JsonCreator
+		public Entry(@JsonProperty("seq") long sequence, @JsonProperty("user") String userName,
+				@JsonProperty("message") Message message, @JsonProperty("time") long time,
+				@JsonProperty("users") User[] users) {
+			this.sequence = sequence;
+			this.userName = userName;
+			this.message = message;
+			this.time = time;
+			this.users = users;
+		}
+
+		public String getUserName() {
+			return this.userName;
+		}
+
+		public Message getMessage() {
+			return this.message;
+		}
+
+		/**
+		 * @return when the message was applied, or 0 if it wasn't recorded
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 * @return the active users the handler depended on, or null if it didn't use them
+		 */
+		public User[] getUsers() {
+			return this.users;
+		}
+	}
+
+	private static class PendingEntry {
+		final long		sequence;
+		final String	line;
+
+		PendingEntry(long sequence, String line) {
+			this.sequence = sequence;
+			this.line = line;
+		}
+	}
+
+	private static class Segment {
+		final File	file;
+		final long	lastSequence;
+
+		Segment(File file, long lastSequence) {
+			this.file = file;
+			this.lastSequence = lastSequence;
+		}
+	}
+
+	private static class Checkpoint {
+		final String	snapshotName;
+		final long		sequence;
+
+		Checkpoint(String snapshotName, long sequence) {
+			this.snapshotName = snapshotName;
+			this.sequence = sequence;
+		}
+	}
+
+}
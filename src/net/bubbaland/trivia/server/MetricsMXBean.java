@@ -0,0 +1,95 @@
+package net.bubbaland.trivia.server;
+
+import java.util.Map;
+
+/**
+ * Management interface for the server metrics, registered as net.bubbaland.trivia:type=Metrics.
+ *
+ * @author Walter Kolczynski
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return the value of every counter, by name
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return the current value of every gauge, by name
+	 */
+	Map<String, Long> getGauges();
+
+	/**
+	 * @return a summary of every histogram, by name
+	 */
+	Map<String, Summary> getHistograms();
+
+	/**
+	 * @return every metric in the plain-text format served over HTTP
+	 */
+	String getDump();
+
+	/**
+	 * Summary of a histogram.
+	 */
+	public static class Summary {
+		final private long		count;
+		final private double	mean;
+		final private long		p50;
+		final private long		p90;
+		final private long		p99;
+		final private long		max;
+
+		Summary(long count, double mean, long p50, long p90, long p99, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of values recorded
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return the mean value
+		 */
+		public double getMean() {
+			return this.mean;
+		}
+
+		/**
+		 * @return the median value
+		 */
+		public long getP50() {
+			return this.p50;
+		}
+
+		/**
+		 * @return the 90th percentile value
+		 */
+		public long getP90() {
+			return this.p90;
+		}
+
+		/**
+		 * @return the 99th percentile value
+		 */
+		public long getP99() {
+			return this.p99;
+		}
+
+		/**
+		 * @return the largest value
+		 */
+		public long getMax() {
+			return this.max;
+		}
+	}
+
+}
@@ -0,0 +1,249 @@
+package net.bubbaland.trivia.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters, gauges and histograms describing what the server is doing.
+ *
+ * Metrics are created on first use and identified by a name with optional labels, such as
+ * messages_received_total{type="ProposeAnswerMessage"}. They can be read through JMX or as plain text from an HTTP
+ * endpoint bound to the loopback address, in a format Prometheus can scrape.
+ *
+ * @author Walter Kolczynski
+ */
+class MetricsRegistry implements MetricsMXBean {
+
+	// Percentiles included in the text dump
+	private static final double[]							PERCENTILES	= { 50, 90, 99 };
+
+	final private ConcurrentHashMap<String, LongAdder>		counters;
+	final private ConcurrentHashMap<String, Histogram>		histograms;
+	final private ConcurrentHashMap<String, LongSupplier>	gauges;
+
+	// Serves the text dump (null if not started)
+	private HttpServer										httpServer;
+
+	/**
+	 * Create a new, empty registry.
+	 */
+	MetricsRegistry() {
+		this.counters = new ConcurrentHashMap<String, LongAdder>();
+		this.histograms = new ConcurrentHashMap<String, Histogram>();
+		this.gauges = new ConcurrentHashMap<String, LongSupplier>();
+	}
+
+	/**
+	 * Build a metric name with one label.
+	 *
+	 * @param name
+	 *            The metric name
+	 * @param label
+	 *            The label name
+	 * @param value
+	 *            The label value
+	 * @return The full name
+	 */
+	static String name(String name, String label, String value) {
+		return name + "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+	}
+
+	/**
+	 * Get a counter, creating it if needed.
+	 *
+	 * @param name
+	 *            The full name of the counter
+	 * @return The counter
+	 */
+	LongAdder counter(String name) {
+		return this.counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	/**
+	 * Get a histogram, creating it if needed.
+	 *
+	 * @param name
+	 *            The full name of the histogram
+	 * @return The histogram
+	 */
+	Histogram histogram(String name) {
+		return this.histograms.computeIfAbsent(name, key -> new Histogram());
+	}
+
+	/**
+	 * Add a gauge, replacing any gauge with the same name.
+	 *
+	 * @param name
+	 *            The full name of the gauge
+	 * @param supplier
+	 *            Reads the current value
+	 */
+	void gauge(String name, LongSupplier supplier) {
+		this.gauges.put(name, supplier);
+	}
+
+	/**
+	 * Remove a gauge.
+	 *
+	 * @param name
+	 *            The full name of the gauge
+	 */
+	void removeGauge(String name) {
+		this.gauges.remove(name);
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		final TreeMap<String, Long> values = new TreeMap<String, Long>();
+		for (final Entry<String, LongAdder> entry : this.counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().sum());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getGauges() {
+		final TreeMap<String, Long> values = new TreeMap<String, Long>();
+		for (final Entry<String, LongSupplier> entry : this.gauges.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getAsLong());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Summary> getHistograms() {
+		final TreeMap<String, Summary> values = new TreeMap<String, Summary>();
+		for (final Entry<String, Histogram> entry : this.histograms.entrySet()) {
+			final Histogram histogram = entry.getValue();
+			values.put(entry.getKey(), new Summary(histogram.getCount(), histogram.getMean(),
+					histogram.getPercentile(50), histogram.getPercentile(90), histogram.getPercentile(99),
+					histogram.getMax()));
+		}
+		return values;
+	}
+
+	@Override
+	public String getDump() {
+		final StringBuilder dump = new StringBuilder();
+		for (final Entry<String, Long> entry : this.getCounters().entrySet()) {
+			dump.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for (final Entry<String, Long> entry : this.getGauges().entrySet()) {
+			dump.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for (final Entry<String, Histogram> entry : new TreeMap<String, Histogram>(this.histograms).entrySet()) {
+			final String name = entry.getKey();
+			final Histogram histogram = entry.getValue();
+			if (histogram.getCount() == 0) {
+				continue;
+			}
+			for (final double percentile : PERCENTILES) {
+				dump.append(withLabel(name, "", "quantile", Double.toString(percentile / 100))).append(' ')
+						.append(histogram.getPercentile(percentile)).append('\n');
+			}
+			dump.append(withLabel(name, "_max", null, null)).append(' ').append(histogram.getMax()).append('\n');
+			dump.append(withLabel(name, "_sum", null, null)).append(' ').append(histogram.getSum()).append('\n');
+			dump.append(withLabel(name, "_count", null, null)).append(' ').append(histogram.getCount()).append('\n');
+		}
+		return dump.toString();
+	}
+
+	/**
+	 * Add a suffix and a label to a full metric name.
+	 *
+	 * @param name
+	 *            The full name, with or without labels
+	 * @param suffix
+	 *            Added to the metric name, before the labels
+	 * @param label
+	 *            The label to add, or null for none
+	 * @param value
+	 *            The label value
+	 * @return The new name
+	 */
+	private static String withLabel(String name, String suffix, String label, String value) {
+		final int brace = name.indexOf('{');
+		final String base = brace < 0 ? name : name.substring(0, brace);
+		String labels = brace < 0 ? "" : name.substring(brace + 1, name.length() - 1);
+		if (label != null) {
+			labels = labels + ( labels.isEmpty() ? "" : "," ) + label + "=\"" + value + "\"";
+		}
+		return base + suffix + ( labels.isEmpty() ? "" : "{" + labels + "}" );
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server.
+	 */
+	void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("net.bubbaland.trivia:type=Metrics"));
+		} catch (final JMException exception) {
+			TriviaServer.log("Couldn't register metrics with JMX");
+			exception.printStackTrace();
+		}
+	}
+
+	/**
+	 * Serve the text dump at /metrics on the loopback address.
+	 *
+	 * @param port
+	 *            The port to listen on
+	 */
+	synchronized void startHttpServer(int port) {
+		try {
+			this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		} catch (final IOException exception) {
+			TriviaServer.log("Couldn't start metrics endpoint on port " + port);
+			exception.printStackTrace();
+			return;
+		}
+		this.httpServer.createContext("/metrics", exchange -> this.serveDump(exchange));
+		this.httpServer.start();
+		TriviaServer.log("Serving metrics at http://localhost:" + port + "/metrics");
+	}
+
+	/**
+	 * Stop serving the text dump.
+	 */
+	synchronized void stopHttpServer() {
+		if (this.httpServer != null) {
+			this.httpServer.stop(0);
+			this.httpServer = null;
+		}
+	}
+
+	/**
+	 * Answer a request for the text dump.
+	 *
+	 * @param exchange
+	 *            The request
+	 * @throws IOException
+	 *             If the response can't be written
+	 */
+	private void serveDump(HttpExchange exchange) throws IOException {
+		final byte[] body = this.getDump().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream stream = exchange.getResponseBody()) {
+			stream.write(body);
+		}
+	}
+
+}
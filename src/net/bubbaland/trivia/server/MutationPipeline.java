@@ -0,0 +1,237 @@
+package net.bubbaland.trivia.server;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+
+/**
+ * Applies every change to the trivia state on a single thread.
+ *
+ * Mutations are queued from any thread and applied in order by the writer thread, which drains everything waiting in
+ * the queue as one batch. After each batch a read-only copy of the trivia data is published together with the journal
+ * sequence it includes. Saving, charting and other readers off the writer thread only ever use the published snapshot,
+ * so they never see a half-applied change and never contend with the writer.
+ *
+ * Snapshots are copy-on-write: a round is only copied again when its version changes or it is replaced, and then only
+ * the answers that changed since the last copy are copied; the rest are shared with it. Copies are read-only and
+ * throw if anything tries to change them.
+ *
+ * @author Walter Kolczynski
+ */
+class MutationPipeline {
+
+	// Queued by stop(); the writer thread publishes what came before it and exits
+	private static final Runnable					STOP	= () -> {};
+
+	// Source of the live trivia data, which only the writer thread may touch
+	final private Supplier<Trivia>					liveTrivia;
+	// Journal to report in snapshots (null if journaling is disabled)
+	final private MessageJournal					journal;
+
+	final private LinkedBlockingQueue<Runnable>	queue;
+	final private Thread							writerThread;
+
+	// The last published snapshot
+	private volatile Snapshot						snapshot;
+
+	// The rounds the current copies were made from, and their versions when copied
+	private Round[]									sourceRounds;
+	private Round[]									copiedRounds;
+	private int[]									copiedVersions;
+
+	/**
+	 * Create a new pipeline and publish the initial snapshot.
+	 *
+	 * @param liveTrivia
+	 *            Supplies the live trivia data
+	 * @param journal
+	 *            The journal mutations are recorded in, or null
+	 */
+	MutationPipeline(Supplier<Trivia> liveTrivia, MessageJournal journal) {
+		this.liveTrivia = liveTrivia;
+		this.journal = journal;
+		this.queue = new LinkedBlockingQueue<Runnable>();
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MutationPipeline.this.writeLoop();
+			}
+		}, "State writer");
+		this.writerThread.setDaemon(true);
+		this.publish();
+	}
+
+	/**
+	 * Start applying mutations.
+	 */
+	void start() {
+		this.writerThread.start();
+	}
+
+	/**
+	 * Queue a mutation to be applied on the writer thread.
+	 *
+	 * @param mutation
+	 *            The mutation
+	 */
+	void submit(Runnable mutation) {
+		this.queue.add(mutation);
+	}
+
+	/**
+	 * Wait until every mutation queued so far has been applied and a snapshot including them has been published.
+	 * Must not be called from the writer thread.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	void awaitPublished() throws InterruptedException {
+		final CountDownLatch published = new CountDownLatch(1);
+		this.submit(() -> {
+			this.publish();
+			published.countDown();
+		});
+		published.await();
+	}
+
+	/**
+	 * Whether the current thread is the writer thread.
+	 *
+	 * @return true if called from the writer thread
+	 */
+	boolean isWriterThread() {
+		return Thread.currentThread() == this.writerThread;
+	}
+
+	/**
+	 * Get the last published snapshot. May be called from any thread.
+	 *
+	 * @return The snapshot
+	 */
+	Snapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Force every round to be copied for the next snapshot. Used after changes that don't change round versions.
+	 */
+	void invalidate() {
+		this.sourceRounds = null;
+	}
+
+	/**
+	 * Publish a snapshot of the live state now. Only called from the writer thread (or before the pipeline starts).
+	 *
+	 * @return The trivia data in the new snapshot
+	 */
+	Trivia publish() {
+		final Trivia trivia = this.liveTrivia.get();
+		final Round[] rounds = trivia.getRounds();
+		if (this.sourceRounds == null || this.sourceRounds.length != rounds.length) {
+			this.sourceRounds = new Round[rounds.length];
+			this.copiedRounds = new Round[rounds.length];
+			this.copiedVersions = new int[rounds.length];
+		}
+		final Round[] copies = new Round[rounds.length];
+		for (int r = 0; r < rounds.length; r++) {
+			final Round round = rounds[r];
+			final int version = round.getVersion();
+			if (round != this.sourceRounds[r] || version != this.copiedVersions[r]) {
+				// A replaced round shares nothing with the copy of the one it replaced
+				this.copiedRounds[r] = round.copy(round == this.sourceRounds[r] ? this.copiedRounds[r] : null);
+				this.sourceRounds[r] = round;
+				this.copiedVersions[r] = version;
+			}
+			copies[r] = this.copiedRounds[r];
+		}
+		final long sequence = this.journal == null ? 0 : this.journal.getLastSequence();
+		final Trivia copy = trivia.copy(copies);
+		this.snapshot = new Snapshot(copy, sequence);
+		return copy;
+	}
+
+	/**
+	 * Stop the writer thread once the mutations already queued have been applied and published, and wait for it to
+	 * finish. Mutations submitted afterwards are never applied.
+	 */
+	void stop() {
+		this.queue.add(STOP);
+		try {
+			this.writerThread.join();
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Apply queued mutations in batches until stopped.
+	 */
+	private void writeLoop() {
+		final ArrayList<Runnable> batch = new ArrayList<Runnable>();
+		boolean stopped = false;
+		while (!stopped) {
+			try {
+				batch.add(this.queue.take());
+			} catch (final InterruptedException exception) {
+				// Nothing interrupts the writer; stop() queues STOP instead
+				continue;
+			}
+			this.queue.drainTo(batch);
+			for (final Runnable mutation : batch) {
+				if (mutation == STOP) {
+					stopped = true;
+					break;
+				}
+				try {
+					mutation.run();
+				} catch (final Exception exception) {
+					TriviaServer.log("Error applying change to trivia state");
+					exception.printStackTrace();
+				}
+			}
+			batch.clear();
+			try {
+				this.publish();
+			} catch (final Exception exception) {
+				TriviaServer.log("Couldn't publish trivia snapshot");
+				exception.printStackTrace();
+			}
+			if (this.journal != null) {
+				// Under the ALWAYS policy, wait for the batch to be durable before taking more changes
+				this.journal.awaitCommit(this.journal.getLastSequence());
+			}
+		}
+	}
+
+	/**
+	 * A read-only copy of the trivia data and the last journal entry it includes.
+	 */
+	static class Snapshot {
+		final private Trivia	trivia;
+		final private long		sequence;
+
+		private Snapshot(Trivia trivia, long sequence) {
+			this.trivia = trivia;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @return the trivia data, which is read-only
+		 */
+		Trivia getTrivia() {
+			return this.trivia;
+		}
+
+		/**
+		 * @return the sequence of the last journal entry included in the snapshot
+		 */
+		long getSequence() {
+			return this.sequence;
+		}
+	}
+
+}
@@ -0,0 +1,470 @@
+package net.bubbaland.trivia.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.WireFormat;
+
+/**
+ * Bounded queue of frames waiting to be sent to one client.
+ *
+ * Only one frame is handed to the container at a time; the next is sent when the previous send completes. While frames
+ * wait, a newer frame carrying full rounds replaces any queued frames for the same rounds, so a slow client only ever
+ * has the latest copy of each round waiting. A client that falls too far behind, either by filling the queue or by
+ * taking too long to accept a frame, is disconnected and will resynchronize when it reconnects.
+ *
+ * Frames are encoded in the wire format negotiated for the session. A frame shared by many sessions is encoded at most
+ * once per format, when it is first queued. Large frames, such as the full trivia data, are written to the connection in
+ * fragments straight from the shared encoding, so sending them to many clients at once doesn't make a full-size copy
+ * for each client.
+ *
+ * @author Walter Kolczynski
+ */
+class OutboundQueue {
+
+	// Threads that write fragmented frames, which can only be sent with blocking calls
+	private static final ExecutorService	FRAGMENT_SENDER	= Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "Fragment sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	final private Session				session;
+	// The encoding negotiated for the session
+	final private WireFormat			format;
+	// Most frames allowed to wait
+	final private int					capacity;
+	// Longest a frame may take to send before the client is evicted (milliseconds)
+	final private long					maxLag;
+	// Frames larger than this are sent in fragments of this size (characters or bytes), or 0 to never fragment
+	final private int					fragmentSize;
+
+	// Frames waiting to be sent
+	final private ArrayDeque<Frame>	queue;
+	// Whether a frame is being sent, and since when
+	private boolean						sending;
+	private long						sendStarted;
+	// Whether the client has been evicted
+	private boolean						evicted;
+
+	// Statistics
+	private long						sentCount;
+	private long						collapsedCount;
+	private long						droppedCount;
+
+	/**
+	 * Create a new queue for a session.
+	 *
+	 * @param session
+	 *            The session
+	 * @param format
+	 *            The wire format negotiated for the session
+	 * @param capacity
+	 *            The most frames allowed to wait
+	 * @param maxLag
+	 *            The longest a frame may take to send (milliseconds)
+	 * @param fragmentSize
+	 *            The largest frame sent whole (characters or bytes), or 0 to never fragment
+	 */
+	OutboundQueue(Session session, WireFormat format, int capacity, long maxLag, int fragmentSize) {
+		this.session = session;
+		this.format = format;
+		this.capacity = capacity;
+		this.maxLag = maxLag;
+		this.fragmentSize = fragmentSize;
+		this.queue = new ArrayDeque<Frame>();
+	}
+
+	/**
+	 * Queue a frame to be sent.
+	 *
+	 * @param frame
+	 *            The frame
+	 */
+	void add(Frame frame) {
+		// Encode on the caller's thread, while the data in the message is current
+		if (frame.getPayload(this.format) == null) {
+			synchronized (this) {
+				this.droppedCount++;
+			}
+			return;
+		}
+		synchronized (this) {
+			this.enqueue(frame);
+		}
+	}
+
+	/**
+	 * Queue an encoded frame, dropping any frames it makes obsolete.
+	 *
+	 * @param frame
+	 *            The frame
+	 */
+	private void enqueue(Frame frame) {
+		if (this.evicted) {
+			this.droppedCount++;
+			return;
+		}
+
+		// Drop queued frames that this frame makes obsolete
+		if (frame.roundNumbers != null || frame.allRounds) {
+			for (final Iterator<Frame> iterator = this.queue.iterator(); iterator.hasNext();) {
+				if (frame.supersedes(iterator.next())) {
+					iterator.remove();
+					this.collapsedCount++;
+				}
+			}
+		}
+		this.queue.add(frame);
+
+		if (this.queue.size() > this.capacity) {
+			this.evict("outbound queue full");
+		} else if (this.sending && System.currentTimeMillis() - this.sendStarted > this.maxLag) {
+			this.evict("no send completed in " + this.maxLag + " ms");
+		} else if (!this.sending) {
+			this.sendNext();
+		}
+	}
+
+	/**
+	 * Hand the next frame to the container.
+	 */
+	private void sendNext() {
+		final Frame frame = this.queue.poll();
+		if (frame == null || !this.session.isOpen()) {
+			this.sending = false;
+			return;
+		}
+		this.sending = true;
+		this.sendStarted = System.currentTimeMillis();
+		final Object payload = frame.getPayload(this.format);
+		final int length = this.format.isBinary() ? ( (byte[]) payload ).length : ( (String) payload ).length();
+		if (this.fragmentSize > 0 && length > this.fragmentSize) {
+			FRAGMENT_SENDER.execute(new Runnable() {
+				@Override
+				public void run() {
+					OutboundQueue.this.sendComplete(OutboundQueue.this.sendFragments(payload));
+				}
+			});
+			return;
+		}
+		final SendHandler handler = new SendHandler() {
+			@Override
+			public void onResult(SendResult result) {
+				OutboundQueue.this.sendComplete(result);
+			}
+		};
+		if (this.format.isBinary()) {
+			this.session.getAsyncRemote().sendBinary(ByteBuffer.wrap((byte[]) payload), handler);
+		} else {
+			this.session.getAsyncRemote().sendText((String) payload, handler);
+		}
+	}
+
+	/**
+	 * Write a large payload to the connection in fragments. Blocks until the last fragment is sent, so this is never
+	 * called with the queue locked.
+	 *
+	 * @param payload
+	 *            The encoded message
+	 * @return The result of the send
+	 */
+	private SendResult sendFragments(Object payload) {
+		try {
+			final RemoteEndpoint.Basic remote = this.session.getBasicRemote();
+			if (this.format.isBinary()) {
+				final byte[] bytes = (byte[]) payload;
+				for (int start = 0; start < bytes.length; start += this.fragmentSize) {
+					final int end = Math.min(bytes.length, start + this.fragmentSize);
+					remote.sendBinary(ByteBuffer.wrap(bytes, start, end - start), end == bytes.length);
+				}
+			} else {
+				final String text = (String) payload;
+				int start = 0;
+				while (start < text.length()) {
+					int end = Math.min(text.length(), start + this.fragmentSize);
+					// Don't split a surrogate pair across fragments
+					if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+						end--;
+					}
+					remote.sendText(text.substring(start, end), end == text.length());
+					start = end;
+				}
+			}
+			return new SendResult();
+		} catch (final IOException | RuntimeException exception) {
+			return new SendResult(exception);
+		}
+	}
+
+	/**
+	 * Record a completed send and start the next one.
+	 *
+	 * @param result
+	 *            The result of the send
+	 */
+	private synchronized void sendComplete(SendResult result) {
+		if (result.isOK()) {
+			this.sentCount++;
+		} else {
+			this.droppedCount++;
+		}
+		if (this.evicted) {
+			this.sending = false;
+			return;
+		}
+		this.sendNext();
+	}
+
+	/**
+	 * Disconnect a client that has fallen too far behind.
+	 *
+	 * @param reason
+	 *            Why the client is being disconnected
+	 */
+	private void evict(final String reason) {
+		this.evicted = true;
+		this.droppedCount += this.queue.size();
+		this.queue.clear();
+		TriviaServer.log("Disconnecting slow client: " + reason);
+		// Closing may block on the stalled connection, so don't do it on the caller's thread
+		ForkJoinPool.commonPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					OutboundQueue.this.session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, reason));
+				} catch (final IOException exception) {
+					exception.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of frames waiting to be sent
+	 */
+	synchronized int getDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return whether nothing is waiting or being sent
+	 */
+	synchronized boolean isIdle() {
+		return this.evicted || ( this.queue.isEmpty() && !this.sending );
+	}
+
+	/**
+	 * @return the number of frames sent
+	 */
+	synchronized long getSentCount() {
+		return this.sentCount;
+	}
+
+	/**
+	 * @return the number of frames replaced by newer frames before they were sent
+	 */
+	synchronized long getCollapsedCount() {
+		return this.collapsedCount;
+	}
+
+	/**
+	 * @return the number of frames dropped because the send failed or the client was evicted
+	 */
+	synchronized long getDroppedCount() {
+		return this.droppedCount;
+	}
+
+	/**
+	 * @return whether the client was evicted for falling behind
+	 */
+	synchronized boolean isEvicted() {
+		return this.evicted;
+	}
+
+	/**
+	 * @return the wire format negotiated for the session
+	 */
+	WireFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * A message, its encodings and the rounds it carries. Frames can be queued for many sessions.
+	 */
+	static class Frame {
+		final private Message	message;
+		// The message encoded in each wire format (text or bytes), filled in as needed
+		final private Object[]	payloads;
+		// The rounds sent in full by this frame, or null if none
+		final private int[]		roundNumbers;
+		// Whether this frame replaces every round
+		final private boolean	allRounds;
+		// The round this frame is a delta for, or 0 if none
+		final private int		deltaRound;
+
+		private Frame(Message message, int[] roundNumbers, boolean allRounds, int deltaRound) {
+			this.message = message;
+			this.payloads = new Object[WireFormat.values().length];
+			this.roundNumbers = roundNumbers;
+			this.allRounds = allRounds;
+			this.deltaRound = deltaRound;
+		}
+
+		/**
+		 * Get the message encoded in a wire format, encoding it the first time.
+		 *
+		 * @param format
+		 *            The wire format
+		 * @return The encoded message, a String for text formats or a byte[] for binary ones, or null if it couldn't
+		 *         be encoded
+		 */
+		synchronized Object getPayload(WireFormat format) {
+			Object payload = this.payloads[format.ordinal()];
+			if (payload == null) {
+				try {
+					final long start = System.nanoTime();
+					payload = format.isBinary() ? MessageCodec.encodeBinary(this.message)
+							: MessageCodec.encode(this.message, format);
+					final String formatName = format.name().toLowerCase();
+					TriviaServer.METRICS.histogram(MetricsRegistry.name("encode_nanoseconds", "format", formatName))
+							.recordSince(start);
+					// Characters for text formats, bytes for binary ones
+					TriviaServer.METRICS.histogram(MetricsRegistry.name("encode_size", "format", formatName))
+							.record(format.isBinary() ? ( (byte[]) payload ).length : ( (String) payload ).length());
+				} catch (final IOException exception) {
+					TriviaServer.log("Couldn't encode " + this.message.getClass().getSimpleName());
+					exception.printStackTrace();
+					return null;
+				}
+				this.payloads[format.ordinal()] = payload;
+			}
+			return payload;
+		}
+
+		/**
+		 * Get the size of the message encoded in a wire format, encoding it the first time.
+		 *
+		 * @param format
+		 *            The wire format
+		 * @return The number of characters for text formats or bytes for binary ones, or 0 if it couldn't be encoded
+		 */
+		int getSize(WireFormat format) {
+			final Object payload = this.getPayload(format);
+			if (payload == null) {
+				return 0;
+			}
+			return format.isBinary() ? ( (byte[]) payload ).length : ( (String) payload ).length();
+		}
+
+		/**
+		 * Create a frame that doesn't carry round data.
+		 *
+		 * @param message
+		 *            The message
+		 * @return The frame
+		 */
+		static Frame message(Message message) {
+			return new Frame(message, null, false, 0);
+		}
+
+		/**
+		 * Create a frame that carries full rounds.
+		 *
+		 * @param message
+		 *            The message
+		 * @param roundNumbers
+		 *            The rounds in the message
+		 * @return The frame
+		 */
+		static Frame rounds(Message message, int[] roundNumbers) {
+			return new Frame(message, roundNumbers, false, 0);
+		}
+
+		/**
+		 * Create a frame that carries the entire trivia data.
+		 *
+		 * @param message
+		 *            The message
+		 * @return The frame
+		 */
+		static Frame trivia(Message message) {
+			return new Frame(message, null, true, 0);
+		}
+
+		/**
+		 * Create a frame that carries a delta for one round.
+		 *
+		 * @param message
+		 *            The message
+		 * @param roundNumber
+		 *            The round the delta applies to
+		 * @return The frame
+		 */
+		static Frame delta(Message message, int roundNumber) {
+			return new Frame(message, null, false, roundNumber);
+		}
+
+		/**
+		 * Whether this frame carries a round in full.
+		 *
+		 * @param rNumber
+		 *            The round number
+		 * @return true if the round is included
+		 */
+		private boolean covers(int rNumber) {
+			if (this.allRounds) {
+				return true;
+			}
+			if (this.roundNumbers == null) {
+				return false;
+			}
+			for (final int r : this.roundNumbers) {
+				if (r == rNumber) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Whether an older frame is made obsolete by this one.
+		 *
+		 * @param older
+		 *            A frame queued before this one
+		 * @return true if everything the older frame carries is also carried by this one
+		 */
+		private boolean supersedes(Frame older) {
+			if (older.deltaRound != 0) {
+				return this.covers(older.deltaRound);
+			}
+			if (older.allRounds) {
+				return this.allRounds;
+			}
+			if (older.roundNumbers == null) {
+				return false;
+			}
+			for (final int r : older.roundNumbers) {
+				if (!this.covers(r)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Answer.Agreement;
 import net.bubbaland.trivia.Question;
 import net.bubbaland.trivia.Round;
 import net.bubbaland.trivia.Trivia;
@@ -208,8 +209,30 @@ public class SaveMediator {
 						final String caller = answerElement.getElementsByTagName("Caller").item(0).getTextContent();
 						final String operator = answerElement.getElementsByTagName("Operator").item(0).getTextContent();
 
-						trivia.getRound(rNumber).setAnswer(qNumber, answer, submitter, confidence, status, caller,
-								operator, timestamp);
+						// Saves from before queue locations were kept put the answers one after another
+						final NodeList locationElements = answerElement.getElementsByTagName("Queue_Location");
+						if (locationElements.getLength() > 0) {
+							final int queueLocation = Integer.parseInt(locationElements.item(0).getTextContent());
+							trivia.getRound(rNumber).setAnswer(queueLocation, qNumber, answer, submitter, confidence,
+									status, caller, operator, timestamp);
+						} else {
+							trivia.getRound(rNumber).setAnswer(qNumber, answer, submitter, confidence, status, caller,
+									operator, timestamp);
+						}
+
+						// Saves from before agreements were kept have none
+						final NodeList agreementElements = answerElement.getElementsByTagName("Agreement");
+						final int queueIndex = trivia.getRound(rNumber).getAnswerQueueSize() - 1;
+						for (int g = 0; g < agreementElements.getLength(); g++) {
+							final Element agreementElement = (Element) agreementElements.item(g);
+							trivia.getRound(rNumber).changeAgreement(agreementElement.getAttribute("user"), queueIndex,
+									Agreement.valueOf(agreementElement.getTextContent()));
+						}
+					}
+
+					// Keep the places of answers removed from the end of the queue
+					if (element.hasAttribute("slots")) {
+						trivia.getRound(rNumber).setAnswerQueueSize(Integer.parseInt(element.getAttribute("slots")));
 					}
 				}
 			}
@@ -224,12 +247,14 @@ public class SaveMediator {
 
 	/**
 	 * Save the current trivia state to an xml file.
+	 *
+	 * @return The name of the save file, or null if nothing was saved
 	 */
-	void saveState(final Trivia trivia) {
+	String saveState(final Trivia trivia) {
 
 		if (trivia.getValue() == 0) {
 			TriviaServer.log("Not saving new trivia object");
-			return;
+			return null;
 		}
 
 		// The current date/time
@@ -239,8 +264,8 @@ public class SaveMediator {
 		final String roundString = "Rd" + String.format("%02d", trivia.getCurrentRoundNumber());
 
 		// Timestamp used as part of the filename (no spaces, descending precision)
-		String filename =
-				this.saveDirectory + "/" + roundString + "_" + TriviaServer.fileDateFormat.format(time) + ".xml";
+		final String saveName = roundString + "_" + TriviaServer.fileDateFormat.format(time) + ".xml";
+		String filename = this.saveDirectory + "/" + saveName;
 		// Timestamp used in the save file
 		final String createTime = TriviaServer.stringDateFormat.format(time);
 
@@ -378,7 +403,7 @@ public class SaveMediator {
 				}
 
 				// The size of the answer queue for the current round
-				final int queueSize = r.getAnswerQueueSize();
+				final int queueSize = r.nAnswers();
 
 				// Create a queue element
 				final Element queueElement = doc.createElement("Answer_Queue");
@@ -389,11 +414,21 @@ public class SaveMediator {
 				attribute.setValue(queueSize + "");
 				queueElement.setAttributeNode(attribute);
 
+				// The number of places in the queue, including those of removed answers
+				attribute = doc.createAttribute("slots");
+				attribute.setValue(r.getAnswerQueueSize() + "");
+				queueElement.setAttributeNode(attribute);
+
 				for (final Answer a : r.getAnswerQueue()) {
 					// Create a proposed answer element
 					final Element answerElement = doc.createElement("Proposed_Answer");
 					queueElement.appendChild(answerElement);
 
+					// The place of this answer in the queue, which stays the same when earlier answers are removed
+					element = doc.createElement("Queue_Location");
+					element.appendChild(doc.createTextNode(a.getQueueLocation() + ""));
+					answerElement.appendChild(element);
+
 					// The question number for this answer
 					element = doc.createElement("Question_Number");
 					element.appendChild(doc.createTextNode(a.getQNumber() + ""));
@@ -433,6 +468,24 @@ public class SaveMediator {
 					element = doc.createElement("Operator");
 					element.appendChild(doc.createTextNode(a.getOperator()));
 					answerElement.appendChild(element);
+
+					// Each user's agreement with this answer
+					final Element agreementsElement = doc.createElement("Agreements");
+					answerElement.appendChild(agreementsElement);
+					for (final Agreement agreement : Agreement.values()) {
+						final String[] users = a.getConcurList(agreement);
+						if (users == null) {
+							continue;
+						}
+						for (final String user : users) {
+							element = doc.createElement("Agreement");
+							attribute = doc.createAttribute("user");
+							attribute.setValue(user);
+							element.setAttributeNode(attribute);
+							element.appendChild(doc.createTextNode(agreement.toString()));
+							agreementsElement.appendChild(element);
+						}
+					}
 				}
 			}
 
@@ -450,8 +503,11 @@ public class SaveMediator {
 		} catch (final ParserConfigurationException | TransformerException e) {
 			TriviaServer.log("Couldn't save data to file " + filename);
 			e.printStackTrace();
+			return null;
 		}
 
+		return saveName;
+
 	}
 
 	public void saveCharts(Trivia trivia, int chartWidth, int chartHeight) {
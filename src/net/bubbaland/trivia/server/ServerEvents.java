@@ -0,0 +1,120 @@
+package net.bubbaland.trivia.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the server's message, broadcast, save and standings paths.
+ *
+ * Events are cheap when no recording is running, so they are always emitted. With a recording they line up with GC,
+ * lock and thread activity in the same timeline, which shows why a particular message or broadcast was slow.
+ *
+ * @author Walter Kolczynski
+ */
+class ServerEvents {
+
+	private ServerEvents() {}
+
+	@Name("net.bubbaland.trivia.MessageDecoded")
+	@Label("Message Decoded")
+	@Category({ "Trivia", "Messages" })
+	@Description("A message decoded from a frame received from a client")
+	@StackTrace(false)
+	static class MessageDecoded extends Event {
+		@Label("Type")
+		String	type;
+		@Label("Format")
+		String	format;
+		@Label("Size")
+		@Description("Characters for text formats, bytes for binary ones")
+		long	size;
+	}
+
+	@Name("net.bubbaland.trivia.MessageReceived")
+	@Label("Message Received")
+	@Category({ "Trivia", "Messages" })
+	@Description("A message from a client, from receipt until the writer thread starts applying it")
+	@StackTrace(false)
+	static class MessageReceived extends Event {
+		@Label("Type")
+		String	type;
+		@Label("Round")
+		int		round;
+		@Label("User")
+		String	user;
+	}
+
+	@Name("net.bubbaland.trivia.MessageApplied")
+	@Label("Message Applied")
+	@Category({ "Trivia", "Messages" })
+	@Description("A message applied to the contest state by its handler")
+	@StackTrace(false)
+	static class MessageApplied extends Event {
+		@Label("Type")
+		String	type;
+		@Label("Round")
+		int		round;
+		@Label("User")
+		String	user;
+		@Label("Mutates")
+		boolean	mutates;
+		@Label("Replayed")
+		@Description("Whether the message was replayed from the journal")
+		boolean	replayed;
+	}
+
+	@Name("net.bubbaland.trivia.Broadcast")
+	@Label("Broadcast")
+	@Category({ "Trivia", "Broadcasts" })
+	@Description("Frames queued for every connected client")
+	@StackTrace(false)
+	static class Broadcast extends Event {
+		@Label("Kind")
+		@Description("rounds, message or trivia")
+		String	kind;
+		@Label("Sessions")
+		int		sessions;
+		@Label("Frames")
+		int		frames;
+		@Label("Size")
+		@Description("Encoded size of everything queued, characters for text formats and bytes for binary ones")
+		long	size;
+	}
+
+	@Name("net.bubbaland.trivia.SaveState")
+	@Label("Save State")
+	@Category({ "Trivia", "Persistence" })
+	@Description("The contest state written to a save file")
+	static class SaveState extends Event {
+		@Label("Save Name")
+		String	saveName;
+	}
+
+	@Name("net.bubbaland.trivia.SaveCharts")
+	@Label("Save Charts")
+	@Category({ "Trivia", "Persistence" })
+	@Description("The score charts rendered and written for publishing")
+	static class SaveCharts extends Event {
+		@Label("Round")
+		int	round;
+	}
+
+	@Name("net.bubbaland.trivia.FetchStandings")
+	@Label("Fetch Standings")
+	@Category({ "Trivia", "Standings" })
+	@Description("Announced standings requested from the station")
+	static class FetchStandings extends Event {
+		@Label("Round")
+		int		round;
+		@Label("URL")
+		String	url;
+		@Label("Entries")
+		@Description("The number of teams parsed, or -1 if the standings weren't available")
+		int		entries;
+	}
+
+}
@@ -0,0 +1,433 @@
+package net.bubbaland.trivia.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Asynchronous, structured server log.
+ *
+ * Records are placed in a lock-free ring buffer by the logging thread and formatted and written by a single background
+ * thread, so logging never blocks on the console or the disk. Messages can be given as suppliers, which are only
+ * evaluated by the writer. If the buffer is full, the record is dropped and counted rather than waiting for room.
+ *
+ * Each record is written on one line, with the time, the thread and the fields of the message being applied when it
+ * was logged (user, message type, round, question and answer queue index), so a contest log can be searched by round
+ * with a pattern like "round=12 ". Line breaks inside a message are written as "\n".
+ *
+ * Once a log directory is configured, records are also appended to trivia-server.log in that directory. When the file
+ * reaches its size limit it is renamed with a timestamp and compressed, and the oldest compressed logs beyond the
+ * configured count are deleted.
+ *
+ * @author Walter Kolczynski
+ */
+class ServerLog {
+
+	// Name of the current log file
+	private static final String				FILENAME			= "trivia-server.log";
+	// How long the writer sleeps when there is nothing to write (nanoseconds)
+	private static final long				IDLE_NANOS			= 5000000;
+	// Format for the time at the start of each line
+	private static final DateTimeFormatter	TIME_FORMAT			=
+			DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+	// Format for the time in the names of rotated files
+	private static final DateTimeFormatter	ROTATE_FORMAT		=
+			DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+
+	// The message being applied on each thread, if any
+	private static final ThreadLocal<Context>	CONTEXT			= new ThreadLocal<Context>();
+
+	// Ring buffer of records waiting to be written; slots are cleared once written
+	final private AtomicReferenceArray<Record>	slots;
+	final private int							mask;
+	// Next slot to claim and next slot to write
+	final private AtomicLong					tail;
+	final private AtomicLong					head;
+	// Records dropped because the buffer was full
+	final private LongAdder						droppedCount;
+	final private Thread						writerThread;
+
+	// Where records are written
+	private volatile Settings					settings;
+	private volatile boolean					closed;
+
+	// Current log file (writer thread only)
+	private BufferedWriter						fileWriter;
+	private long								fileSize;
+	// Drops already reported (writer thread only)
+	private long								reportedDrops;
+
+	/**
+	 * Create a new log writing to the console, and start its writer thread.
+	 *
+	 * @param capacity
+	 *            The most records waiting to be written, rounded up to a power of two
+	 */
+	ServerLog(int capacity) {
+		final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new AtomicReferenceArray<Record>(size);
+		this.mask = size - 1;
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+		this.droppedCount = new LongAdder();
+		this.settings = new Settings(null, 0, 0, true);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ServerLog.this.drain();
+			}
+		}, "Log writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Set where the log is written. Takes effect with the next record written.
+	 *
+	 * @param directory
+	 *            Directory to hold the log files, or null to only write to the console
+	 * @param maxSize
+	 *            Size at which the log file is rotated (bytes)
+	 * @param maxFiles
+	 *            The most rotated files kept
+	 * @param console
+	 *            Whether to also write to the console
+	 */
+	void configure(String directory, long maxSize, int maxFiles, boolean console) {
+		this.settings = new Settings(directory, maxSize, maxFiles, console);
+	}
+
+	/**
+	 * Log a message.
+	 *
+	 * @param message
+	 *            The message
+	 */
+	void log(String message) {
+		this.offer(message);
+	}
+
+	/**
+	 * Log a message that is only built when it is written.
+	 *
+	 * @param message
+	 *            Builds the message; must only use values that won't change
+	 */
+	void log(Supplier<String> message) {
+		this.offer(message);
+	}
+
+	/**
+	 * Add a record to the buffer, dropping it if the buffer is full.
+	 *
+	 * @param message
+	 *            The message or its supplier
+	 */
+	private void offer(Object message) {
+		if (this.closed) {
+			// No writer any more
+			System.out.println(TIME_FORMAT.format(Instant.now()) + " [" + Thread.currentThread().getName() + "]: "
+					+ ( message instanceof Supplier<?> ? ( (Supplier<?>) message ).get() : message ));
+			return;
+		}
+		final Record record =
+				new Record(System.currentTimeMillis(), Thread.currentThread().getName(), CONTEXT.get(), message);
+		long slot;
+		do {
+			slot = this.tail.get();
+			if (slot - this.head.get() > this.mask) {
+				this.droppedCount.increment();
+				return;
+			}
+		} while (!this.tail.compareAndSet(slot, slot + 1));
+		this.slots.set((int) ( slot & this.mask ), record);
+	}
+
+	/**
+	 * Set the fields added to records logged by this thread while a message is being applied.
+	 *
+	 * @param user
+	 *            The name of the user who sent the message
+	 * @param type
+	 *            The message type
+	 * @param round
+	 *            The round number, or 0 if none
+	 * @param question
+	 *            The question number, or 0 if none
+	 * @param answer
+	 *            The answer queue index, or -1 if none
+	 */
+	static void setContext(String user, String type, int round, int question, int answer) {
+		CONTEXT.set(new Context(user, type, round, question, answer));
+	}
+
+	/**
+	 * Stop adding message fields to records logged by this thread.
+	 */
+	static void clearContext() {
+		CONTEXT.remove();
+	}
+
+	/**
+	 * Write everything waiting and close the log file. Records logged afterwards are only written to the console.
+	 *
+	 * @param timeout
+	 *            Longest to wait for the writer (milliseconds)
+	 */
+	void close(long timeout) {
+		this.closed = true;
+		LockSupport.unpark(this.writerThread);
+		try {
+			this.writerThread.join(timeout);
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of records dropped because the buffer was full
+	 */
+	long getDroppedCount() {
+		return this.droppedCount.sum();
+	}
+
+	/**
+	 * Write records as they arrive until the log is closed and empty.
+	 */
+	private void drain() {
+		while (true) {
+			final long next = this.head.get();
+			final int index = (int) ( next & this.mask );
+			final Record record = this.slots.get(index);
+			if (record == null) {
+				// Empty, or a record is still being stored
+				if (this.closed && this.tail.get() == next) {
+					break;
+				}
+				this.flush();
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			this.slots.set(index, null);
+			this.head.set(next + 1);
+			this.write(record);
+		}
+		this.flush();
+		this.closeFile();
+	}
+
+	/**
+	 * Format and write a record.
+	 *
+	 * @param record
+	 *            The record
+	 */
+	private void write(Record record) {
+		final long dropped = this.droppedCount.sum();
+		if (dropped != this.reportedDrops) {
+			final long newDrops = dropped - this.reportedDrops;
+			this.reportedDrops = dropped;
+			this.write(new Record(record.time, "Log writer", null, newDrops + " log records dropped"));
+		}
+
+		final StringBuilder line = new StringBuilder(128);
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(record.time), line);
+		line.append(" [").append(record.thread).append(']');
+		final Context context = record.context;
+		if (context != null) {
+			line.append(" user=").append(context.user).append(" type=").append(context.type);
+			if (context.round > 0) {
+				line.append(" round=").append(context.round);
+			}
+			if (context.question > 0) {
+				line.append(" question=").append(context.question);
+			}
+			if (context.answer >= 0) {
+				line.append(" answer=").append(context.answer);
+			}
+		}
+		line.append(": ");
+		String message;
+		try {
+			message = record.message instanceof Supplier<?> ? String.valueOf(( (Supplier<?>) record.message ).get())
+					: String.valueOf(record.message);
+		} catch (final RuntimeException exception) {
+			message = "(couldn't build message: " + exception + ")";
+		}
+		line.append(message.replace("\r", "").replace("\n", "\\n"));
+		final String text = line.toString();
+
+		final Settings settings = this.settings;
+		if (settings.console) {
+			System.out.println(text);
+		}
+		if (settings.directory != null) {
+			this.writeFile(settings, text);
+		}
+	}
+
+	/**
+	 * Append a line to the log file, rotating it if it is full.
+	 *
+	 * @param settings
+	 *            The output settings
+	 * @param text
+	 *            The line
+	 */
+	private void writeFile(Settings settings, String text) {
+		try {
+			if (this.fileWriter == null) {
+				final File directory = new File(settings.directory);
+				directory.mkdirs();
+				final File file = new File(directory, FILENAME);
+				this.fileSize = file.length();
+				this.fileWriter = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+			}
+			this.fileWriter.write(text);
+			this.fileWriter.newLine();
+			this.fileSize += text.length() + 1;
+			if (this.fileSize >= settings.maxSize) {
+				this.rotate(settings);
+			}
+		} catch (final IOException exception) {
+			System.out.println("Couldn't write log file: " + exception);
+			this.closeFile();
+		}
+	}
+
+	/**
+	 * Close the log file, compress it under a timestamped name and delete the oldest compressed logs.
+	 *
+	 * @param settings
+	 *            The output settings
+	 * @throws IOException
+	 *             If the file can't be compressed
+	 */
+	private void rotate(Settings settings) throws IOException {
+		this.closeFile();
+		final Path current = Paths.get(settings.directory, FILENAME);
+		final String stamp = "trivia-server_" + ROTATE_FORMAT.format(Instant.now());
+		String baseName = stamp;
+		for (int n = 1; Files.exists(current.resolveSibling(baseName + ".log.gz")); n++) {
+			baseName = stamp + "_" + n;
+		}
+		final Path rotated = current.resolveSibling(baseName + ".log");
+		Files.move(current, rotated);
+		try (OutputStream output =
+				new GZIPOutputStream(new FileOutputStream(rotated.resolveSibling(baseName + ".log.gz").toFile()))) {
+			Files.copy(rotated, output);
+		}
+		Files.delete(rotated);
+
+		final File[] compressed =
+				new File(settings.directory).listFiles((dir, name) -> name.matches("trivia-server_.*\\.log\\.gz"));
+		if (compressed != null && compressed.length > settings.maxFiles) {
+			// Timestamped names sort oldest first
+			Arrays.sort(compressed);
+			for (int f = 0; f < compressed.length - settings.maxFiles; f++) {
+				compressed[f].delete();
+			}
+		}
+	}
+
+	/**
+	 * Write buffered output.
+	 */
+	private void flush() {
+		if (this.fileWriter != null) {
+			try {
+				this.fileWriter.flush();
+			} catch (final IOException exception) {
+				System.out.println("Couldn't write log file: " + exception);
+				this.closeFile();
+			}
+		}
+	}
+
+	/**
+	 * Close the log file, if open.
+	 */
+	private void closeFile() {
+		if (this.fileWriter != null) {
+			try {
+				this.fileWriter.close();
+			} catch (final IOException exception) {
+				exception.printStackTrace();
+			}
+			this.fileWriter = null;
+		}
+	}
+
+	/**
+	 * A logged message waiting to be written.
+	 */
+	private static class Record {
+		final private long		time;
+		final private String	thread;
+		final private Context	context;
+		// The message, or a Supplier that builds it
+		final private Object	message;
+
+		private Record(long time, String thread, Context context, Object message) {
+			this.time = time;
+			this.thread = thread;
+			this.context = context;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Fields of the message being applied when a record was logged.
+	 */
+	private static class Context {
+		final private String	user;
+		final private String	type;
+		final private int		round;
+		final private int		question;
+		final private int		answer;
+
+		private Context(String user, String type, int round, int question, int answer) {
+			this.user = user;
+			this.type = type;
+			this.round = round;
+			this.question = question;
+			this.answer = answer;
+		}
+	}
+
+	/**
+	 * Where the log is written.
+	 */
+	private static class Settings {
+		final private String	directory;
+		final private long		maxSize;
+		final private int		maxFiles;
+		final private boolean	console;
+
+		private Settings(String directory, long maxSize, int maxFiles, boolean console) {
+			this.directory = directory;
+			this.maxSize = maxSize;
+			this.maxFiles = maxFiles;
+			this.console = console;
+		}
+	}
+
+}
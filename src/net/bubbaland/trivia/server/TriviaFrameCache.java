@@ -0,0 +1,98 @@
+package net.bubbaland.trivia.server;
+
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.messages.TriviaDataMessage;
+
+/**
+ * Holds the encoded trivia data for the current snapshot.
+ *
+ * Encoding the entire contest is the most expensive message the server sends, and it is usually requested by many
+ * clients at once when they all reconnect after a network outage. The frame is encoded on the first request and reused
+ * until the trivia changes, so any number of fetches between two changes cost one serialization per wire format.
+ *
+ * The cached frame is matched against the round copies in the snapshot rather than only their version numbers. The
+ * pipeline reuses a round copy until the round changes in any way, including changes that don't bump its version such as
+ * a user renaming themselves or a save being loaded.
+ *
+ * @author Walter Kolczynski
+ */
+class TriviaFrameCache {
+
+	// The snapshot rounds and trivia-level values the frame was encoded from
+	private Round[]				rounds;
+	private int					currentRoundNumber;
+	private int					nVisual;
+	private int					teamNumber;
+	private long				epoch;
+
+	// The encoded trivia data
+	private OutboundQueue.Frame	frame;
+
+	// Statistics
+	private long				hitCount;
+	private long				missCount;
+
+	/**
+	 * Get the encoded trivia data for a snapshot, encoding it only if it differs from the last one.
+	 *
+	 * @param trivia
+	 *            A snapshot of the trivia data
+	 * @param epoch
+	 *            The current epoch of the round versions
+	 * @return The frame
+	 */
+	synchronized OutboundQueue.Frame get(Trivia trivia, long epoch) {
+		if (this.frame != null && epoch == this.epoch && this.matches(trivia)) {
+			this.hitCount++;
+			return this.frame;
+		}
+		this.missCount++;
+		this.frame = OutboundQueue.Frame.trivia(new TriviaDataMessage(trivia, epoch));
+		this.rounds = trivia.getRounds().clone();
+		this.currentRoundNumber = trivia.getCurrentRoundNumber();
+		this.nVisual = trivia.getNVisual();
+		this.teamNumber = trivia.getTeamNumber();
+		this.epoch = epoch;
+		return this.frame;
+	}
+
+	/**
+	 * Whether a snapshot holds the same data the cached frame was encoded from.
+	 *
+	 * @param trivia
+	 *            A snapshot of the trivia data
+	 * @return true if the cached frame can be reused
+	 */
+	private boolean matches(Trivia trivia) {
+		if (trivia.getCurrentRoundNumber() != this.currentRoundNumber || trivia.getNVisual() != this.nVisual
+				|| trivia.getTeamNumber() != this.teamNumber) {
+			return false;
+		}
+		final Round[] snapshotRounds = trivia.getRounds();
+		if (snapshotRounds.length != this.rounds.length) {
+			return false;
+		}
+		for (int r = 0; r < snapshotRounds.length; r++) {
+			if (snapshotRounds[r] != this.rounds[r]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * @return the number of requests that had to encode the trivia data
+	 */
+	synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+}
@@ -5,37 +5,64 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.DeploymentException;
 import javax.websocket.Session;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
 import org.glassfish.tyrus.server.Server;
 import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.select.Elements;
 
+import net.bubbaland.trivia.Answer;
 import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Answer.Status;
 import net.bubbaland.trivia.Round;
 import net.bubbaland.trivia.ScoreEntry;
 import net.bubbaland.trivia.Trivia;
 import net.bubbaland.trivia.TriviaChartFactory;
 import net.bubbaland.trivia.User;
 import net.bubbaland.trivia.User.Role;
+import net.bubbaland.trivia.messages.AgreementDeltaMessage;
 import net.bubbaland.trivia.messages.AgreementMessage;
+import net.bubbaland.trivia.messages.AnswerAddedDeltaMessage;
+import net.bubbaland.trivia.messages.AnswerMessage;
+import net.bubbaland.trivia.messages.AnswerStatusDeltaMessage;
 import net.bubbaland.trivia.messages.CallInAnswerMessage;
 import net.bubbaland.trivia.messages.ChangeUserMessage;
 import net.bubbaland.trivia.messages.CloseQuestionMessage;
 import net.bubbaland.trivia.messages.EditQuestionMessage;
+import net.bubbaland.trivia.messages.FetchRoundMessage;
+import net.bubbaland.trivia.messages.FetchTriviaMessage;
+import net.bubbaland.trivia.messages.GetSaveListMessage;
 import net.bubbaland.trivia.messages.SetDiscrepencyTextMessage;
 import net.bubbaland.trivia.messages.SetEffortMessage;
 import net.bubbaland.trivia.messages.SetNQuestionsMessage;
@@ -52,19 +79,27 @@ import net.bubbaland.trivia.messages.MarkAnswerPartialMessage;
 import net.bubbaland.trivia.messages.MarkAnswerUncalledMessage;
 import net.bubbaland.trivia.messages.Message;
 import net.bubbaland.trivia.messages.OpenQuestionMessage;
+import net.bubbaland.trivia.messages.PerMessageDeflate;
 import net.bubbaland.trivia.messages.ProposeAnswerMessage;
+import net.bubbaland.trivia.messages.QuestionDeltaMessage;
+import net.bubbaland.trivia.messages.QuestionMessage;
 import net.bubbaland.trivia.messages.RemapQuestionMessage;
+import net.bubbaland.trivia.messages.ResumeSessionMessage;
 import net.bubbaland.trivia.messages.ReopenQuestionMessage;
 import net.bubbaland.trivia.messages.ResetQuestionMessage;
+import net.bubbaland.trivia.messages.RestartTimerMessage;
+import net.bubbaland.trivia.messages.RoundDeltaMessage;
+import net.bubbaland.trivia.messages.RoundMessage;
 import net.bubbaland.trivia.messages.SaveListMessage;
 import net.bubbaland.trivia.messages.SetRoundMessage;
 import net.bubbaland.trivia.messages.SetShowHostMessage;
 import net.bubbaland.trivia.messages.SetShowNameMessage;
 import net.bubbaland.trivia.messages.SetSpeedRoundMessage;
 import net.bubbaland.trivia.messages.SetTeamNumberMessage;
-import net.bubbaland.trivia.messages.TriviaDataMessage;
 import net.bubbaland.trivia.messages.UpdateRoundsMessage;
 import net.bubbaland.trivia.messages.UserListMessage;
+import net.bubbaland.trivia.messages.WireFormat;
+import net.bubbaland.trivia.server.MessageHandler.Trait;
 
 public class TriviaServer {
 
@@ -86,8 +121,14 @@ public class TriviaServer {
 	private int											chartWidth;
 	// Date format to use for backup file names
 	public static final SimpleDateFormat				fileDateFormat		= new SimpleDateFormat("yyyy_MMM_dd_HHmm");
-	// Boolean that tracks whether the server is running
-	private boolean										isRunning;
+	// Whether the server is shutting down and refusing new connections and messages
+	private volatile boolean							closing;
+	// Whether the server started accepting connections
+	private volatile boolean							started;
+	// Released once the server has shut down
+	final private CountDownLatch						stopped				= new CountDownLatch(1);
+	// Longest to wait for queued frames to be sent when shutting down (milliseconds)
+	private int											drainTimeout;
 	// The number of questions in a normal round
 	private int											nQuestionsNormal;
 	// The number of questions in a speed round
@@ -104,7 +145,7 @@ public class TriviaServer {
 	private int											serverPort;
 	// The server URL
 	private String										serverURL;
-	private Hashtable<Session, TriviaServerEndpoint>	sessionList;
+	private ConcurrentHashMap<Session, TriviaServerEndpoint>	sessionList;
 	// File name holding the server settings
 	final private String								SETTINGS_FILENAME	= ".trivia-server-settings";
 	// Frequency to check for standings (milliseconds)
@@ -121,29 +162,231 @@ public class TriviaServer {
 
 	final private SaveMediator							saveMediator;
 
+	final private BroadcastEngine						broadcastEngine;
+
+	// Journal of applied mutations (null if journaling is disabled)
+	private MessageJournal								journal;
+	// Frequency of full snapshots when journaling (seconds)
+	private int											snapshotFrequency;
+	// Whether the journal is being replayed
+	private boolean										replaying;
+	// When the message being applied was received, or when it was first applied if it is being replayed
+	private long										applyTime;
+	// The active users the message being applied depended on (null if none), recorded for the journal
+	private User[]										appliedUsers;
+	// Applies all changes to the trivia state and publishes snapshots for readers
+	private MutationPipeline							pipeline;
+	// Merges round broadcasts made close together
+	private BroadcastCoalescer							broadcastCoalescer;
+	// Length of the broadcast coalescing window (milliseconds)
+	private int											coalesceWindow;
+	// Most encoded bytes of deltas sent for one round in a broadcast before the full round is sent instead
+	private int											maxDeltaBytes;
+	// Identifies the current line of round versions, so clients can tell whether their versions can be resumed
+	private long										epoch				= newEpoch();
+	// The encoded trivia data for the current snapshot
+	final private TriviaFrameCache						triviaFrameCache	= new TriviaFrameCache();
+	// Most frames allowed to wait for each client
+	private int											outboundCapacity;
+	// Longest a client may take to accept a frame before it is disconnected (milliseconds)
+	private int											outboundMaxLag;
+	// Frames larger than this are sent in pieces of this size (characters or bytes)
+	private int											outboundFragmentSize;
+	// Compression negotiated with clients that support it (null if disabled)
+	private PerMessageDeflate							deflate;
+	// Whether to publish metrics through JMX
+	private boolean										metricsJMX;
+	// Port on the loopback address serving metrics as text (0 to disable)
+	private int											metricsPort;
+	// Continuous flight recording of the server's events (null if disabled)
+	private Recording									recording;
+
+	// Writes the server log from a background thread
+	static final ServerLog								LOG					= new ServerLog(16384);
+	// Counters and histograms describing what the server is doing
+	static final MetricsRegistry						METRICS				= new MetricsRegistry();
+
+	// Handlers for each type of message a client can send
+	final private Map<Class<? extends Message>, MessageHandler<?>>	handlers	=
+			new HashMap<Class<? extends Message>, MessageHandler<?>>();
+
+	// Traits shared by many handlers
+	private static final EnumSet<Trait>				READS				= EnumSet.noneOf(Trait.class);
+	private static final EnumSet<Trait>				ROUND_CHANGE		=
+			EnumSet.of(Trait.MUTATES, Trait.TOUCHES_ROUND, Trait.BROADCASTS_ROUNDS);
+
 	public TriviaServer() {
+		this(null);
+	}
+
+	/**
+	 * Create a server with some of its settings replaced, such as the directories it keeps its files in.
+	 *
+	 * @param settings
+	 *            Settings that take the place of the default and local ones, or null
+	 */
+	TriviaServer(Properties settings) {
 		TriviaServer.log("Starting server...");
 		this.properties = new Properties();
-		this.loadSettings();
+		this.loadSettings(settings);
 		this.saveMediator = new SaveMediator(this.saveDirectory, this.chartDirectory);
+		this.broadcastEngine = new BroadcastEngine(this.maxDeltaBytes);
+		this.registerHandlers();
+		if (Boolean.parseBoolean(this.properties.getProperty("Journal.Enabled"))) {
+			this.recoverFromJournal();
+		}
+		this.pipeline = new MutationPipeline(() -> this.trivia, this.journal);
+		this.broadcastCoalescer = new BroadcastCoalescer(this.pipeline, this.coalesceWindow,
+				deltas -> this.broadcastEngine.broadcastChangedRounds(this.trivia, this.sessionList, deltas));
+		this.pipeline.start();
 		// Create timer that will make save files
 		this.restartTimer();
+		this.registerMetrics();
+		if (Boolean.parseBoolean(this.properties.getProperty("FlightRecorder.Enabled"))) {
+			this.startFlightRecording();
+		}
 		this.server = new Server(this.serverURL, this.serverPort, "/", null, TriviaServerEndpoint.class);
 	}
 
 	private void start() throws DeploymentException {
 		this.server.start();
+		this.started = true;
+	}
+
+	/**
+	 * Shut the server down: refuse new connections and messages, apply the changes already received, send what is
+	 * waiting for each client, save a final snapshot, then close the journal and the connections. Each step is timed
+	 * and logged. Only the first call does anything. If the server never started (another server may already be using
+	 * the same port and directories), no snapshot is saved and the journal isn't checkpointed.
+	 */
+	void shutdown() {
+		synchronized (this) {
+			if (this.closing) {
+				return;
+			}
+			this.closing = true;
+		}
+		final long start = System.nanoTime();
+		TriviaServer.log("Shutting down...");
+
+		this.shutdownStep("stop timers", () -> {
+			for (final ScheduledExecutorService timer : new ScheduledExecutorService[] { this.saveTimer,
+					this.standingsTimer }) {
+				if (timer != null) {
+					timer.shutdownNow();
+					timer.awaitTermination(5, TimeUnit.SECONDS);
+				}
+			}
+		});
+		this.shutdownStep("apply queued changes", () -> {
+			// Send any broadcast still waiting for its coalescing window
+			this.pipeline.submit(this.broadcastCoalescer::flush);
+			this.pipeline.stop();
+			this.broadcastCoalescer.stop();
+		});
+		this.shutdownStep("drain outbound queues", this::drainOutbound);
+		if (this.started) {
+			this.shutdownStep("save final snapshot", this::saveSnapshot);
+		} else {
+			TriviaServer.log("Shutdown: server never started, not saving a snapshot");
+		}
+		if (this.journal != null) {
+			this.shutdownStep("close journal", this.journal::close);
+		}
+		this.shutdownStep("close connections", this.server::stop);
+		this.shutdownStep("stop metrics endpoint", METRICS::stopHttpServer);
+
+		TriviaServer.log("Server shut down in " + ( System.nanoTime() - start ) / 1000000 + " ms");
+		LOG.close(5000);
+		this.stopped.countDown();
+	}
+
+	/**
+	 * A step of shutting down, which may fail without stopping the rest.
+	 */
+	private interface ShutdownStep {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Run one step of shutting down and log how long it took.
+	 *
+	 * @param name
+	 *            Description of the step
+	 * @param step
+	 *            The step
+	 */
+	private void shutdownStep(String name, ShutdownStep step) {
+		final long start = System.nanoTime();
+		try {
+			step.run();
+		} catch (final Exception exception) {
+			TriviaServer.log("Couldn't " + name + " during shutdown");
+			exception.printStackTrace();
+		}
+		TriviaServer.log("Shutdown: " + name + " took " + ( System.nanoTime() - start ) / 1000000 + " ms");
+	}
+
+	/**
+	 * Wait for every client's outbound queue to empty, up to the drain timeout.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	private void drainOutbound() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + this.drainTimeout;
+		while (true) {
+			int busy = 0;
+			for (final TriviaServerEndpoint endpoint : this.sessionList.values()) {
+				final OutboundQueue outbound = endpoint.getOutboundQueue();
+				if (outbound != null && !outbound.isIdle()) {
+					busy++;
+				}
+			}
+			if (busy == 0) {
+				return;
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				TriviaServer.log(busy + " clients still had frames waiting after " + this.drainTimeout + " ms");
+				return;
+			}
+			Thread.sleep(10);
+		}
 	}
 
-	private void stop() {
-		this.server.stop();
+	/**
+	 * Block until the server has shut down.
+	 */
+	private void awaitShutdown() {
+		try {
+			this.stopped.await();
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	Trivia getTrivia() {
 		return this.trivia;
 	}
 
-	private void loadSettings() {
+	/**
+	 * Wait until the messages already received have been applied and published, so the next snapshot includes them.
+	 *
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	void awaitApplied() throws InterruptedException {
+		this.pipeline.awaitPublished();
+	}
+
+	/**
+	 * @return the compression extension offered to clients, or null if compression is disabled
+	 */
+	PerMessageDeflate getDeflate() {
+		return this.deflate;
+	}
+
+	private void loadSettings(Properties settings) {
 		// Get default properties from the package
 		this.defaults = TriviaServerEndpoint.class.getResourceAsStream(this.SETTINGS_FILENAME);
 
@@ -168,6 +411,9 @@ public class TriviaServer {
 		} catch (final IOException e) {
 			TriviaServer.log("Couldn't load local properties file, may not exist.");
 		}
+		if (settings != null) {
+			this.properties.putAll(settings);
+		}
 
 		TriviaChartFactory.loadProperties(this.properties);
 
@@ -189,14 +435,81 @@ public class TriviaServer {
 		this.chartWidth = Integer.parseInt(this.properties.getProperty("Chart.Width"));
 		this.chartHeight = Integer.parseInt(this.properties.getProperty("Chart.Height"));
 		this.standingsBaseURL = this.properties.getProperty("StandingsURL");
+		this.snapshotFrequency = Integer.parseInt(this.properties.getProperty("Journal.SnapshotFrequency"));
+		this.coalesceWindow = Integer.parseInt(this.properties.getProperty("Broadcast.CoalesceWindow"));
+		this.maxDeltaBytes = Integer.parseInt(this.properties.getProperty("Broadcast.MaxDeltaBytes"));
+		this.outboundCapacity = Integer.parseInt(this.properties.getProperty("Outbound.Capacity"));
+		this.outboundMaxLag = Integer.parseInt(this.properties.getProperty("Outbound.MaxLag"));
+		this.outboundFragmentSize = Integer.parseInt(this.properties.getProperty("Outbound.FragmentSize"));
+		this.metricsJMX = Boolean.parseBoolean(this.properties.getProperty("Metrics.JMX"));
+		this.metricsPort = Integer.parseInt(this.properties.getProperty("Metrics.Port"));
+		this.drainTimeout = Integer.parseInt(this.properties.getProperty("Shutdown.DrainTimeout"));
+		LOG.configure(this.properties.getProperty("Log.Dir"),
+				Long.parseLong(this.properties.getProperty("Log.MaxSize")),
+				Integer.parseInt(this.properties.getProperty("Log.MaxFiles")),
+				Boolean.parseBoolean(this.properties.getProperty("Log.Console")));
+		if (Boolean.parseBoolean(this.properties.getProperty("Deflate.Enabled"))) {
+			this.deflate = new PerMessageDeflate(true, Integer.parseInt(this.properties.getProperty("Deflate.Level")),
+					Boolean.parseBoolean(this.properties.getProperty("Deflate.ServerNoContextTakeover")),
+					Boolean.parseBoolean(this.properties.getProperty("Deflate.ClientNoContextTakeover")),
+					Integer.parseInt(this.properties.getProperty("Deflate.Threshold")));
+		}
 
 		/**
 		 * Create a new trivia data object and list of connected clients
 		 */
 		this.trivia = new Trivia(this.teamName, this.teamNumber, this.nRounds, this.nQuestionsNormal,
 				this.nQuestionsSpeed, this.nQuestionsMax);
-		this.sessionList = new Hashtable<Session, TriviaServerEndpoint>(0);
-		this.isRunning = false;
+		this.sessionList = new ConcurrentHashMap<Session, TriviaServerEndpoint>();
+	}
+
+	/**
+	 * Restore the last snapshot and replay the journal on top of it, then open the journal for new entries.
+	 */
+	private void recoverFromJournal() {
+		this.journal = new MessageJournal(this.properties.getProperty("Journal.Dir"),
+				MessageJournal.FsyncPolicy.valueOf(this.properties.getProperty("Journal.Fsync")),
+				Long.parseLong(this.properties.getProperty("Journal.FsyncInterval")),
+				Long.parseLong(this.properties.getProperty("Journal.SegmentSize")));
+
+		final String snapshotName = this.journal.getSnapshotName();
+		final ArrayList<MessageJournal.Entry> entries = this.journal.readEntries();
+		if (snapshotName != null) {
+			TriviaServer.log("Restoring snapshot " + snapshotName);
+			this.trivia = this.saveMediator.loadState(this.trivia, "Journal", snapshotName);
+		}
+		this.replaying = true;
+		for (final MessageJournal.Entry entry : entries) {
+			final User user = new User(this.nRounds);
+			user.setUserName(entry.getUserName());
+			// Entries from before the time was recorded are applied as of now
+			this.applyTime = entry.getTime() == 0 ? System.currentTimeMillis() : entry.getTime();
+			this.appliedUsers = entry.getUsers();
+			this.applyMessage(entry.getMessage(), user, null);
+		}
+		this.replaying = false;
+		TriviaServer.log("Replayed " + entries.size() + " journal entries");
+
+		try {
+			this.journal.open();
+		} catch (final IOException exception) {
+			exception.printStackTrace();
+			TriviaServer.log("Couldn't open journal, aborting!");
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Get the active users for a handler whose result depends on them. When replaying the journal, these are the users
+	 * that were active when the message was first applied; otherwise they are recorded for the journal.
+	 *
+	 * @return The active users, or null if none were recorded
+	 */
+	private User[] getAppliedUsers() {
+		if (!this.replaying) {
+			this.appliedUsers = this.getUserList();
+		}
+		return this.appliedUsers;
 	}
 
 	public User[] getUserList() {
@@ -209,372 +522,558 @@ public class TriviaServer {
 	}
 
 	public void processIncomingMessage(Message genericMessage, Session session) {
-		String messageType = genericMessage.getClass().getSimpleName();
 		final TriviaServerEndpoint userConnection = this.sessionList.get(session);
+		if (this.closing || userConnection == null) {
+			TriviaServer.log("Ignoring " + genericMessage.getClass().getSimpleName() + " received while shutting down");
+			return;
+		}
 		final User user = userConnection.getUser();
-		final String userName = user.getUserName();
 		user.updateActivity();
+		this.submitMessage(genericMessage, user, session);
+	}
 
-		switch (messageType) {
-			case "GetSaveListMessage": {
-				this.sendMessage(session, new SaveListMessage(this.saveMediator.listSaves()));
-				log(userName + " requested the save list");
-				break;
-			}
-			case "LoadSaveMessage": {
-				LoadSaveMessage message = (LoadSaveMessage) genericMessage;
-				String saveName = message.getSaveName();
-				this.trivia = this.saveMediator.loadState(this.trivia, userName, saveName);
-				log("Loaded state from " + message.getSaveName());
-				this.broadcastMessage(new TriviaDataMessage(trivia));
+	/**
+	 * Queue a message from a user to be applied by the writer thread, and journal it if it changes the trivia data.
+	 *
+	 * @param genericMessage
+	 *            The message
+	 * @param user
+	 *            The user who sent the message
+	 * @param session
+	 *            The user's session, or null if there is nobody to reply to
+	 */
+	void submitMessage(Message genericMessage, User user, Session session) {
+		final String messageType = genericMessage.getClass().getSimpleName();
+		METRICS.counter(MetricsRegistry.name("messages_received_total", "type", messageType)).increment();
+		final long received = System.nanoTime();
+		final ServerEvents.MessageReceived event = new ServerEvents.MessageReceived();
+		event.begin();
 
-				try {
-					for (int r = 1; r <= TriviaServer.this.trivia.getCurrentRoundNumber(); r++) {
-						// For each past round, try to get announced standings if we don't have them
-						if (!TriviaServer.this.trivia.getRound(r).isAnnounced()) {
-							final ScoreEntry[] standings = TriviaServer.this.fetchStandings(r);
-							if (standings != null) {
-								TriviaServer.this.trivia.getRound(r).setStandings(standings,
-										TriviaServer.this.trivia.getTeamName());
-								TriviaServer.this.broadcastChangedRounds();
-							}
-						}
-					}
-				} catch (final Exception e) {
-					e.printStackTrace();
+		this.pipeline.submit(new Runnable() {
+			@Override
+			public void run() {
+				// The name as of this message, after any renames queued before it
+				final String userName = user.getUserName();
+				event.end();
+				if (event.shouldCommit()) {
+					event.type = messageType;
+					event.round = roundNumber(genericMessage);
+					event.user = userName;
+					event.commit();
 				}
-
-				log(userName + " loaded save from file " + saveName);
-				break;
+				TriviaServer.this.applyTime = System.currentTimeMillis();
+				TriviaServer.this.appliedUsers = null;
+				final MessageHandler<?> handler = TriviaServer.this.applyMessage(genericMessage, user, session);
+				if (TriviaServer.this.journal != null && handler != null && handler.mutates()) {
+					TriviaServer.this.journal.append(userName, genericMessage, TriviaServer.this.applyTime,
+							TriviaServer.this.appliedUsers);
+				}
+				// Includes the time spent waiting for the writer thread
+				METRICS.histogram(MetricsRegistry.name("message_latency_nanoseconds", "type", messageType))
+						.recordSince(received);
 			}
-			case "FetchTriviaMessage": {
-				final Trivia trivia = this.trivia;
-				this.sendMessage(session, new TriviaDataMessage(trivia));
-				user.setRoundVersions(trivia.getVersions());
-				log(userName + " requested the trivia data object");
-				break;
+		});
+	}
+
+	/**
+	 * Apply a message from a user.
+	 *
+	 * @param genericMessage
+	 *            The message
+	 * @param user
+	 *            The user who sent the message
+	 * @param session
+	 *            The user's session, or null when replaying the journal
+	 * @return The handler that applied the message, or null if the message was ignored
+	 */
+	private MessageHandler<?> applyMessage(Message genericMessage, User user, Session session) {
+		final MessageHandler<?> handler = this.handlers.get(genericMessage.getClass());
+		if (handler == null) {
+			log("Ignoring unknown message " + genericMessage.getClass().getSimpleName() + " from "
+					+ user.getUserName());
+			return null;
+		}
+		if (handler.touchesRound()) {
+			final int rNumber = ( (RoundMessage) genericMessage ).getRoundNumber();
+			if (this.trivia.getRound(rNumber) == null) {
+				log("Ignoring " + genericMessage.getClass().getSimpleName() + " for nonexistent round " + rNumber
+						+ " from " + user.getUserName());
+				return null;
 			}
-			case "RestartTimerMessage": {
-				this.restartTimer();
-				TriviaServer.log("Timers restarted by " + user.getUserName());
-				log(userName + " restarted the timers");
-				break;
+		}
+		final ServerEvents.MessageApplied event = new ServerEvents.MessageApplied();
+		event.begin();
+		final int qNumber =
+				genericMessage instanceof QuestionMessage ? ( (QuestionMessage) genericMessage ).getQuestionNumber() : 0;
+		final int queueIndex =
+				genericMessage instanceof AnswerMessage ? ( (AnswerMessage) genericMessage ).getQueueIndex() : -1;
+		ServerLog.setContext(user.getUserName(), handler.getType().getSimpleName(), roundNumber(genericMessage),
+				qNumber, queueIndex);
+		try {
+			final RoundDeltaMessage delta = handler.handle(genericMessage, user, session);
+			if (handler.broadcastsRounds()) {
+				this.broadcastChangedRounds(delta);
 			}
+		} finally {
+			ServerLog.clearContext();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = handler.getType().getSimpleName();
+			event.round = roundNumber(genericMessage);
+			event.user = user.getUserName();
+			event.mutates = handler.mutates();
+			event.replayed = this.replaying;
+			event.commit();
+		}
+		return handler;
+	}
 
-			/**
-			 * User messages
-			 */
-			case "ChangeUserMessage": {
-				ChangeUserMessage message = (ChangeUserMessage) genericMessage;
-				String newUserName = message.getNewUserName();
-				user.setUserName(newUserName);
-				this.trivia.changeUserName(userName, newUserName);
-				log(userName + " changed their name to " + newUserName);
-				this.broadcastMessage(new UserListMessage(this.getUserList()));
-				break;
-			}
+	/**
+	 * Get the round a message names, for events.
+	 *
+	 * @param message
+	 *            The message
+	 * @return The round number, or 0 if the message doesn't name a round
+	 */
+	private static int roundNumber(Message message) {
+		return message instanceof RoundMessage ? ( (RoundMessage) message ).getRoundNumber() : 0;
+	}
 
-			case "SetRoleMessage": {
-				SetRoleMessage message = (SetRoleMessage) genericMessage;
-				Role newRole = message.getNewRole();
-				user.setRole(newRole);
-				log(userName + " changed hir role to " + newRole);
-				break;
-			}
+	/**
+	 * Add gauges for the server-wide statistics and publish the metrics.
+	 */
+	private void registerMetrics() {
+		METRICS.gauge("sessions", () -> this.sessionList.size());
+		METRICS.gauge("log_dropped_total", () -> LOG.getDroppedCount());
+		METRICS.gauge("broadcast_requests_total", () -> this.broadcastCoalescer.getRequestCount());
+		METRICS.gauge("broadcast_flushes_total", () -> this.broadcastCoalescer.getFlushCount());
+		METRICS.gauge("trivia_cache_hits_total", () -> this.triviaFrameCache.getHitCount());
+		METRICS.gauge("trivia_cache_misses_total", () -> this.triviaFrameCache.getMissCount());
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			// CPU used by the whole server process, so load tests can tell how busy it is
+			METRICS.gauge("process_cpu_nanoseconds",
+					() -> ( (com.sun.management.OperatingSystemMXBean) os ).getProcessCpuTime());
+		}
+		if (this.metricsJMX) {
+			METRICS.registerMBean();
+		}
+		if (this.metricsPort > 0) {
+			METRICS.startHttpServer(this.metricsPort);
+		}
+	}
 
-			/**
-			 * Trivia messages
-			 */
-			case "SetRoundMessage": {
-				SetRoundMessage message = (SetRoundMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				this.trivia.setCurrentRoundNumber(rNumber);
-				this.broadcastMessage(message);
-				log(userName + " set the current round to " + rNumber);
-				break;
-			}
-			case "SetNVisualMessage": {
-				SetNVisualMessage message = (SetNVisualMessage) genericMessage;
-				int nVisual = message.getnVisual();
-				this.trivia.setNVisual(nVisual);
-				this.broadcastMessage(message);
-				log(userName + " set the number of visual trivia to " + nVisual);
-				break;
-			}
-			case "SetTeamNumberMessage": {
-				SetTeamNumberMessage message = (SetTeamNumberMessage) genericMessage;
-				int teamNumber = message.getTeamNumber();
-				this.trivia.setTeamNumber(teamNumber);
-				this.broadcastMessage(message);
-				log(userName + " set the team number to " + teamNumber);
-				break;
-			}
+	/**
+	 * Start a continuous flight recording. Events are kept in a rolling on-disk buffer limited by age and size, which
+	 * can be dumped at any time with "jcmd <pid> JFR.dump name=Trivia" and is written to the recording directory when
+	 * the server exits.
+	 */
+	private void startFlightRecording() {
+		final String directory = this.properties.getProperty("FlightRecorder.Dir");
+		try {
+			Files.createDirectories(Paths.get(directory));
+			this.recording = new Recording(Configuration.getConfiguration("default"));
+			this.recording.setName("Trivia");
+			this.recording.setToDisk(true);
+			this.recording.setMaxAge(
+					Duration.ofSeconds(Long.parseLong(this.properties.getProperty("FlightRecorder.MaxAge"))));
+			this.recording.setMaxSize(Long.parseLong(this.properties.getProperty("FlightRecorder.MaxSize")));
+			this.recording.setDestination(
+					Paths.get(directory, "trivia-server_" + fileDateFormat.format(new Date()) + ".jfr"));
+			this.recording.setDumpOnExit(true);
+			this.recording.start();
+			TriviaServer.log("Flight recording started, will be written to " + this.recording.getDestination());
+		} catch (final IOException | ParseException | IllegalStateException | SecurityException exception) {
+			TriviaServer.log("Couldn't start flight recording");
+			exception.printStackTrace();
+			this.recording = null;
+		}
+	}
+
+	/**
+	 * Add a handler for a type of message.
+	 *
+	 * @param type
+	 *            The message class
+	 * @param traits
+	 *            What handling the message does
+	 * @param action
+	 *            The work done for each message
+	 */
+	private <M extends Message> void register(Class<M> type, EnumSet<Trait> traits, MessageHandler.Action<M> action) {
+		this.handlers.put(type, new MessageHandler<M>(type, traits, action,
+				METRICS.histogram(MetricsRegistry.name("message_apply_nanoseconds", "type", type.getSimpleName()))));
+	}
 
+	/**
+	 * Create the handlers for every message a client can send.
+	 */
+	private void registerHandlers() {
+		this.register(GetSaveListMessage.class, READS, (message, user, session) -> {
+			this.sendMessage(session, new SaveListMessage(this.saveMediator.listSaves()));
+			log(user.getUserName() + " requested the save list");
+			return null;
+		});
+		this.register(LoadSaveMessage.class, EnumSet.of(Trait.MUTATES), (message, user, session) -> {
+			final String saveName = message.getSaveName();
+			this.trivia = this.saveMediator.loadState(this.trivia, user.getUserName(), saveName);
+			// The loaded round versions are unrelated to the ones clients hold
+			this.epoch = newEpoch();
+			log("Loaded state from " + message.getSaveName());
 
-			/**
-			 * Round messages
-			 */
-			case "SetDiscrepencyTextMessage": {
-				SetDiscrepencyTextMessage message = (SetDiscrepencyTextMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				String discrepencyText = message.getDiscrepencyText();
-				this.trivia.getRound(rNumber).setDiscrepencyText(discrepencyText);
-				this.broadcastChangedRounds();
-				log(userName + " set the discrepency text for round " + rNumber + " to " + teamNumber);
-				break;
-			}
-			case "SetSpeedRoundMessage": {
-				SetSpeedRoundMessage message = (SetSpeedRoundMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				boolean nowSpeed = message.isNowSpeed();
-				this.trivia.getRound(rNumber).setSpeed(nowSpeed);
-				this.broadcastChangedRounds();
-				log(userName + " set the isSpeed for round " + rNumber + " to " + nowSpeed);
-				break;
-			}
-			case "SetShowNameMessage": {
-				SetShowNameMessage message = (SetShowNameMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				String showName = message.getShowName();
-				this.trivia.getRound(rNumber).setShowName(showName);
-				this.broadcastChangedRounds();
-				log(userName + " set the show name for round " + rNumber + " to " + showName);
-				break;
-			}
-			case "SetShowHostMessage": {
-				SetShowHostMessage message = (SetShowHostMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				String showHost = message.getShowHost();
-				this.trivia.getRound(rNumber).setShowHost(showHost);
-				this.broadcastChangedRounds();
-				log(userName + " set the show host for round " + rNumber + " to " + showHost);
-				break;
-			}
-			case "SetNQuestionsMessage": {
-				SetNQuestionsMessage message = (SetNQuestionsMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int nQuestions = message.getNQuestions();
-				this.trivia.getRound(rNumber).setNQuestions(nQuestions);
-				this.broadcastChangedRounds();
-				log(userName + " set the number of questions for round " + rNumber + " to " + nQuestions);
-				break;
+			if (!this.replaying) {
+				// Nobody is connected while replaying, so there is nothing to send
+				this.broadcastTrivia(this.publishSnapshot());
+				// Try to get announced standings for every round up to the current one
+				this.standingsTimer.execute(new Runnable() {
+					@Override
+					public void run() {
+						TriviaServer.this.fetchMissingStandings(true);
+					}
+				});
 			}
 
+			log(user.getUserName() + " loaded save from file " + saveName);
+			return null;
+		});
+		this.register(FetchTriviaMessage.class, READS, (message, user, session) -> {
+			final Trivia trivia = this.publishSnapshot();
+			this.sendFrame(session, this.encodeTrivia(trivia));
+			user.setRoundVersions(trivia.getVersions());
+			log(user.getUserName() + " requested the trivia data object");
+			return null;
+		});
+		this.register(ResumeSessionMessage.class, READS, (message, user, session) -> {
+			final String newUserName = message.getUserName();
+			user.setUserName(newUserName);
+			user.setRole(message.getRole());
+			this.broadcastMessage(new UserListMessage(this.getUserList()));
 
-			/**
-			 * Question messages
-			 */
-			case "OpenQuestionMessage": {
-				OpenQuestionMessage message = (OpenQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				if (this.trivia.getCurrentRoundNumber() != rNumber) {
-					log("Refusing to open question from previous round requested by " + user + ": round " + rNumber
-							+ " question " + qNumber);
-				}
-				this.trivia.getRound(rNumber).open(userName, qNumber);
-				this.broadcastChangedRounds();
-				log(userName + " opened round " + rNumber + " question " + qNumber);
-				break;
-			}
-			case "CloseQuestionMessage": {
-				CloseQuestionMessage message = (CloseQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				this.trivia.getRound(rNumber).close(qNumber, this.getUserList());
-				this.broadcastChangedRounds();
-				log(userName + " closed round " + rNumber + " question " + qNumber);
-				break;
-			}
-			case "ReopenQuestionMessage": {
-				ReopenQuestionMessage message = (ReopenQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				if (this.trivia.getCurrentRoundNumber() != rNumber) {
-					log("Refusing to reopen question from previous round requested by " + user + ": round " + rNumber
-							+ " question " + qNumber);
-				}
-				this.trivia.getRound(rNumber).reopen(qNumber);
-				this.broadcastChangedRounds();
-				log(userName + " reopened round " + rNumber + " question " + qNumber);
-				break;
-			}
-			case "ResetQuestionMessage": {
-				ResetQuestionMessage message = (ResetQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				if (this.trivia.getCurrentRoundNumber() != rNumber) {
-					log("Refusing to reset question from previous round requested by " + user + ": round " + rNumber
-							+ " question " + qNumber);
-				}
-				this.trivia.getRound(rNumber).resetQuestion(qNumber);
-				this.broadcastChangedRounds();
-				log(userName + " reset round " + rNumber + " question " + qNumber);
-				break;
-			}
-			case "RemapQuestionMessage": {
-				RemapQuestionMessage message = (RemapQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				int newQNumber = message.getNewQuestionNumber();
-				this.trivia.getRound(rNumber).remapQuestion(qNumber, newQNumber);
-				this.broadcastChangedRounds();
-				log(userName + " changed round " + rNumber + " question " + qNumber + " to " + newQNumber);
-				break;
-			}
-			case "SetQuestionMessage": {
-				SetQuestionMessage message = (SetQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				String qText = message.getQuestionText();
-				int qValue = message.getValue();
-				this.trivia.getRound(rNumber).setQuestionText(qNumber, qText);
-				this.trivia.getRound(rNumber).setValue(qNumber, qValue);
-				this.broadcastChangedRounds();
-				log(userName + " set round " + rNumber + " question " + qNumber + " to a value of " + qValue
-						+ " with the text:\n" + qText);
-				break;
-			}
-			case "SetQuestionAnswerMessage": {
-				SetQuestionAnswerMessage message = (SetQuestionAnswerMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				String aText = message.getAnswerText();
-				this.trivia.getRound(rNumber).setAnswerText(qNumber, aText);
-				this.broadcastChangedRounds();
-				log(userName + " set round " + rNumber + " question " + qNumber + "'s answer to:\n" + aText);
-				break;
+			final Trivia trivia = this.publishSnapshot();
+			final int[] oldVersions = message.getVersions();
+			if (message.getEpoch() != this.epoch || oldVersions == null
+					|| oldVersions.length != trivia.getNRounds()) {
+				// The client's versions can't be compared with ours
+				this.sendFrame(session, this.encodeTrivia(trivia));
+				user.setRoundVersions(trivia.getVersions());
+				log(newUserName + " reconnected and requested the trivia data object");
+				return null;
 			}
-			case "EditQuestionMessage": {
-				EditQuestionMessage message = (EditQuestionMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				Round round = this.trivia.getRound(rNumber);
-				String qText = message.getQuestionText();
-				int qValue = message.getValue();
-				String answerText = message.getAnswerText();
-				boolean isCorrect = message.isCorrect();
-				String submitter = message.getSubmitter();
-				if (answerText == null) {
-					round.editQuestion(qNumber, qValue, qText);
-				} else {
-					round.editQuestion(qNumber, qValue, qText, answerText, isCorrect, submitter);
+			this.sendMessage(session, new SetTeamNumberMessage(trivia.getTeamNumber()));
+			this.sendMessage(session, new SetNVisualMessage(trivia.getNVisual()));
+			this.sendMessage(session, new SetRoundMessage(trivia.getCurrentRoundNumber()));
+			final Round[] changedRounds = trivia.getChangedRounds(oldVersions);
+			if (changedRounds.length > 0) {
+				final int[] roundNumbers = new int[changedRounds.length];
+				for (int r = 0; r < changedRounds.length; r++) {
+					roundNumbers[r] = changedRounds[r].getRoundNumber();
 				}
-				this.broadcastChangedRounds();
-				log(userName + " edited round " + rNumber + " question " + qNumber + " to:\n" + "Value: " + qValue
-						+ "\n" + "Question: " + qText + "\n" + "Answer: " + answerText + "\n" + "Correct: " + isCorrect
-						+ "\n" + "Submitter: " + submitter);
-				break;
+				this.sendFrame(session,
+						OutboundQueue.Frame.rounds(new UpdateRoundsMessage(changedRounds), roundNumbers));
 			}
+			user.setRoundVersions(trivia.getVersions());
+			log(newUserName + " resumed hir session, " + changedRounds.length + " rounds changed");
+			return null;
+		});
+		this.register(FetchRoundMessage.class, EnumSet.of(Trait.TOUCHES_ROUND), (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final Round round = this.publishSnapshot().getRound(rNumber);
+			final int[] versions = user.getRoundVersions().clone();
+			versions[rNumber - 1] = round.getVersion();
+			this.sendFrame(session,
+					OutboundQueue.Frame.rounds(new UpdateRoundsMessage(new Round[] { round }), new int[] { rNumber }));
+			user.setRoundVersions(versions);
+			log(user.getUserName() + " requested round " + rNumber);
+			return null;
+		});
+		this.register(RestartTimerMessage.class, READS, (message, user, session) -> {
+			this.restartTimer();
+			TriviaServer.log("Timers restarted by " + user.getUserName());
+			log(user.getUserName() + " restarted the timers");
+			return null;
+		});
 
-			/**
-			 * Answer Messages
-			 */
-			case "CallInAnswerMessage": {
-				CallInAnswerMessage message = (CallInAnswerMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).callIn(queueIndex, userName);
-				this.broadcastChangedRounds();
-				log(userName + " is calling in round " + rNumber + " index " + queueIndex);
-				break;
-			}
-			case "MarkAnswerCorrectMessage": {
-				MarkAnswerCorrectMessage message = (MarkAnswerCorrectMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).markCorrect(queueIndex, userName, this.getUserList());
-				this.broadcastChangedRounds();
-				log(userName + " marked round " + rNumber + " index " + queueIndex + " as correct");
-				break;
-			}
-			case "MarkAnswerDuplicateMessage": {
-				MarkAnswerDuplicateMessage message = (MarkAnswerDuplicateMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).markDuplicate(queueIndex);
-				this.broadcastChangedRounds();
-				log(userName + " marked round " + rNumber + " index " + queueIndex + " as a duplicate");
-				break;
-			}
-			case "MarkAnswerIncorrectMessage": {
-				MarkAnswerIncorrectMessage message = (MarkAnswerIncorrectMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).markAnswerIncorrect(queueIndex, userName);
-				this.broadcastChangedRounds();
-				log(userName + " marked round " + rNumber + " index " + queueIndex + " as incorrect");
-				break;
-			}
-			case "MarkAnswerPartialMessage": {
-				MarkAnswerPartialMessage message = (MarkAnswerPartialMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).markPartial(queueIndex, userName);
-				this.broadcastChangedRounds();
-				log(userName + " marked round " + rNumber + " index " + queueIndex + " as partially correct");
-				break;
-			}
-			case "MarkAnswerUncalledMessage": {
-				MarkAnswerUncalledMessage message = (MarkAnswerUncalledMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				this.trivia.getRound(rNumber).markUncalled(queueIndex);
-				this.broadcastChangedRounds();
-				log(userName + " marked round " + rNumber + " index " + queueIndex + " as uncalled");
-				break;
+		/**
+		 * User messages
+		 */
+		this.register(ChangeUserMessage.class, EnumSet.of(Trait.MUTATES), (message, user, session) -> {
+			final String userName = user.getUserName();
+			final String newUserName = message.getNewUserName();
+			user.setUserName(newUserName);
+			this.trivia.changeUserName(userName, newUserName);
+			if (this.pipeline != null) {
+				// Renaming doesn't change round versions
+				this.pipeline.invalidate();
 			}
+			log(userName + " changed their name to " + newUserName);
+			this.broadcastMessage(new UserListMessage(this.getUserList()));
+			return null;
+		});
+		this.register(SetRoleMessage.class, READS, (message, user, session) -> {
+			final Role newRole = message.getNewRole();
+			user.setRole(newRole);
+			log(user.getUserName() + " changed hir role to " + newRole);
+			return null;
+		});
+		this.register(SetEffortMessage.class, EnumSet.of(Trait.BROADCASTS_ROUNDS), (message, user, session) -> {
+			user.setEffort(message.getQuestionNumber());
+			log(user.getUserName() + " changed hir current effort to round " + message.getRoundNumber()
+					+ " question " + message.getQuestionNumber());
+			return null;
+		});
 
-			case "SetOperatorMessage": {
-				SetOperatorMessage message = (SetOperatorMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				String operator = "";
-				if (message.getOperator() != null) {
-					operator = message.getOperator();
-				}
-				this.trivia.getRound(rNumber).setOperator(queueIndex, operator);
-				this.broadcastChangedRounds();
-				log(userName + " set the operator for round " + rNumber + " index " + queueIndex + " to " + operator);
-				break;
-			}
+		/**
+		 * Trivia messages
+		 */
+		this.register(SetRoundMessage.class, EnumSet.of(Trait.MUTATES, Trait.TOUCHES_ROUND),
+				(message, user, session) -> {
+					this.trivia.setCurrentRoundNumber(message.getRoundNumber());
+					this.broadcastMessage(message);
+					log(user.getUserName() + " set the current round to " + message.getRoundNumber());
+					return null;
+				});
+		this.register(SetNVisualMessage.class, EnumSet.of(Trait.MUTATES), (message, user, session) -> {
+			this.trivia.setNVisual(message.getnVisual());
+			this.broadcastMessage(message);
+			log(user.getUserName() + " set the number of visual trivia to " + message.getnVisual());
+			return null;
+		});
+		this.register(SetTeamNumberMessage.class, EnumSet.of(Trait.MUTATES), (message, user, session) -> {
+			this.trivia.setTeamNumber(message.getTeamNumber());
+			this.broadcastMessage(message);
+			log(user.getUserName() + " set the team number to " + message.getTeamNumber());
+			return null;
+		});
 
-			case "ProposeAnswerMessage": {
-				ProposeAnswerMessage message = (ProposeAnswerMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				String answerText = message.getAnswerText();
-				int confidence = message.getConfidence();
-				this.trivia.getRound(rNumber).proposeAnswer(qNumber, answerText, userName, confidence);
-				this.broadcastChangedRounds();
-				log(userName + " proposed an answer for round " + rNumber + " question " + qNumber
-						+ " with a confidence of " + confidence + ":\n" + answerText);
-				break;
-			}
+		/**
+		 * Round messages
+		 */
+		this.register(SetDiscrepencyTextMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			this.trivia.getRound(message.getRoundNumber()).setDiscrepencyText(message.getDiscrepencyText());
+			log(user.getUserName() + " set the discrepency text for round " + message.getRoundNumber() + " to "
+					+ message.getDiscrepencyText());
+			return null;
+		});
+		this.register(SetSpeedRoundMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			this.trivia.getRound(message.getRoundNumber()).setSpeed(message.isNowSpeed());
+			log(user.getUserName() + " set the isSpeed for round " + message.getRoundNumber() + " to "
+					+ message.isNowSpeed());
+			return null;
+		});
+		this.register(SetShowNameMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			this.trivia.getRound(message.getRoundNumber()).setShowName(message.getShowName());
+			log(user.getUserName() + " set the show name for round " + message.getRoundNumber() + " to "
+					+ message.getShowName());
+			return null;
+		});
+		this.register(SetShowHostMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			this.trivia.getRound(message.getRoundNumber()).setShowHost(message.getShowHost());
+			log(user.getUserName() + " set the show host for round " + message.getRoundNumber() + " to "
+					+ message.getShowHost());
+			return null;
+		});
+		// Not a round message on the wire, so the handler checks the round itself
+		this.register(SetNQuestionsMessage.class, EnumSet.of(Trait.MUTATES, Trait.BROADCASTS_ROUNDS),
+				(message, user, session) -> {
+					final int rNumber = message.getRoundNumber();
+					if (rNumber < 1 || rNumber > this.trivia.getNRounds()) {
+						log("Ignoring " + message.getClass().getSimpleName() + " for nonexistent round " + rNumber
+								+ " from " + user.getUserName());
+						return null;
+					}
+					this.trivia.getRound(rNumber).setNQuestions(message.getNQuestions());
+					log(user.getUserName() + " set the number of questions for round " + rNumber
+							+ " to " + message.getNQuestions());
+					return null;
+				});
 
-			case "AgreementMessage": {
-				AgreementMessage message = (AgreementMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int queueIndex = message.getQueueIndex();
-				Agreement agreement = message.getAgreement();
-				this.trivia.getRound(message.getRoundNumber()).getAnswer(queueIndex).changeAgreement(userName,
-						agreement);
-				this.broadcastChangedRounds();
-				log(userName + " changed hir agreement with round " + rNumber + " index " + queueIndex + " to "
-						+ agreement);
-				break;
+		/**
+		 * Question messages
+		 */
+		this.register(OpenQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			if (this.trivia.getCurrentRoundNumber() != rNumber) {
+				log("Refusing to open question from previous round requested by " + user + ": round " + rNumber
+						+ " question " + qNumber);
 			}
-			case "SetEffortMessage": {
-				SetEffortMessage message = (SetEffortMessage) genericMessage;
-				int rNumber = message.getRoundNumber();
-				int qNumber = message.getQuestionNumber();
-				user.setEffort(qNumber);
-				this.broadcastChangedRounds();
-				log(userName + " changed hir current effort to round " + rNumber + " question " + qNumber);
-				break;
+			this.trivia.getRound(rNumber).open(user.getUserName(), qNumber);
+			log(user.getUserName() + " opened round " + rNumber + " question " + qNumber);
+			return null;
+		});
+		this.register(CloseQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			this.trivia.getRound(message.getRoundNumber()).close(message.getQuestionNumber(), this.getAppliedUsers());
+			log(user.getUserName() + " closed round " + message.getRoundNumber() + " question "
+					+ message.getQuestionNumber());
+			return null;
+		});
+		this.register(ReopenQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			if (this.trivia.getCurrentRoundNumber() != rNumber) {
+				log("Refusing to reopen question from previous round requested by " + user + ": round " + rNumber
+						+ " question " + qNumber);
 			}
-		}
+			this.trivia.getRound(rNumber).reopen(qNumber);
+			log(user.getUserName() + " reopened round " + rNumber + " question " + qNumber);
+			return null;
+		});
+		this.register(ResetQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			if (this.trivia.getCurrentRoundNumber() != rNumber) {
+				log("Refusing to reset question from previous round requested by " + user + ": round " + rNumber
+						+ " question " + qNumber);
+			}
+			this.trivia.getRound(rNumber).resetQuestion(qNumber);
+			log(user.getUserName() + " reset round " + rNumber + " question " + qNumber);
+			return null;
+		});
+		this.register(RemapQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			final int newQNumber = message.getNewQuestionNumber();
+			this.trivia.getRound(rNumber).remapQuestion(qNumber, newQNumber);
+			log(user.getUserName() + " changed round " + rNumber + " question " + qNumber + " to " + newQNumber);
+			return null;
+		});
+		this.register(SetQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			final String qText = message.getQuestionText();
+			final int qValue = message.getValue();
+			final Round round = this.trivia.getRound(rNumber);
+			final int baseVersion = round.getVersion();
+			round.setQuestionText(qNumber, qText);
+			round.setValue(qNumber, qValue);
+			final String userName = user.getUserName();
+			log(() -> userName + " set round " + rNumber + " question " + qNumber + " to a value of " + qValue
+					+ " with the text:\n" + qText);
+			return new QuestionDeltaMessage(rNumber, baseVersion, round.getVersion(), qNumber, qText, qValue);
+		});
+		this.register(SetQuestionAnswerMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			final String aText = message.getAnswerText();
+			this.trivia.getRound(rNumber).setAnswerText(qNumber, aText);
+			final String userName = user.getUserName();
+			log(() -> userName + " set round " + rNumber + " question " + qNumber + "'s answer to:\n" + aText);
+			return null;
+		});
+		this.register(EditQuestionMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			final Round round = this.trivia.getRound(rNumber);
+			final String qText = message.getQuestionText();
+			final int qValue = message.getValue();
+			final String answerText = message.getAnswerText();
+			final boolean isCorrect = message.isCorrect();
+			final String submitter = message.getSubmitter();
+			RoundDeltaMessage delta = null;
+			if (answerText == null) {
+				final int baseVersion = round.getVersion();
+				round.editQuestion(qNumber, qValue, qText);
+				delta = new QuestionDeltaMessage(rNumber, baseVersion, round.getVersion(), qNumber, qText, qValue);
+			} else {
+				round.editQuestion(qNumber, qValue, qText, answerText, isCorrect, submitter);
+			}
+			final String userName = user.getUserName();
+			log(() -> userName + " edited round " + rNumber + " question " + qNumber + " to:\n" + "Value: " + qValue
+					+ "\n" + "Question: " + qText + "\n" + "Answer: " + answerText + "\n" + "Correct: " + isCorrect
+					+ "\n" + "Submitter: " + submitter);
+			return delta;
+		});
 
+		/**
+		 * Answer Messages
+		 */
+		this.register(CallInAnswerMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.callIn(message.getQueueIndex(), user.getUserName());
+			log(user.getUserName() + " is calling in round " + message.getRoundNumber() + " index "
+					+ message.getQueueIndex());
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(MarkAnswerCorrectMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.markCorrect(message.getQueueIndex(), user.getUserName(), this.getAppliedUsers());
+			log(user.getUserName() + " marked round " + message.getRoundNumber() + " index " + message.getQueueIndex()
+					+ " as correct");
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(MarkAnswerDuplicateMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.markDuplicate(message.getQueueIndex());
+			log(user.getUserName() + " marked round " + message.getRoundNumber() + " index " + message.getQueueIndex()
+					+ " as a duplicate");
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(MarkAnswerIncorrectMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.markAnswerIncorrect(message.getQueueIndex(), user.getUserName());
+			log(user.getUserName() + " marked round " + message.getRoundNumber() + " index " + message.getQueueIndex()
+					+ " as incorrect");
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(MarkAnswerPartialMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.markPartial(message.getQueueIndex(), user.getUserName());
+			log(user.getUserName() + " marked round " + message.getRoundNumber() + " index " + message.getQueueIndex()
+					+ " as partially correct");
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(MarkAnswerUncalledMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final Round round = this.trivia.getRound(message.getRoundNumber());
+			final int baseVersion = round.getVersion();
+			round.markUncalled(message.getQueueIndex());
+			log(user.getUserName() + " marked round " + message.getRoundNumber() + " index " + message.getQueueIndex()
+					+ " as uncalled");
+			return this.statusDelta(round, baseVersion, message.getQueueIndex());
+		});
+		this.register(SetOperatorMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final String operator = message.getOperator() == null ? "" : message.getOperator();
+			this.trivia.getRound(message.getRoundNumber()).setOperator(message.getQueueIndex(), operator);
+			log(user.getUserName() + " set the operator for round " + message.getRoundNumber() + " index "
+					+ message.getQueueIndex() + " to " + operator);
+			return null;
+		});
+		this.register(ProposeAnswerMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int qNumber = message.getQuestionNumber();
+			final String answerText = message.getAnswerText();
+			final int confidence = message.getConfidence();
+			final Round round = this.trivia.getRound(rNumber);
+			final int baseVersion = round.getVersion();
+			round.proposeAnswer(qNumber, answerText, user.getUserName(), confidence, this.applyTime);
+			// The delta may be sent after later changes to the answer, so it holds the answer as proposed
+			final Answer answer = round.copyAnswer(round.getAnswerQueueSize() - 1);
+			final String userName = user.getUserName();
+			log(() -> userName + " proposed an answer for round " + rNumber + " question " + qNumber
+					+ " with a confidence of " + confidence + ":\n" + answerText);
+			if (answer.getStatus() == Status.DUPLICATE) {
+				// Marking a duplicate also changes agreement on other answers, so send the whole round
+				return null;
+			}
+			return new AnswerAddedDeltaMessage(rNumber, baseVersion, round.getVersion(), answer);
+		});
+		this.register(AgreementMessage.class, ROUND_CHANGE, (message, user, session) -> {
+			final int rNumber = message.getRoundNumber();
+			final int queueIndex = message.getQueueIndex();
+			final Agreement agreement = message.getAgreement();
+			final Round round = this.trivia.getRound(rNumber);
+			final int baseVersion = round.getVersion();
+			round.changeAgreement(user.getUserName(), queueIndex, agreement);
+			log(user.getUserName() + " changed hir agreement with round " + rNumber + " index " + queueIndex + " to "
+					+ agreement);
+			return new AgreementDeltaMessage(rNumber, baseVersion, round.getVersion(), queueIndex, user.getUserName(),
+					agreement);
+		});
 	}
 
 	/**
@@ -586,15 +1085,18 @@ public class TriviaServer {
 	 *             A remote exception
 	 */
 	public static void main(String args[]) {
-		TriviaServer server = TriviaServerEndpoint.getServer();
+		final long start = System.nanoTime();
+		final TriviaServer server = TriviaServerEndpoint.getServer();
+		Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "Shutdown"));
 		try {
 			server.start();
-			server.isRunning = true;
-			while (server.isRunning) {}
 		} catch (final DeploymentException exception) {
 			exception.printStackTrace();
-			server.stop();
+			TriviaServer.log("Couldn't start server, aborting!");
+			System.exit(-1);
 		}
+		TriviaServer.log("Server started in " + ( System.nanoTime() - start ) / 1000000 + " ms");
+		server.awaitShutdown();
 	}
 
 	/**
@@ -605,11 +1107,35 @@ public class TriviaServer {
 	 * @return Array of ScoreEntry that have the standing data
 	 */
 	private ScoreEntry[] fetchStandings(int rNumber) {
+		// The URL where the file is hosted
+		final String urlString = this.standingsBaseURL + String.format("%02d", rNumber) + ".htm";
+
+		final ServerEvents.FetchStandings event = new ServerEvents.FetchStandings();
+		event.begin();
+		final ScoreEntry[] standings = this.readStandings(rNumber, urlString);
+		event.end();
+		if (event.shouldCommit()) {
+			event.round = rNumber;
+			event.url = urlString;
+			event.entries = standings == null ? -1 : standings.length;
+			event.commit();
+		}
+		return standings;
+	}
+
+	/**
+	 * Reads and parses the standings page for a round.
+	 *
+	 * @param rNumber
+	 *            The round number
+	 * @param urlString
+	 *            The URL of the standings page
+	 * @return Array of ScoreEntry that have the standing data, or null if they aren't available
+	 */
+	private ScoreEntry[] readStandings(int rNumber, String urlString) {
 
 		final ArrayList<ScoreEntry> standingsList = new ArrayList<ScoreEntry>(0);
 
-		// The URL where the file is hosted
-		final String urlString = this.standingsBaseURL + String.format("%02d", rNumber) + ".htm";
 		log("Trying to retrieve standings from: " + urlString);
 		try {
 			// Try to read the URL
@@ -656,14 +1182,23 @@ public class TriviaServer {
 	}
 
 	/**
-	 * Print a message with timestamp to the console.
+	 * Log a message. The message is written by a background thread, so this never blocks.
 	 *
 	 * @param message
 	 *            The message
 	 */
 	public static void log(String message) {
-		final Date date = new Date();
-		System.out.println(stringDateFormat.format(date) + ": " + message);
+		LOG.log(message);
+	}
+
+	/**
+	 * Log a message that is only built when it is written, for messages that are expensive to build.
+	 *
+	 * @param message
+	 *            Builds the message; must only use values that won't change
+	 */
+	public static void log(Supplier<String> message) {
+		LOG.log(message);
 	}
 
 	private void restartTimer() {
@@ -672,18 +1207,66 @@ public class TriviaServer {
 			this.saveTimer.shutdown();
 		}
 		this.saveTimer = Executors.newSingleThreadScheduledExecutor();
+		// With a journal, full snapshots only compact the journal and can be taken less often
+		final int stateFrequency = this.journal == null ? this.saveFrequency : this.snapshotFrequency;
 		this.saveTimer.scheduleWithFixedDelay(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					TriviaServer.this.saveMediator.saveState(TriviaServer.this.trivia);
-					TriviaServer.this.saveMediator.saveCharts(TriviaServer.this.trivia, TriviaServer.this.chartWidth,
+					TriviaServer.this.saveSnapshot();
+				} catch (final Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, stateFrequency, stateFrequency, TimeUnit.SECONDS);
+		this.saveTimer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final Trivia trivia = TriviaServer.this.pipeline.getSnapshot().getTrivia();
+					final long start = System.nanoTime();
+					final ServerEvents.SaveCharts event = new ServerEvents.SaveCharts();
+					event.begin();
+					TriviaServer.this.saveMediator.saveCharts(trivia, TriviaServer.this.chartWidth,
 							TriviaServer.this.chartHeight);
+					METRICS.histogram("chart_render_nanoseconds").recordSince(start);
+					event.round = trivia.getCurrentRoundNumber();
+					event.commit();
 				} catch (final Exception e) {
 					e.printStackTrace();
 				}
 			}
 		}, this.saveFrequency, this.saveFrequency, TimeUnit.SECONDS);
+		this.saveTimer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				final BroadcastCoalescer coalescer = TriviaServer.this.broadcastCoalescer;
+				TriviaServer.log("Round broadcasts: " + coalescer.getRequestCount() + " requested, "
+						+ coalescer.getFlushCount() + " sent, " + coalescer.getMergedCount() + " merged");
+				TriviaServer.log("Trivia data requests: " + TriviaServer.this.triviaFrameCache.getHitCount()
+						+ " served from cache, " + TriviaServer.this.triviaFrameCache.getMissCount() + " encoded");
+				if (TriviaServer.this.deflate != null) {
+					TriviaServer.log("Compression: " + TriviaServer.this.deflate.getStatistics());
+				}
+				for (final MessageHandler<?> handler : TriviaServer.this.handlers.values()) {
+					final Histogram latency = handler.getLatency();
+					if (latency.getCount() > 0) {
+						TriviaServer.log("Handled " + handler.getType().getSimpleName() + ": " + latency.getCount()
+								+ " messages, " + (long) latency.getMean() / 1000 + " us average, "
+								+ latency.getPercentile(99) / 1000 + " us 99th percentile, " + latency.getMax() / 1000
+								+ " us max");
+					}
+				}
+				for (final TriviaServerEndpoint endpoint : TriviaServer.this.sessionList.values()) {
+					final OutboundQueue outbound = endpoint.getOutboundQueue();
+					if (outbound != null) {
+						TriviaServer.log("Outbound to " + endpoint.getUser().getUserName() + ": " + outbound.getDepth()
+								+ " queued, " + outbound.getSentCount() + " sent, " + outbound.getCollapsedCount()
+								+ " collapsed, " + outbound.getDroppedCount() + " dropped");
+					}
+				}
+			}
+		}, this.saveFrequency, this.saveFrequency, TimeUnit.SECONDS);
 
 		if (this.standingsTimer != null) {
 			this.standingsTimer.shutdown();
@@ -692,23 +1275,83 @@ public class TriviaServer {
 		this.standingsTimer.scheduleWithFixedDelay(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					for (int r = 1; r < TriviaServer.this.trivia.getCurrentRoundNumber(); r++) {
-						// For each past round, try to get announced standings if we don't have them
-						if (!TriviaServer.this.trivia.getRound(r).isAnnounced()) {
-							final ScoreEntry[] standings = TriviaServer.this.fetchStandings(r);
-							if (standings != null) {
-								TriviaServer.this.trivia.getRound(r).setStandings(standings,
-										TriviaServer.this.trivia.getTeamName());
-								TriviaServer.this.broadcastChangedRounds();
+				TriviaServer.this.fetchMissingStandings(false);
+			}
+		}, this.standingsFrequency, this.standingsFrequency, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Try to get announced standings for each past round that doesn't have them yet. The standings are fetched on the
+	 * calling thread and applied by the pipeline.
+	 *
+	 * @param includeCurrent
+	 *            Whether to include the current round
+	 */
+	private void fetchMissingStandings(boolean includeCurrent) {
+		try {
+			final Trivia trivia = this.pipeline.getSnapshot().getTrivia();
+			final int lastRound = includeCurrent ? trivia.getCurrentRoundNumber() : trivia.getCurrentRoundNumber() - 1;
+			for (int r = 1; r <= lastRound; r++) {
+				// For each past round, try to get announced standings if we don't have them
+				if (!trivia.getRound(r).isAnnounced()) {
+					final ScoreEntry[] standings = this.fetchStandings(r);
+					if (standings != null) {
+						final int rNumber = r;
+						this.pipeline.submit(new Runnable() {
+							@Override
+							public void run() {
+								final Round round = TriviaServer.this.trivia.getRound(rNumber);
+								if (!round.isAnnounced()) {
+									round.setStandings(standings, TriviaServer.this.trivia.getTeamName());
+									TriviaServer.this.broadcastChangedRounds();
+								}
 							}
-						}
+						});
 					}
-				} catch (final Exception e) {
-					e.printStackTrace();
 				}
 			}
-		}, this.standingsFrequency, this.standingsFrequency, TimeUnit.SECONDS);
+		} catch (final Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Save the current state to file and checkpoint the journal against it.
+	 */
+	void saveSnapshot() {
+		final MutationPipeline.Snapshot snapshot = this.pipeline.getSnapshot();
+		final long start = System.nanoTime();
+		final ServerEvents.SaveState event = new ServerEvents.SaveState();
+		event.begin();
+		final String snapshotName = this.saveMediator.saveState(snapshot.getTrivia());
+		METRICS.histogram("save_nanoseconds").recordSince(start);
+		event.saveName = snapshotName;
+		event.commit();
+		if (snapshotName != null && this.journal != null) {
+			this.journal.checkpoint(snapshotName, snapshot.getSequence());
+		}
+	}
+
+	/**
+	 * Create a new epoch for round versions.
+	 *
+	 * @return A random, non-zero epoch
+	 */
+	private static long newEpoch() {
+		long epoch = 0;
+		while (epoch == 0) {
+			epoch = new Random().nextLong();
+		}
+		return epoch;
+	}
+
+	/**
+	 * Publish a snapshot of the current state from the writer thread, for messages that will be encoded elsewhere.
+	 *
+	 * @return A read-only copy of the trivia data
+	 */
+	private Trivia publishSnapshot() {
+		return this.pipeline == null ? this.trivia : this.pipeline.publish();
 	}
 
 	/**
@@ -719,40 +1362,155 @@ public class TriviaServer {
 	 */
 	private void sendMessage(Session session, Message message) {
 		if (session == null) return;
-		session.getAsyncRemote().sendObject(message);
+		this.sendFrame(session, OutboundQueue.Frame.message(message));
+	}
+
+	/**
+	 * Queue an encoded frame for the specified client
+	 *
+	 * @param session
+	 * @param frame
+	 */
+	private void sendFrame(Session session, OutboundQueue.Frame frame) {
+		if (session == null || frame == null) return;
+		final TriviaServerEndpoint endpoint = this.sessionList.get(session);
+		if (endpoint != null && endpoint.getOutboundQueue() != null) {
+			endpoint.getOutboundQueue().add(frame);
+		}
 	}
 
 	private void broadcastMessage(Message message) {
-		for (Session session : this.sessionList.keySet()) {
-			this.sendMessage(session, message);
+		this.broadcastFrame("message", OutboundQueue.Frame.message(message));
+	}
+
+	/**
+	 * Send the entire trivia data to every connected client
+	 *
+	 * @param trivia
+	 *            A snapshot of the trivia data
+	 */
+	private void broadcastTrivia(Trivia trivia) {
+		this.broadcastFrame("trivia", this.encodeTrivia(trivia));
+	}
+
+	/**
+	 * Queue a frame for every connected client
+	 *
+	 * @param kind
+	 *            What the frame carries, for metrics and events
+	 * @param frame
+	 *            The frame
+	 */
+	private void broadcastFrame(String kind, OutboundQueue.Frame frame) {
+		if (frame == null) return;
+		final long start = System.nanoTime();
+		final ServerEvents.Broadcast event = new ServerEvents.Broadcast();
+		event.begin();
+		int sessions = 0;
+		long size = 0;
+		for (final TriviaServerEndpoint endpoint : this.sessionList.values()) {
+			final OutboundQueue outbound = endpoint.getOutboundQueue();
+			if (outbound == null) {
+				continue;
+			}
+			outbound.add(frame);
+			sessions++;
+			if (event.isEnabled()) {
+				size += frame.getSize(outbound.getFormat());
+			}
 		}
+		METRICS.histogram(MetricsRegistry.name("broadcast_nanoseconds", "kind", kind)).recordSince(start);
+		METRICS.histogram(MetricsRegistry.name("broadcast_sessions", "kind", kind)).record(sessions);
+		event.end();
+		if (event.shouldCommit()) {
+			event.kind = kind;
+			event.sessions = sessions;
+			event.frames = sessions;
+			event.size = size;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Encode the entire trivia data as a frame that replaces any rounds still waiting to be sent.
+	 *
+	 * @param trivia
+	 *            A snapshot of the trivia data
+	 * @return The frame, or null if it couldn't be encoded
+	 */
+	private OutboundQueue.Frame encodeTrivia(Trivia trivia) {
+		return this.triviaFrameCache.get(trivia, this.epoch);
 	}
 
 	/**
 	 * Send updated trivia information to each connected client
 	 */
 	private void broadcastChangedRounds() {
-		final Set<Session> sessions = this.sessionList.keySet();
-		for (final Session session : sessions) {
-			if (session != null) {
-				final TriviaServerEndpoint info = this.sessionList.get(session);
-				final Round[] newRounds = this.trivia.getChangedRounds(info.getUser().getRoundVersions());
-				if (newRounds.length != 0) {
-					this.sendMessage(session, new UpdateRoundsMessage(newRounds));
-				}
-			}
+		this.broadcastChangedRounds(null);
+	}
+
+	/**
+	 * Send updated trivia information to each connected client, using a delta for clients that only lack this change
+	 *
+	 * @param delta
+	 *            The delta describing the change, or null to send full rounds
+	 */
+	private void broadcastChangedRounds(RoundDeltaMessage delta) {
+		if (this.broadcastCoalescer == null) {
+			// Replaying the journal
+			final List<RoundDeltaMessage> deltas = delta == null ? null : Collections.singletonList(delta);
+			this.broadcastEngine.broadcastChangedRounds(this.trivia, this.sessionList, deltas);
+		} else {
+			this.broadcastCoalescer.request(delta);
 		}
 	}
 
+	/**
+	 * Create a delta describing a change to the status of an answer.
+	 *
+	 * @param round
+	 *            The round that was changed
+	 * @param baseVersion
+	 *            The version of the round before the change
+	 * @param queueIndex
+	 *            The index of the answer in the queue
+	 * @return The delta
+	 */
+	private AnswerStatusDeltaMessage statusDelta(Round round, int baseVersion, int queueIndex) {
+		final Answer answer = round.getAnswer(queueIndex);
+		return new AnswerStatusDeltaMessage(round.getRoundNumber(), baseVersion, round.getVersion(), queueIndex,
+				answer.getStatus(), answer.getCaller());
+	}
+
 	public void addUser(Session session, TriviaServerEndpoint user) {
+		if (this.closing) {
+			try {
+				session.close(new CloseReason(CloseCodes.GOING_AWAY, "Server shutting down"));
+			} catch (final IOException exception) {
+				exception.printStackTrace();
+			}
+			return;
+		}
 		TriviaServer.log("New client connecting... temporarily named " + user.getUser().getUserName());
+		final OutboundQueue outbound = new OutboundQueue(session,
+				WireFormat.forSubprotocol(session.getNegotiatedSubprotocol()), this.outboundCapacity,
+				this.outboundMaxLag, this.outboundFragmentSize);
+		user.setOutboundQueue(outbound);
+		user.setFullRoundsOnly(WireFormat.isLegacy(session.getNegotiatedSubprotocol()));
+		METRICS.gauge(MetricsRegistry.name("outbound_queue_depth", "session", session.getId()), outbound::getDepth);
 		this.sessionList.put(session, user);
 		this.broadcastMessage(new UserListMessage(this.getUserList()));
 	}
 
 	public void removeUser(Session session) {
-		TriviaServer.log(this.sessionList.get(session).getUser() + " disconnected");
+		final TriviaServerEndpoint endpoint = this.sessionList.get(session);
+		if (endpoint == null) {
+			// Refused while shutting down
+			return;
+		}
+		TriviaServer.log(endpoint.getUser() + " disconnected");
 		this.sessionList.remove(session);
+		METRICS.removeGauge(MetricsRegistry.name("outbound_queue_depth", "session", session.getId()));
 		this.broadcastMessage(new UserListMessage(this.getUserList()));
 	}
 
@@ -0,0 +1,43 @@
+package net.bubbaland.trivia.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.Extension;
+import javax.websocket.server.ServerEndpointConfig;
+
+import net.bubbaland.trivia.messages.PerMessageDeflate;
+
+/**
+ * Handshake configuration for the trivia server endpoint.
+ *
+ * Annotated endpoints can't list extensions, so the compression extension is added here when the handshake negotiates
+ * extensions. Everything else is left to the container.
+ *
+ * @author Walter Kolczynski
+ */
+public class TriviaServerConfigurator extends ServerEndpointConfig.Configurator {
+
+	@Override
+	public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+		final PerMessageDeflate deflate = TriviaServerEndpoint.getServer().getDeflate();
+		if (deflate == null) {
+			return super.getNegotiatedExtensions(installed, requested);
+		}
+		final ArrayList<Extension> available = new ArrayList<Extension>(installed);
+		available.add(deflate);
+		// Take the first compression offer we can honor, skipping any others
+		final ArrayList<Extension> acceptable = new ArrayList<Extension>();
+		boolean deflateOffered = false;
+		for (final Extension extension : requested) {
+			if (!PerMessageDeflate.NAME.equals(extension.getName())) {
+				acceptable.add(extension);
+			} else if (!deflateOffered && deflate.accepts(extension)) {
+				acceptable.add(extension);
+				deflateOffered = true;
+			}
+		}
+		return super.getNegotiatedExtensions(available, acceptable);
+	}
+
+}
@@ -1,7 +1,9 @@
 package net.bubbaland.trivia.server;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
+import javax.websocket.DecodeException;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
@@ -12,6 +14,8 @@ import javax.websocket.server.ServerEndpoint;
 
 import net.bubbaland.trivia.User;
 import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.WireFormat;
 
 /**
  * The main server that coordinates the trivia contest.
@@ -24,7 +28,11 @@ import net.bubbaland.trivia.messages.Message;
  * loading a previous state. The save files are stored in <code>SAVE_DIR</code>, which much exist on the server.
  *
  */
-@ServerEndpoint(decoders = { Message.MessageDecoder.class }, encoders = { Message.MessageEncoder.class }, value = "/")
+@ServerEndpoint(decoders = { TriviaServerEndpoint.TextDecoder.class, TriviaServerEndpoint.BinaryDecoder.class },
+		encoders = { Message.MessageEncoder.class, Message.BinaryMessageEncoder.class }, value = "/",
+		subprotocols = { "trivia-smile-2", "trivia-compact-2", "trivia-json-2", "trivia-smile", "trivia-compact",
+				"trivia-json" },
+		configurator = TriviaServerConfigurator.class)
 public class TriviaServerEndpoint {
 
 	private static final TriviaServer server = new TriviaServer();
@@ -33,7 +41,11 @@ public class TriviaServerEndpoint {
 		return TriviaServerEndpoint.server;
 	}
 
-	private User user;
+	private User			user;
+	// Frames waiting to be sent to this client
+	private OutboundQueue	outboundQueue;
+	// Whether this client is sent whole rounds instead of deltas
+	private boolean			fullRoundsOnly;
 
 	/**
 	 * Creates a new trivia server endpoint.
@@ -47,6 +59,22 @@ public class TriviaServerEndpoint {
 		return this.user;
 	}
 
+	OutboundQueue getOutboundQueue() {
+		return this.outboundQueue;
+	}
+
+	void setOutboundQueue(OutboundQueue outboundQueue) {
+		this.outboundQueue = outboundQueue;
+	}
+
+	boolean isFullRoundsOnly() {
+		return this.fullRoundsOnly;
+	}
+
+	void setFullRoundsOnly(boolean fullRoundsOnly) {
+		this.fullRoundsOnly = fullRoundsOnly;
+	}
+
 	/**
 	 * Initial hook when a client first connects (TriviaServerEndpoint() is automatically called as well)
 	 *
@@ -90,6 +118,57 @@ public class TriviaServerEndpoint {
 		TriviaServerEndpoint.server.removeUser(session);
 	}
 
+	/**
+	 * Decodes text messages from clients, recording each with the flight recorder.
+	 */
+	public static class TextDecoder extends Message.MessageDecoder {
+		@Override
+		public Message decode(final String str) throws DecodeException {
+			final ServerEvents.MessageDecoded event = new ServerEvents.MessageDecoded();
+			event.begin();
+			final Message message = super.decode(str);
+			commit(event, message, MessageCodec.textFormat(str), str.length());
+			return message;
+		}
+	}
+
+	/**
+	 * Decodes binary messages from clients, recording each with the flight recorder.
+	 */
+	public static class BinaryDecoder extends Message.BinaryMessageDecoder {
+		@Override
+		public Message decode(final ByteBuffer bytes) throws DecodeException {
+			final ServerEvents.MessageDecoded event = new ServerEvents.MessageDecoded();
+			event.begin();
+			final int size = bytes.remaining();
+			final Message message = super.decode(bytes);
+			commit(event, message, WireFormat.SMILE, size);
+			return message;
+		}
+	}
+
+	/**
+	 * Record a decoded message with the flight recorder, if it is recording.
+	 *
+	 * @param event
+	 *            The event, begun before decoding
+	 * @param message
+	 *            The decoded message, or null if it couldn't be decoded
+	 * @param format
+	 *            The wire format
+	 * @param size
+	 *            The encoded size (characters or bytes)
+	 */
+	private static void commit(ServerEvents.MessageDecoded event, Message message, WireFormat format, int size) {
+		event.end();
+		if (event.shouldCommit() && message != null) {
+			event.type = message.getClass().getSimpleName();
+			event.format = format.getSubprotocol();
+			event.size = size;
+			event.commit();
+		}
+	}
+
 	/**
 	 * Entry point for the server application.
 	 *
@@ -502,6 +502,7 @@ public class TriviaServerSetup {
 		properties.setProperty("Server.Port", port + "");
 		properties.setProperty("SaveDir", triviaDirPath + "/saves");
 		properties.setProperty("ChartDir", triviaDirPath + "/charts");
+		properties.setProperty("Journal.Dir", triviaDirPath + "/journal");
 
 		final File file = new File(System.getProperty("user.home") + "/" + SETTINGS_FILENAME);
 		try {
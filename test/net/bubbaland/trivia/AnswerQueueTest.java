@@ -0,0 +1,229 @@
+package net.bubbaland.trivia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.bubbaland.trivia.Answer.Status;
+
+/**
+ * Tests for the answer queue: stable queue indexes across removed answers, the question, text and status indexes,
+ * and copies that share unchanged answers.
+ *
+ * @author Walter Kolczynski
+ */
+public class AnswerQueueTest {
+
+	private AnswerQueue queue;
+
+	/**
+	 * Fill a queue with answers to questions 1, 2, 1, 3, 2 and 1, at locations 1 through 6.
+	 */
+	@Before
+	public void setUp() {
+		this.queue = new AnswerQueue();
+		final int[] qNumbers = { 1, 2, 1, 3, 2, 1 };
+		for (int i = 0; i < qNumbers.length; i++) {
+			this.queue.add(new Answer(i + 1, qNumbers[i], "Answer " + ( i + 1 ), "User" + i, 3));
+		}
+	}
+
+	@Test
+	public void queueIndexesStayStableAcrossGaps() {
+		final Answer last = this.queue.get(5);
+		this.queue.removeQuestion(2);
+
+		assertEquals(6, this.queue.size());
+		assertEquals(4, this.queue.nLive());
+		assertNull(this.queue.get(1));
+		assertNull(this.queue.get(4));
+		assertSame(last, this.queue.get(5));
+		assertEquals("Answer 4", this.queue.getLive(3).getAnswerText());
+		try {
+			this.queue.getLive(1);
+			fail("Got a removed answer");
+		} catch (final IndexOutOfBoundsException exception) {
+			// Expected
+		}
+		assertEquals(Arrays.asList(1, 3, 4, 6), locations(this.queue.getAnswers()));
+
+		// The next answer goes after the gaps, not into them
+		this.queue.add(new Answer(7, 2, "Answer 7", "User7", 3));
+		assertEquals(7, this.queue.size());
+		assertEquals(Arrays.asList(7), locations(this.queue.getQuestion(2)));
+	}
+
+	@Test
+	public void addRejectsAnOutOfPlaceLocation() {
+		for (final int location : new int[] { 1, 6 }) {
+			try {
+				this.queue.add(new Answer(location, 1, "Late", "User9", 3));
+				fail("Added an answer at location " + location);
+			} catch (final IllegalArgumentException exception) {
+				// Expected
+			}
+		}
+		assertEquals(6, this.queue.size());
+		assertEquals(6, this.queue.nLive());
+		assertEquals(Arrays.asList(1, 3, 6), locations(this.queue.getQuestion(1)));
+
+		// Skipping ahead leaves empty slots
+		this.queue.add(new Answer(9, 1, "Later", "User9", 3));
+		assertEquals(9, this.queue.size());
+		assertNull(this.queue.get(7));
+		assertEquals(Arrays.asList(1, 3, 6, 9), locations(this.queue.getQuestion(1)));
+	}
+
+	@Test
+	public void reserveLeavesEmptySlotsAtTheEnd() {
+		this.queue.reserve(8);
+		this.queue.reserve(4);
+		assertEquals(8, this.queue.size());
+		assertEquals(6, this.queue.nLive());
+		this.queue.add(new Answer(9, 1, "Answer 9", "User9", 3));
+		assertEquals(Arrays.asList(1, 3, 6, 9), locations(this.queue.getQuestion(1)));
+	}
+
+	@Test
+	public void statusChangesMoveAnswersBetweenBuckets() {
+		// Build the indexes before any status changes
+		assertEquals(6, this.queue.getStatus(Status.NOT_CALLED_IN).size());
+
+		final Answer called = this.queue.getLive(2);
+		called.callIn("Caller");
+		this.queue.statusChanged(called, Status.NOT_CALLED_IN);
+		final Answer correct = this.queue.getLive(4);
+		correct.markAnswerCorrect("Caller");
+		this.queue.statusChanged(correct, Status.NOT_CALLED_IN);
+
+		assertEquals(Arrays.asList(1, 2, 4, 6), locations(this.queue.getStatus(Status.NOT_CALLED_IN)));
+		assertEquals(Arrays.asList(3), locations(this.queue.getStatus(Status.CALLING)));
+		assertEquals(Arrays.asList(5), locations(this.queue.getStatus(Status.CORRECT)));
+
+		called.markIncorrect("Caller");
+		this.queue.statusChanged(called, Status.CALLING);
+		assertTrue(this.queue.getStatus(Status.CALLING).isEmpty());
+		assertEquals(Arrays.asList(3), locations(this.queue.getStatus(Status.INCORRECT)));
+		assertStatusesMatch(this.queue);
+	}
+
+	@Test
+	public void statusChangesBeforeIndexingAreSeenWhenIndexed() {
+		final Answer called = this.queue.getLive(0);
+		called.callIn("Caller");
+		this.queue.statusChanged(called, Status.NOT_CALLED_IN);
+		assertEquals(Arrays.asList(1), locations(this.queue.getStatus(Status.CALLING)));
+		assertStatusesMatch(this.queue);
+	}
+
+	@Test
+	public void removeQuestionDropsAnswersFromEveryIndex() {
+		final Answer called = this.queue.getLive(1);
+		called.callIn("Caller");
+		this.queue.statusChanged(called, Status.NOT_CALLED_IN);
+		assertEquals(1, this.queue.getStatus(Status.CALLING).size());
+
+		final List<Answer> removed = this.queue.removeQuestion(2);
+
+		assertEquals(Arrays.asList(2, 5), locations(removed));
+		assertTrue(this.queue.getQuestion(2).isEmpty());
+		assertTrue(this.queue.getMatches(2, removed.get(0).getNormalizedText()).isEmpty());
+		assertTrue(this.queue.getStatus(Status.CALLING).isEmpty());
+		assertEquals(Arrays.asList(1, 3, 4, 6), locations(this.queue.getStatus(Status.NOT_CALLED_IN)));
+		assertStatusesMatch(this.queue);
+
+		// Removing it again changes nothing
+		assertTrue(this.queue.removeQuestion(2).isEmpty());
+		assertEquals(4, this.queue.nLive());
+	}
+
+	@Test
+	public void remapQuestionMergesInQueueOrder() {
+		final String text = this.queue.getLive(0).getNormalizedText();
+
+		this.queue.remapQuestion(1, 2);
+
+		assertTrue(this.queue.getQuestion(1).isEmpty());
+		assertEquals(Arrays.asList(1, 2, 3, 5, 6), locations(this.queue.getQuestion(2)));
+		for (final Answer answer : this.queue.getQuestion(2)) {
+			assertEquals(2, answer.getQNumber());
+		}
+		assertTrue(this.queue.getMatches(1, text).isEmpty());
+		assertEquals(Arrays.asList(1), locations(this.queue.getMatches(2, text)));
+		// Queue locations don't change
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), locations(this.queue.getAnswers()));
+
+		// A question with no answers moves nothing
+		this.queue.remapQuestion(7, 1);
+		assertTrue(this.queue.getQuestion(1).isEmpty());
+	}
+
+	@Test
+	public void copySharesOnlyUnchangedAnswers() {
+		final AnswerQueue first = this.queue.copy(null);
+		for (int i = 0; i < 6; i++) {
+			assertNotSame(this.queue.get(i), first.get(i));
+		}
+
+		this.queue.getLive(2).callIn("Caller");
+		this.queue.removeQuestion(3);
+		final AnswerQueue second = this.queue.copy(first);
+
+		assertSame(first.get(0), second.get(0));
+		assertNotSame(first.get(2), second.get(2));
+		assertEquals(Status.CALLING, second.get(2).getStatus());
+		assertEquals(Status.NOT_CALLED_IN, first.get(2).getStatus());
+		assertNull(second.get(3));
+		assertEquals(5, second.nLive());
+		try {
+			second.get(0).markUncalled();
+			fail("Changed a read-only copy");
+		} catch (final UnsupportedOperationException exception) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Check that the status index holds exactly the live answers with each status.
+	 *
+	 * @param queue
+	 *            The queue
+	 */
+	private static void assertStatusesMatch(AnswerQueue queue) {
+		for (final Status status : Status.values()) {
+			final ArrayList<Integer> expected = new ArrayList<Integer>();
+			for (final Answer answer : queue.getAnswers()) {
+				if (answer.getStatus() == status) {
+					expected.add(answer.getQueueLocation());
+				}
+			}
+			assertEquals(status.toString(), expected, locations(queue.getStatus(status)));
+		}
+	}
+
+	/**
+	 * Get the queue locations of answers.
+	 *
+	 * @param answers
+	 *            The answers
+	 * @return Their queue locations, in order
+	 */
+	private static List<Integer> locations(Iterable<Answer> answers) {
+		final ArrayList<Integer> locations = new ArrayList<Integer>();
+		for (final Answer answer : answers) {
+			locations.add(answer.getQueueLocation());
+		}
+		return locations;
+	}
+
+}
@@ -0,0 +1,188 @@
+package net.bubbaland.trivia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.messages.MessageCodec;
+
+/**
+ * Tests for renaming users: renames to new names and merges into names already in use, kept to one contest and out
+ * of the snapshots already copied from it.
+ *
+ * @author Walter Kolczynski
+ */
+public class UserRegistryTest {
+
+	private Trivia	trivia;
+	private Round	round;
+
+	/**
+	 * Propose two answers from alice and bob, with agreements from alice, bob and carol, and have bob call the first
+	 * one in.
+	 */
+	@Before
+	public void setUp() {
+		this.trivia = new Trivia("Team", 1, 2, 9, 18, 36);
+		this.round = this.trivia.getRound(1);
+		this.round.open("alice", 1);
+		this.round.proposeAnswer(1, "First", "alice", 3);
+		this.round.proposeAnswer(1, "Second", "bob", 3);
+		this.round.changeAgreement("alice", 1, Agreement.AGREE);
+		this.round.changeAgreement("bob", 1, Agreement.DISAGREE);
+		this.round.changeAgreement("carol", 1, Agreement.AGREE);
+		this.round.callIn(0, "bob");
+	}
+
+	@Test
+	public void renameChangesEveryAnswer() {
+		this.trivia.changeUserName("alice", "alicia");
+
+		assertEquals("alicia", this.round.getAnswer(0).getSubmitter());
+		assertArrayEquals(new String[] { "alicia", "carol" }, this.round.getAnswer(1).getConcurList(Agreement.AGREE));
+		assertEquals(Agreement.AGREE, this.round.getAgreement("alicia", 1));
+		assertEquals(Agreement.NEUTRAL, this.round.getAgreement("alice", 1));
+
+		// The old name is free to be used by someone else
+		this.round.changeAgreement("alice", 1, Agreement.DISAGREE);
+		assertEquals(Agreement.AGREE, this.round.getAgreement("alicia", 1));
+		assertEquals(0, this.round.getAnswer(1).getAgreement());
+	}
+
+	@Test
+	public void renameToANameInUseMergesTheUsers() throws Exception {
+		// bob disagrees with the second answer and carol agrees; bob's agreement is the one kept
+		this.trivia.changeUserName("bob", "carol");
+
+		final Answer second = this.round.getAnswer(1);
+		assertEquals("carol", second.getSubmitter());
+		assertEquals("carol", this.round.getAnswer(0).getCaller());
+		assertEquals(Agreement.DISAGREE, second.getAgreement("carol"));
+		assertEquals(Agreement.NEUTRAL, second.getAgreement("bob"));
+		assertEquals(0, second.getAgreement());
+		assertArrayEquals(new String[] { "alice" }, second.getConcurList(Agreement.AGREE));
+		assertArrayEquals(new String[] { "carol" }, second.getConcurList(Agreement.DISAGREE));
+
+		final Map<String, Agreement> expected = new LinkedHashMap<String, Agreement>();
+		expected.put("alice", Agreement.AGREE);
+		expected.put("carol", Agreement.DISAGREE);
+		assertEquals(expected, agreements(second));
+
+		// The merged user changes their mind once, not once per name
+		this.round.changeAgreement("carol", 1, Agreement.AGREE);
+		assertEquals(2, second.getAgreement());
+		assertNull(second.getConcurList(Agreement.DISAGREE));
+
+		// Renaming the merged user renames every answer either name was on
+		this.trivia.changeUserName("carol", "dave");
+		assertEquals("dave", second.getSubmitter());
+		assertEquals("dave", this.round.getAnswer(0).getCaller());
+		assertArrayEquals(new String[] { "alice", "dave" }, second.getConcurList(Agreement.AGREE));
+	}
+
+	@Test
+	public void renameLeavesSnapshotsAlone() {
+		final Round roundCopy = this.round.copy(null);
+		final Trivia snapshot = this.trivia.copy(new Round[] { roundCopy, this.trivia.getRound(2).copy(null) });
+
+		this.trivia.changeUserName("alice", "alicia");
+		this.trivia.changeUserName("bob", "carol");
+
+		final Round published = snapshot.getRound(1);
+		assertEquals("alice", published.getAnswer(0).getSubmitter());
+		assertEquals("bob", published.getAnswer(0).getCaller());
+		assertEquals("bob", published.getAnswer(1).getSubmitter());
+		assertEquals(1, published.getAnswer(1).getAgreement());
+		assertArrayEquals(new String[] { "bob" }, published.getAnswer(1).getConcurList(Agreement.DISAGREE));
+
+		// A later copy sees the new names, and shares nothing with the first
+		final Round later = this.round.copy(null);
+		assertEquals("alicia", later.getAnswer(0).getSubmitter());
+		assertEquals("carol", later.getAnswer(1).getSubmitter());
+		assertNotSame(later.getAnswer(1), published.getAnswer(1));
+		assertEquals("bob", published.getAnswer(1).getSubmitter());
+	}
+
+	@Test
+	public void renameLeavesOtherContestsAlone() {
+		final Trivia other = new Trivia("Team", 1, 2, 9, 18, 36);
+		other.getRound(1).proposeAnswer(1, "First", "alice", 3);
+
+		this.trivia.changeUserName("alice", "alicia");
+
+		assertEquals("alice", other.getRound(1).getAnswer(0).getSubmitter());
+		assertEquals("alicia", this.round.getAnswer(0).getSubmitter());
+	}
+
+	@Test
+	public void roundsJoiningAContestTakeItsNames() throws Exception {
+		final Round received = sendThroughJson(this.round);
+		assertEquals("bob", received.getAnswer(1).getSubmitter());
+
+		final Trivia other = new Trivia("Team", 1, 2, 9, 18, 36);
+		other.updateRounds(new Round[] { received });
+		other.changeUserName("bob", "robert");
+
+		assertEquals("robert", received.getAnswer(1).getSubmitter());
+		assertEquals("robert", received.getAnswer(0).getCaller());
+		assertEquals(Agreement.DISAGREE, received.getAgreement("robert", 1));
+		assertEquals("bob", this.round.getAnswer(1).getSubmitter());
+	}
+
+	@Test
+	public void registryDropsRenamedNames() {
+		final UserRegistry registry = new UserRegistry();
+		final UserName bob = registry.get("bob");
+		final UserName carol = registry.get("carol");
+		assertSame(bob, registry.get("bob"));
+
+		registry.rename("bob", "carol");
+
+		assertSame(carol, bob.resolve());
+		assertEquals("carol", bob.getName());
+		assertNotSame(bob, registry.get("bob"));
+		assertSame(UserName.NOBODY, registry.get(""));
+	}
+
+	/**
+	 * Send a round through JSON, as the client receives it.
+	 *
+	 * @param round
+	 *            The round
+	 * @return The round read back
+	 */
+	private static Round sendThroughJson(Round round) throws Exception {
+		final ObjectMapper mapper = MessageCodec.getMapper();
+		return mapper.readValue(mapper.writeValueAsString(round), Round.class);
+	}
+
+	/**
+	 * Get an answer's agreements as sent to clients.
+	 *
+	 * @param answer
+	 *            The answer
+	 * @return Each user's agreement
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Agreement> agreements(Answer answer) throws Exception {
+		final ObjectMapper mapper = MessageCodec.getMapper();
+		final Map<String, Object> json = mapper.readValue(mapper.writeValueAsString(answer), Map.class);
+		final Map<String, Agreement> agreements = new LinkedHashMap<String, Agreement>();
+		for (final Map.Entry<String, Object> entry : ( (Map<String, Object>) json.get("agreement") ).entrySet()) {
+			agreements.put(entry.getKey(), Agreement.valueOf((String) entry.getValue()));
+		}
+		return agreements;
+	}
+
+}
@@ -0,0 +1,168 @@
+package net.bubbaland.trivia.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.User;
+import net.bubbaland.trivia.messages.AgreementMessage;
+import net.bubbaland.trivia.messages.CallInAnswerMessage;
+import net.bubbaland.trivia.messages.ChangeUserMessage;
+import net.bubbaland.trivia.messages.CloseQuestionMessage;
+import net.bubbaland.trivia.messages.MarkAnswerCorrectMessage;
+import net.bubbaland.trivia.messages.Message;
+import net.bubbaland.trivia.messages.MessageCodec;
+import net.bubbaland.trivia.messages.OpenQuestionMessage;
+import net.bubbaland.trivia.messages.ProposeAnswerMessage;
+import net.bubbaland.trivia.messages.RemapQuestionMessage;
+import net.bubbaland.trivia.messages.ResetQuestionMessage;
+import net.bubbaland.trivia.messages.SetOperatorMessage;
+import net.bubbaland.trivia.messages.SetQuestionMessage;
+
+/**
+ * Tests that a server restarted after a crash rebuilds the state it had from the last snapshot and the journal
+ * entries after it.
+ *
+ * @author Walter Kolczynski
+ */
+public class JournalRecoveryTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	private Properties		settings;
+	private TriviaServer	server;
+
+	/**
+	 * Keep the server's files in the temporary folder, and leave snapshots, charts and standings to the test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		this.settings = new Properties();
+		this.settings.setProperty("nRounds", "2");
+		this.settings.setProperty("SaveDir", this.folder.newFolder("saves").getPath());
+		this.settings.setProperty("ChartDir", this.folder.newFolder("charts").getPath());
+		this.settings.setProperty("Log.Dir", this.folder.newFolder("logs").getPath());
+		this.settings.setProperty("Log.Console", "false");
+		this.settings.setProperty("Journal.Enabled", "true");
+		this.settings.setProperty("Journal.Dir", this.folder.newFolder("journal").getPath());
+		this.settings.setProperty("Journal.Fsync", "ALWAYS");
+		this.settings.setProperty("Journal.SnapshotFrequency", "3600");
+		this.settings.setProperty("SaveFrequency", "3600");
+		this.settings.setProperty("StandingsFrequency", "3600");
+		this.settings.setProperty("Metrics.JMX", "false");
+		this.settings.setProperty("Metrics.Port", "0");
+		this.settings.setProperty("FlightRecorder.Enabled", "false");
+	}
+
+	@After
+	public void tearDown() {
+		if (this.server != null) {
+			this.server.shutdown();
+		}
+	}
+
+	@Test
+	public void recoveryRebuildsTheLiveState() throws Exception {
+		this.server = new TriviaServer(this.settings);
+		final User alice = user("alice");
+		final User bob = user("bob");
+		final User carol = user("carol");
+
+		// Before the checkpoint
+		for (int q = 1; q <= 4; q++) {
+			this.send(alice, new OpenQuestionMessage(1, q));
+		}
+		this.send(alice, new SetQuestionMessage(1, 1, "Question 1", 10));
+		this.send(alice, new ProposeAnswerMessage(1, 1, "Answer 1", 3));
+		this.send(bob, new ProposeAnswerMessage(1, 2, "Answer 2", 4));
+		this.send(carol, new ProposeAnswerMessage(1, 1, "Answer 3", 2));
+		this.send(bob, new ProposeAnswerMessage(1, 3, "Answer 4", 5));
+		this.send(bob, new AgreementMessage(1, 0, Agreement.AGREE));
+		this.send(carol, new AgreementMessage(1, 0, Agreement.DISAGREE));
+		this.send(alice, new CallInAnswerMessage(1, 2));
+		this.server.awaitApplied();
+		this.server.saveSnapshot();
+
+		// After the checkpoint: leave a gap in the queue, then use the indexes after it
+		this.send(alice, new ResetQuestionMessage(1, 2));
+		this.send(carol, new ProposeAnswerMessage(1, 1, "Answer 5", 1));
+		// Applied as the new name, though sent before the rename was applied
+		this.send(bob, new ChangeUserMessage("robert"));
+		this.send(bob, new ProposeAnswerMessage(1, 3, "Answer 6", 3));
+		this.send(alice, new AgreementMessage(1, 3, Agreement.AGREE));
+		this.send(carol, new AgreementMessage(1, 4, Agreement.AGREE));
+		this.send(alice, new MarkAnswerCorrectMessage(1, 2));
+		this.send(alice, new SetOperatorMessage(1, 2, "Operator"));
+		this.send(alice, new RemapQuestionMessage(1, 3, 4));
+		this.send(alice, new CloseQuestionMessage(1, 1));
+
+		// Crash: the server never started, so no final snapshot is saved
+		this.server.shutdown();
+		final Trivia live = this.server.getTrivia();
+		assertEquals("robert", live.getRound(1).getAnswer(5).getSubmitter());
+		assertEquals(6, live.getRound(1).getAnswerQueueSize());
+
+		// Answers replayed as of the restart instead of when they were proposed would get later timestamps
+		Thread.sleep(1100);
+		this.server = new TriviaServer(this.settings);
+		final Trivia recovered = this.server.getTrivia();
+
+		for (int r = 1; r <= live.getNRounds(); r++) {
+			SaveMediatorTest.assertQueuesMatch(live.getRound(r), recovered.getRound(r));
+			assertEquals("round " + r, withoutVersion(live.getRound(r)), withoutVersion(recovered.getRound(r)));
+		}
+		assertEquals(live.getCurrentRoundNumber(), recovered.getCurrentRoundNumber());
+	}
+
+	/**
+	 * Send a message to the server as a user.
+	 *
+	 * @param user
+	 *            The user
+	 * @param message
+	 *            The message
+	 */
+	private void send(User user, Message message) {
+		this.server.submitMessage(message, user, null);
+	}
+
+	/**
+	 * Create a user.
+	 *
+	 * @param userName
+	 *            The user name
+	 * @return The user
+	 */
+	private static User user(String userName) {
+		final User user = new User(2);
+		user.setUserName(userName);
+		return user;
+	}
+
+	/**
+	 * Get a round as sent to clients, without its version, which restarts when the server does.
+	 *
+	 * @param round
+	 *            The round
+	 * @return The round's JSON
+	 */
+	private static JsonNode withoutVersion(Round round) {
+		final ObjectNode json = MessageCodec.getMapper().valueToTree(round);
+		json.remove("version");
+		return json;
+	}
+
+}
@@ -0,0 +1,118 @@
+package net.bubbaland.trivia.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.bubbaland.trivia.Answer;
+import net.bubbaland.trivia.Answer.Agreement;
+import net.bubbaland.trivia.Round;
+import net.bubbaland.trivia.Trivia;
+import net.bubbaland.trivia.User;
+
+/**
+ * Tests that saving the contest to file and loading it back keeps the answer queue as it was.
+ *
+ * @author Walter Kolczynski
+ */
+public class SaveMediatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void saveAndLoadKeepQueueLocations() throws Exception {
+		final Trivia trivia = newTrivia();
+		final Round round = trivia.getRound(1);
+		for (int q = 1; q <= 3; q++) {
+			round.open("Typist", q);
+			round.editQuestion(q, 10 * q, "Question " + q);
+		}
+		final int[] qNumbers = { 1, 2, 1, 3, 2, 1, 3 };
+		for (int i = 0; i < qNumbers.length; i++) {
+			round.proposeAnswer(qNumbers[i], "Answer " + ( i + 1 ), "User" + i, i % 5, 1000000L * i);
+		}
+		round.changeAgreement("User1", 0, Agreement.AGREE);
+		round.changeAgreement("User2", 0, Agreement.DISAGREE);
+		round.changeAgreement("User3", 0, Agreement.AGREE);
+		round.changeAgreement("User3", 6, Agreement.NEUTRAL);
+		round.callIn(0, "Caller");
+		round.markPartial(2, "Caller");
+		round.markCorrect(5, "Caller", new User[0]);
+		round.setOperator(5, "Operator");
+		// Leave gaps in the middle and at the end of the queue
+		round.resetQuestion(2);
+		round.resetQuestion(3);
+
+		final Trivia loaded = this.saveAndLoad(trivia);
+		final Round loadedRound = loaded.getRound(1);
+
+		assertEquals(7, loadedRound.getAnswerQueueSize());
+		assertQueuesMatch(round, loadedRound);
+
+		// Answers proposed after loading go where they would have gone before saving
+		round.proposeAnswer(1, "Answer 8", "User8", 2);
+		loadedRound.proposeAnswer(1, "Answer 8", "User8", 2);
+		assertEquals(8, loadedRound.getAnswer(7).getQueueLocation());
+		assertQueuesMatch(round, loadedRound);
+	}
+
+	/**
+	 * Save a contest to the temporary folder and load it into a new contest.
+	 *
+	 * @param trivia
+	 *            The contest to save
+	 * @return The loaded contest
+	 */
+	private Trivia saveAndLoad(Trivia trivia) throws Exception {
+		final SaveMediator saveMediator =
+				new SaveMediator(this.folder.getRoot().getPath(), this.folder.newFolder("charts").getPath());
+		final String saveName = saveMediator.saveState(trivia);
+		assertNotNull(saveName);
+		return saveMediator.loadState(newTrivia(), "Test", saveName);
+	}
+
+	/**
+	 * @return a new contest with the same shape as the saved one
+	 */
+	private static Trivia newTrivia() {
+		return new Trivia("Team", 1, 2, 9, 18, 36);
+	}
+
+	/**
+	 * Check that two rounds have the same answers at the same queue locations, with the same agreements.
+	 *
+	 * @param expected
+	 *            The original round
+	 * @param actual
+	 *            The loaded round
+	 */
+	static void assertQueuesMatch(Round expected, Round actual) {
+		assertEquals(expected.getAnswerQueueSize(), actual.getAnswerQueueSize());
+		final Answer[] expectedAnswers = expected.getAnswerQueue();
+		final Answer[] actualAnswers = actual.getAnswerQueue();
+		assertEquals(expectedAnswers.length, actualAnswers.length);
+		for (int a = 0; a < expectedAnswers.length; a++) {
+			final Answer e = expectedAnswers[a];
+			final Answer x = actualAnswers[a];
+			final String where = "answer at location " + e.getQueueLocation();
+			assertEquals(where, e.getQueueLocation(), x.getQueueLocation());
+			assertEquals(where, e.getQNumber(), x.getQNumber());
+			assertEquals(where, e.getAnswerText(), x.getAnswerText());
+			assertEquals(where, e.getSubmitter(), x.getSubmitter());
+			assertEquals(where, e.getConfidence(), x.getConfidence());
+			assertEquals(where, e.getTimestamp(), x.getTimestamp());
+			assertEquals(where, e.getStatus(), x.getStatus());
+			assertEquals(where, e.getCaller(), x.getCaller());
+			assertEquals(where, e.getOperator(), x.getOperator());
+			for (final Agreement agreement : Agreement.values()) {
+				assertArrayEquals(where, e.getConcurList(agreement), x.getConcurList(agreement));
+			}
+		}
+	}
+
+}